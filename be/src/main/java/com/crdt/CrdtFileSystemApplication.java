@@ -7,6 +7,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 
 import com.crdt.service.CrdtService;
+import com.crdt.service.PeerSyncService;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -18,6 +19,7 @@ import lombok.extern.slf4j.Slf4j;
 public class CrdtFileSystemApplication implements CommandLineRunner {
 
     private final CrdtService crdtService;
+    private final PeerSyncService peerSyncService;
 
     public static void main(String[] args) {
         SpringApplication.run(CrdtFileSystemApplication.class, args);
@@ -27,6 +29,7 @@ public class CrdtFileSystemApplication implements CommandLineRunner {
     public void run(String... args) throws Exception {
         log.info("Initializing CRDT File System...");
         crdtService.initializeCrdtTree();
+        peerSyncService.bootstrapIfEmpty();
         log.info("CRDT File System initialized successfully");
     }
 
@@ -37,6 +40,7 @@ public class CrdtFileSystemApplication implements CommandLineRunner {
     public void syncWithReplicas() {
         try {
             crdtService.syncWithReplicas();
+            peerSyncService.syncWithPeers();
         } catch (Exception e) {
             log.error("Error during sync: {}", e.getMessage());
         }
@@ -0,0 +1,58 @@
+package com.crdt.config;
+
+import java.net.URI;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import com.crdt.storage.LocalBlobStore;
+import com.crdt.storage.S3BlobStore;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+
+/**
+ * Selects the blob store with {@code file.storage.type}. The local store is
+ * always created: with S3 it stages upload sessions and serves files written
+ * before the switch.
+ */
+@Configuration
+public class StorageConfig {
+
+    @Bean
+    public LocalBlobStore localBlobStore(@Value("${file.storage.path}") String storagePath) {
+        return new LocalBlobStore(storagePath);
+    }
+
+    @Bean(destroyMethod = "close")
+    @Primary
+    @ConditionalOnProperty(name = "file.storage.type", havingValue = "s3")
+    public S3BlobStore s3BlobStore(LocalBlobStore localBlobStore,
+            @Value("${file.storage.s3.bucket}") String bucket,
+            @Value("${file.storage.s3.region:us-east-1}") String region,
+            @Value("${file.storage.s3.endpoint:}") String endpoint,
+            @Value("${file.storage.s3.path-style:false}") boolean pathStyle,
+            @Value("${file.storage.s3.access-key:}") String accessKey,
+            @Value("${file.storage.s3.secret-key:}") String secretKey,
+            @Value("${file.storage.s3.prefix:}") String prefix,
+            @Value("${file.storage.s3.part-size:16777216}") long partSize,
+            @Value("${file.storage.s3.parallelism:8}") int parallelism) {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                .forcePathStyle(pathStyle)
+                .credentialsProvider(accessKey.isBlank()
+                        ? DefaultCredentialsProvider.create()
+                        : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)));
+        if (!endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        return new S3BlobStore(builder.build(), bucket, prefix, partSize, parallelism, localBlobStore);
+    }
+}
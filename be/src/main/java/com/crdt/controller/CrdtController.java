@@ -1,21 +1,35 @@
 package com.crdt.controller;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.crdt.crdt.CrdtTree;
 import com.crdt.dto.CrdtOperationDto;
+import com.crdt.dto.PeerSyncRequest;
 import com.crdt.dto.SyncResponse;
 import com.crdt.model.CrdtOperation;
+import com.crdt.service.CrdtEventPublisher;
 import com.crdt.service.CrdtService;
+import com.crdt.service.PeerSyncService;
+import com.crdt.service.TreeJsonCache;
 
 import lombok.RequiredArgsConstructor;
 
@@ -25,12 +39,18 @@ import lombok.RequiredArgsConstructor;
 public class CrdtController {
 
     private final CrdtService crdtService;
+    private final PeerSyncService peerSyncService;
+    private final CrdtEventPublisher eventPublisher;
+    private final TreeJsonCache treeJsonCache;
+
+    @Value("${crdt.sync.peer-token:}")
+    private String peerToken;
 
     @PostMapping("/operations")
     public ResponseEntity<?> submitOperation(@RequestBody CrdtOperationDto operationDto) {
         try {
             // Convert DTO to entity and process
-            CrdtOperation operation = convertToEntity(operationDto);
+            CrdtOperation operation = operationDto.toEntity();
             crdtService.processExternalOperation(operation);
             return ResponseEntity.ok("Operation processed successfully");
         } catch (Exception e) {
@@ -39,10 +59,18 @@ public class CrdtController {
     }
 
     @GetMapping("/state")
-    public ResponseEntity<?> getCrdtState() {
+    public ResponseEntity<?> getCrdtState(WebRequest webRequest) {
         try {
-            Map<String, Object> state = crdtService.getTreeStructure();
-            return ResponseEntity.ok(state);
+            if (webRequest.checkNotModified(treeJsonCache.currentEtag())) {
+                return null;
+            }
+            TreeJsonCache.CachedTree state = treeJsonCache.get();
+            if (state == null) {
+                StreamingResponseBody body = treeJsonCache::write;
+                return ResponseEntity.ok().eTag(treeJsonCache.currentEtag()).contentType(MediaType.APPLICATION_JSON)
+                        .body(body);
+            }
+            return ResponseEntity.ok().eTag(state.etag()).contentType(MediaType.APPLICATION_JSON).body(state.json());
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
@@ -63,7 +91,7 @@ public class CrdtController {
         try {
             List<CrdtOperation> operations = crdtService.getOperationsSince(since);
             List<CrdtOperationDto> dtos = operations.stream()
-                    .map(this::convertToDto)
+                    .map(CrdtOperationDto::fromEntity)
                     .collect(Collectors.toList());
 
             SyncResponse response = new SyncResponse();
@@ -78,37 +106,78 @@ public class CrdtController {
         }
     }
 
-    private CrdtOperation convertToEntity(CrdtOperationDto dto) {
-        return CrdtOperation.builder()
-                .id(dto.getId())
-                .nodeId(dto.getNodeId())
-                .parentId(dto.getParentId())
-                .oldParentId(dto.getOldParentId())
-                .nodeName(dto.getNodeName())
-                .oldNodeName(dto.getOldNodeName())
-                .nodeType(dto.getNodeType() != null ? com.crdt.model.FileNode.FileType.valueOf(dto.getNodeType()) : null)
-                .replicaId(dto.getReplicaId())
-                .timestamp(dto.getTimestamp())
-                .vectorClock(dto.getVectorClock())
-                .isApplied(dto.isApplied())
-                .build();
+    /**
+     * Replays the WebSocket events a reconnecting client missed after sequence
+     * {@code since}. The response sets {@code resyncRequired} when the client
+     * must reload the tree instead (server restarted or the gap was evicted).
+     */
+    @GetMapping("/events")
+    public ResponseEntity<?> replayEvents(@RequestParam long since, @RequestParam String epoch,
+            @RequestParam(required = false) UUID folderId) {
+        try {
+            return ResponseEntity.ok(eventPublisher.replaySince(since, epoch, folderId));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Replica-to-replica pull: returns the operations this replica holds that
+     * are not covered by the caller's vector clock, oldest first. Callers page
+     * by re-posting their advanced clock until {@code hasMore} is false.
+     */
+    @PostMapping("/peer/operations")
+    public ResponseEntity<?> getMissingOperations(
+            @RequestHeader(value = PeerSyncService.PEER_TOKEN_HEADER, required = false) String token,
+            @RequestBody PeerSyncRequest request) {
+        if (!isValidPeerToken(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Invalid peer token");
+        }
+        try {
+            int limit = (request.getLimit() != null && request.getLimit() > 0)
+                    ? Math.min(request.getLimit(), PeerSyncService.MAX_PAGE_SIZE)
+                    : PeerSyncService.MAX_PAGE_SIZE;
+            Map<String, Long> vectorClock = (request.getVectorClock() != null) ? request.getVectorClock() : Map.of();
+            List<CrdtOperation> operations = crdtService.getOperationsMissingFrom(vectorClock, limit + 1);
+
+            SyncResponse response = new SyncResponse();
+            response.setReplicaId(crdtService.getReplicaId());
+            response.setVectorClock(crdtService.getVectorClock());
+            response.setOperations(operations.stream()
+                    .limit(limit)
+                    .map(CrdtOperationDto::fromEntity)
+                    .collect(Collectors.toList()));
+            response.setHasMore(operations.size() > limit);
+            response.setCompactionHorizon(crdtService.getCompactionHorizon());
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Streams a consistent snapshot of the tree, its vector clock and the
+     * causally unstable log tail so a new or long-offline replica can install
+     * state directly instead of replaying history.
+     */
+    @GetMapping("/peer/snapshot")
+    public ResponseEntity<?> getSnapshot(
+            @RequestHeader(value = PeerSyncService.PEER_TOKEN_HEADER, required = false) String token) {
+        if (!isValidPeerToken(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Invalid peer token");
+        }
+        CrdtTree.Snapshot snapshot = crdtService.getSnapshot();
+        StreamingResponseBody body = out -> peerSyncService.writeSnapshot(snapshot, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
-    private CrdtOperationDto convertToDto(CrdtOperation operation) {
-        CrdtOperationDto dto = new CrdtOperationDto();
-        dto.setId(operation.getId());
-        dto.setNodeId(operation.getNodeId());
-        dto.setParentId(operation.getParentId());
-        dto.setOldParentId(operation.getOldParentId());
-        dto.setNodeName(operation.getNodeName());
-        dto.setOldNodeName(operation.getOldNodeName());
-        if (operation.getNodeType() != null) {
-            dto.setNodeType(operation.getNodeType().toString());
+    private boolean isValidPeerToken(String token) {
+        if (peerToken.isBlank() || token == null) {
+            return false;
         }
-        dto.setReplicaId(operation.getReplicaId());
-        dto.setTimestamp(operation.getTimestamp());
-        dto.setVectorClock(operation.getVectorClock());
-        dto.setApplied(operation.getIsApplied());
-        return dto;
+        // Constant-time, so response timing does not reveal how much of a guess matched.
+        return MessageDigest.isEqual(peerToken.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
     }
 }
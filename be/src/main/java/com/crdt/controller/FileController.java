@@ -1,10 +1,12 @@
 package com.crdt.controller;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -16,16 +18,25 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.crdt.crdt.TreeNode;
 import com.crdt.dto.CreateFolderRequest;
+import com.crdt.dto.CreateUploadRequest;
 import com.crdt.dto.CopyFileRequest;
 import com.crdt.dto.FileNodeDto;
 import com.crdt.dto.MoveFileRequest;
 import com.crdt.dto.UpdateFileRequest;
+import com.crdt.exception.FileTooLargeException;
+import com.crdt.exception.QuotaExceededException;
 import com.crdt.model.FileNode;
 import com.crdt.model.User;
+import com.crdt.service.BulkCopyService;
 import com.crdt.service.CrdtService;
 import com.crdt.service.FileService;
+import com.crdt.service.TreeJsonCache;
+import com.crdt.service.UploadSessionService;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -33,6 +44,8 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 
@@ -45,13 +58,31 @@ public class FileController {
 
     private final FileService fileService;
     private final CrdtService crdtService;
+    private final TreeJsonCache treeJsonCache;
+    private final UploadSessionService uploadSessionService;
+    private final BulkCopyService bulkCopyService;
 
     @GetMapping("/tree")
-    @Operation(summary = "Get file tree", description = "Retrieve the complete file system tree structure")
+    @Operation(summary = "Get file tree", description = "Retrieve the complete file system tree structure, or only "
+            + "the nodes changed since a version previously returned by this endpoint")
     @ApiResponse(responseCode = "200", description = "File tree retrieved successfully")
-    public ResponseEntity<?> getFileTree(Authentication authentication) {
-        Map<String, Object> treeStructure = crdtService.getTreeStructure();
-        return ResponseEntity.ok(treeStructure);
+    public ResponseEntity<?> getFileTree(
+            @Parameter(description = "Return only changes after this tree version") @RequestParam(required = false) Long sinceVersion,
+            @Parameter(description = "Epoch returned together with sinceVersion") @RequestParam(required = false) String epoch,
+            Authentication authentication, WebRequest webRequest) throws IOException {
+        if (sinceVersion != null) {
+            return ResponseEntity.ok(crdtService.getTreeDelta(sinceVersion, epoch));
+        }
+        if (webRequest.checkNotModified(treeJsonCache.currentEtag())) {
+            return null;
+        }
+        TreeJsonCache.CachedTree tree = treeJsonCache.get();
+        if (tree == null) {
+            StreamingResponseBody body = treeJsonCache::write;
+            return ResponseEntity.ok().eTag(treeJsonCache.currentEtag()).contentType(MediaType.APPLICATION_JSON)
+                    .body(body);
+        }
+        return ResponseEntity.ok().eTag(tree.etag()).contentType(MediaType.APPLICATION_JSON).body(tree.json());
     }
 
     @PostMapping("/upload")
@@ -59,7 +90,7 @@ public class FileController {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "File uploaded successfully"),
             @ApiResponse(responseCode = "400", description = "Bad request or upload failed"),
-            @ApiResponse(responseCode = "413", description = "File size exceeds maximum allowed size")
+            @ApiResponse(responseCode = "413", description = "File size exceeds maximum allowed size or storage quota")
     })
     public ResponseEntity<?> uploadFile(
             @Parameter(description = "File to upload") @RequestParam("file") org.springframework.web.multipart.MultipartFile file,
@@ -72,13 +103,31 @@ public class FileController {
 
             FileNodeDto dto = convertToDto(uploadedFile);
             return ResponseEntity.ok(dto);
+        } catch (QuotaExceededException | FileTooLargeException e) {
+            throw e;
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Upload failed: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/uploads")
+    @Operation(summary = "Start resumable upload", description = "Create an upload session; chunks are then sent "
+            + "with PUT /files/uploads/{uploadId}/chunks/{index} in any order and committed at the end")
+    public ResponseEntity<?> createUpload(@RequestBody CreateUploadRequest request, Authentication authentication) {
+        try {
+            User user = (User) authentication.getPrincipal();
+            return ResponseEntity.ok(uploadSessionService.create(request.getName(), request.getParentId(),
+                    request.getSize(), request.getMimeType(), request.getChunkSize(), user.getId()));
+        } catch (QuotaExceededException | FileTooLargeException e) {
+            throw e;
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         } catch (RuntimeException e) {
-            if (e.getMessage() != null && e.getMessage().contains("size")) {
-                return ResponseEntity.status(org.springframework.http.HttpStatus.PAYLOAD_TOO_LARGE)
-                        .body(e.getMessage());
-            }
             return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR)
@@ -86,12 +135,87 @@ public class FileController {
         }
     }
 
+    @GetMapping("/uploads/{uploadId}")
+    @Operation(summary = "Get upload status", description = "List the chunks received so far, to resume an upload")
+    public ResponseEntity<?> getUpload(@PathVariable UUID uploadId, Authentication authentication) {
+        try {
+            User user = (User) authentication.getPrincipal();
+            return ResponseEntity.ok(uploadSessionService.getStatus(uploadId, user.getId()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @PutMapping("/uploads/{uploadId}/chunks/{index}")
+    @Operation(summary = "Upload chunk", description = "Send one chunk as the raw request body; all chunks but the "
+            + "last must be exactly chunkSize bytes")
+    public ResponseEntity<?> uploadChunk(@PathVariable UUID uploadId, @PathVariable int index,
+            Authentication authentication, HttpServletRequest request) {
+        try {
+            User user = (User) authentication.getPrincipal();
+            return ResponseEntity.ok(uploadSessionService.writeChunk(uploadId, index, request.getInputStream(),
+                    user.getId()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/uploads/{uploadId}/commit")
+    @Operation(summary = "Commit upload", description = "Create the file once every chunk has been received")
+    public ResponseEntity<?> commitUpload(@PathVariable UUID uploadId, Authentication authentication) {
+        try {
+            User user = (User) authentication.getPrincipal();
+            return ResponseEntity.ok(convertToDto(uploadSessionService.commit(uploadId, user.getId())));
+        } catch (QuotaExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/uploads/{uploadId}")
+    @Operation(summary = "Abort upload", description = "Discard an upload session and the chunks received")
+    public ResponseEntity<?> abortUpload(@PathVariable UUID uploadId, Authentication authentication) {
+        try {
+            User user = (User) authentication.getPrincipal();
+            uploadSessionService.abort(uploadId, user.getId());
+            return ResponseEntity.ok().build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @GetMapping("/{id}/download")
-    public ResponseEntity<?> downloadFile(@PathVariable UUID id, Authentication authentication) {
+    @Operation(summary = "Download file", description = "Download a file; supports Range (including multiple "
+            + "ranges), If-Range and conditional requests against its ETag")
+    public ResponseEntity<?> downloadFile(@PathVariable UUID id, Authentication authentication,
+            HttpServletRequest request, HttpServletResponse response) {
+        try {
+            User user = (User) authentication.getPrincipal();
+            fileService.downloadFile(id, user.getId(), request, response);
+            return null;
+        } catch (Exception e) {
+            if (response.isCommitted()) {
+                throw new IllegalStateException("Download of " + id + " failed after the response started", e);
+            }
+            response.reset();
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/{id}/archive")
+    @Operation(summary = "Download folder", description = "Stream a folder and everything below it as a ZIP archive")
+    public ResponseEntity<?> downloadArchive(@PathVariable UUID id, Authentication authentication,
+            HttpServletResponse response) {
         try {
             User user = (User) authentication.getPrincipal();
-            return fileService.downloadFile(id, user.getId());
+            fileService.downloadArchive(id, user.getId(), response);
+            return null;
         } catch (Exception e) {
+            if (response.isCommitted()) {
+                throw new IllegalStateException("Archive of " + id + " failed after the response started", e);
+            }
+            response.reset();
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
@@ -151,9 +275,11 @@ public class FileController {
             Authentication authentication) {
         try {
             User user = (User) authentication.getPrincipal();
-            FileNode copied = crdtService.copyNode(id, request.getTargetParentId(), user.getId()).getFileNode();
+            FileNode copied = bulkCopyService.copy(id, request.getTargetParentId(), user.getId()).getFileNode();
             FileNodeDto dto = convertToDto(copied);
             return ResponseEntity.ok(dto);
+        } catch (QuotaExceededException e) {
+            throw e;
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
@@ -163,7 +289,7 @@ public class FileController {
     public ResponseEntity<?> getChildren(@PathVariable UUID id, Authentication authentication) {
         try {
             User user = (User) authentication.getPrincipal();
-            List<FileNode> children = fileService.getChildren(id, user.getId());
+            List<TreeNode> children = fileService.getChildren(id, user.getId());
 
             List<FileNodeDto> dtos = children.stream()
                     .map(this::convertToDto)
@@ -175,14 +301,64 @@ public class FileController {
         }
     }
 
+    @GetMapping("/resolve")
+    @Operation(summary = "Resolve path", description = "Find the file or folder at a slash-separated path such as "
+            + "/projects/2024/report.pdf")
+    public ResponseEntity<?> resolvePath(@Parameter(description = "Path from the root") @RequestParam String path,
+            Authentication authentication) {
+        try {
+            return ResponseEntity.ok(convertToDto(crdtService.resolvePath(path)));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/search")
+    @Operation(summary = "Search by name", description = "Find files and folders whose name contains words starting "
+            + "with each word of the query, shallowest and most recently changed first")
+    public ResponseEntity<?> search(@Parameter(description = "Words to search for") @RequestParam String q,
+            @Parameter(description = "Maximum number of results") @RequestParam(required = false) Integer limit,
+            Authentication authentication) {
+        try {
+            List<FileNodeDto> results = crdtService.search(q, limit).stream()
+                    .map(hit -> {
+                        FileNodeDto dto = convertToDto(hit.node());
+                        dto.setPath(hit.path());
+                        return dto;
+                    })
+                    .collect(Collectors.toList());
+            return ResponseEntity.ok(results);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/{id}/subtree")
+    @Operation(summary = "Get subtree", description = "Page through a folder's children in name order, optionally "
+            + "expanded several levels deep, served from the in-memory tree")
+    public ResponseEntity<?> getSubtree(@PathVariable UUID id,
+            @Parameter(description = "Levels to expand; 1 returns only direct children") @RequestParam(required = false) Integer depth,
+            @Parameter(description = "Maximum number of nodes in the response") @RequestParam(required = false) Integer limit,
+            @Parameter(description = "nextCursor from the previous page") @RequestParam(required = false) String cursor,
+            Authentication authentication) {
+        try {
+            return ResponseEntity.ok(crdtService.getSubtree(id, depth, limit, cursor));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     private FileNodeDto convertToDto(FileNode fileNode) {
         FileNodeDto dto = new FileNodeDto();
         dto.setId(fileNode.getId());
         dto.setParentId(fileNode.getParentId());
         dto.setName(fileNode.getName());
+        TreeNode treeNode = crdtService.getNode(fileNode.getId());
+        dto.setDisplayName(treeNode != null ? crdtService.getDisplayName(treeNode) : fileNode.getName());
         dto.setType(fileNode.getType().toString());
         dto.setFileSize(fileNode.getFileSize());
         dto.setMimeType(fileNode.getMimeType());
+        dto.setContentHash(fileNode.getContentHash());
         dto.setTimestamp(fileNode.getTimestamp());
         dto.setReplicaId(fileNode.getReplicaId());
         dto.setDeleted(fileNode.getIsDeleted());
@@ -190,4 +366,19 @@ public class FileController {
         dto.setUpdatedAt(fileNode.getUpdatedAt());
         return dto;
     }
+
+    private FileNodeDto convertToDto(TreeNode treeNode) {
+        FileNodeDto dto = new FileNodeDto();
+        dto.setId(treeNode.getId());
+        dto.setParentId(treeNode.getParentId());
+        dto.setName(treeNode.getName());
+        dto.setDisplayName(crdtService.getDisplayName(treeNode));
+        dto.setType(treeNode.getType().toString());
+        dto.setFileSize(treeNode.getFileSize());
+        dto.setMimeType(treeNode.getMimeType());
+        dto.setTimestamp(treeNode.getTimestamp());
+        dto.setReplicaId(treeNode.getReplicaId());
+        dto.setDeleted(treeNode.isDeleted());
+        return dto;
+    }
 }
@@ -1,5 +1,7 @@
 package com.crdt.controller;
 
+import com.crdt.exception.FileTooLargeException;
+import com.crdt.exception.QuotaExceededException;
 import com.crdt.exception.ResourceNotFoundException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -27,6 +29,26 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(body, HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(QuotaExceededException.class)
+    public ResponseEntity<Object> handleQuotaExceededException(QuotaExceededException ex, WebRequest request) {
+        log.warn("Storage quota exceeded: {}", ex.getMessage());
+        Map<String, Object> body = new HashMap<>();
+        body.put("message", ex.getMessage());
+        body.put("error", "Payload Too Large");
+        body.put("status", HttpStatus.PAYLOAD_TOO_LARGE.value());
+        return new ResponseEntity<>(body, HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    @ExceptionHandler(FileTooLargeException.class)
+    public ResponseEntity<Object> handleFileTooLargeException(FileTooLargeException ex, WebRequest request) {
+        log.warn("File too large: {}", ex.getMessage());
+        Map<String, Object> body = new HashMap<>();
+        body.put("message", ex.getMessage());
+        body.put("error", "Payload Too Large");
+        body.put("status", HttpStatus.PAYLOAD_TOO_LARGE.value());
+        return new ResponseEntity<>(body, HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
     @ExceptionHandler(MaxUploadSizeExceededException.class)
     public ResponseEntity<String> handleMaxUploadSizeExceeded(MaxUploadSizeExceededException ex) {
         log.error("File upload size exceeded: {}", ex.getMessage());
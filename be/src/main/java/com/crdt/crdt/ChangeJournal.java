@@ -0,0 +1,59 @@
+package com.crdt.crdt;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Bounded record of which nodes changed at each tree version. Lets clients
+ * that already hold version {@code v} fetch only what changed after it. Once
+ * an entry has been evicted, callers asking from before it need a full tree.
+ */
+class ChangeJournal {
+
+    private record Entry(long version, Set<UUID> changedIds) {
+    }
+
+    private final int capacity;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    // Versions at or below this one are not covered by the journal.
+    private long floorVersion;
+
+    ChangeJournal(int capacity, long floorVersion) {
+        this.capacity = capacity;
+        this.floorVersion = floorVersion;
+    }
+
+    synchronized void record(long version, Set<UUID> changedIds) {
+        entries.addLast(new Entry(version, changedIds));
+        while (entries.size() > capacity) {
+            floorVersion = entries.removeFirst().version();
+        }
+    }
+
+    /**
+     * Forgets all history; used when the whole tree is replaced at once.
+     */
+    synchronized void reset(long version) {
+        entries.clear();
+        floorVersion = version;
+    }
+
+    /**
+     * @return The ids changed after {@code sinceVersion}, or {@code null} when
+     *         that version is no longer covered.
+     */
+    synchronized Set<UUID> changedSince(long sinceVersion) {
+        if (sinceVersion < floorVersion) {
+            return null;
+        }
+        Set<UUID> changed = new HashSet<>();
+        for (Entry entry : entries) {
+            if (entry.version() > sinceVersion) {
+                changed.addAll(entry.changedIds());
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,86 @@
+package com.crdt.crdt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Children of every parent, ordered by name and then id. Maintained by
+ * {@link CrdtTree} as nodes change and readable without the tree lock, so
+ * listing a folder or walking the tree does not scan every node.
+ */
+class ChildrenIndex {
+
+    record ChildKey(String name, UUID id) {
+    }
+
+    static final Comparator<ChildKey> ORDER = Comparator
+            .comparing(ChildKey::name, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(ChildKey::id);
+
+    private final Map<UUID, NavigableSet<ChildKey>> children = new ConcurrentHashMap<>();
+
+    /**
+     * Nodes without a parent are listed under the virtual root, like the ones
+     * attached to it explicitly.
+     */
+    static UUID parentKey(UUID parentId) {
+        return parentId == null ? CrdtTree.VIRTUAL_ROOT_ID : parentId;
+    }
+
+    static ChildKey keyOf(TreeNode node) {
+        return new ChildKey(node.getName(), node.getId());
+    }
+
+    /**
+     * Encodes a position in a children list as an opaque keyset cursor.
+     */
+    static String encodeCursor(ChildKey key) {
+        String raw = key.id() + (key.name() != null ? key.name() : "");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ChildKey decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            // A UUID's string form is always 36 characters; the name follows it.
+            return new ChildKey(raw.substring(36), UUID.fromString(raw.substring(0, 36)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    void add(TreeNode node) {
+        children.compute(parentKey(node.getParentId()), (parent, set) -> {
+            NavigableSet<ChildKey> target = set != null ? set : new ConcurrentSkipListSet<>(ORDER);
+            target.add(keyOf(node));
+            return target;
+        });
+    }
+
+    void remove(TreeNode node) {
+        children.computeIfPresent(parentKey(node.getParentId()), (parent, set) -> {
+            set.remove(keyOf(node));
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    void clear() {
+        children.clear();
+    }
+
+    /**
+     * A live, sorted view of the children of {@code parentId}. Entries may
+     * change while it is iterated; callers confirm each against the node map.
+     */
+    NavigableSet<ChildKey> childrenOf(UUID parentId) {
+        NavigableSet<ChildKey> set = children.get(parentKey(parentId));
+        return set != null ? set : Collections.emptyNavigableSet();
+    }
+}
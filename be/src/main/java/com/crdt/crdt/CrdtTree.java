@@ -1,20 +1,33 @@
 package com.crdt.crdt;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import com.crdt.model.CrdtOperation;
+import com.fasterxml.jackson.core.JsonGenerator;
 
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
+import lombok.Setter;
 
 /**
  * CRDT Tree implementation based on Kleppmann's "A highly-available move
@@ -29,6 +42,18 @@ public class CrdtTree {
     public static final UUID TRASH_ROOT_ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
     // A special UUID for nodes that are at the root of the filesystem (no parent)
     public static final UUID VIRTUAL_ROOT_ID = UUID.fromString("00000000-0000-0000-0000-000000000002");
+    // Parent of nodes purged from the trash. A node can only be moved here from
+    // inside the trash, and never leaves again: once the purge is causally
+    // stable, its content can be reclaimed.
+    public static final UUID PURGED_ROOT_ID = UUID.fromString("00000000-0000-0000-0000-000000000003");
+    // Among siblings sharing a name, the first in this order keeps the plain
+    // name. Both keys are fixed at creation, so renaming or moving one of the
+    // duplicates does not swap the labels of the others.
+    private static final Comparator<TreeNode> DUPLICATE_ORDER = Comparator
+            .comparing(TreeNode::getCreatedTimestamp, Comparator.nullsFirst(Comparator.<Long>naturalOrder()))
+            .thenComparing(TreeNode::getId);
+    // How many versions of node changes are kept for delta requests.
+    private static final int CHANGE_JOURNAL_CAPACITY = 10_000;
 
     private String replicaId;
     private Map<String, Long> vectorClock = new ConcurrentHashMap<>();
@@ -38,6 +63,44 @@ public class CrdtTree {
     // The operation log, sorted by timestamp descending. Essential for undo-redo.
     private List<CrdtOperation> operationLog = new LinkedList<>();
 
+    // Bumped on every apply and snapshot install. Versions are only
+    // comparable within one epoch, i.e. one lifetime of this tree instance.
+    @Setter(AccessLevel.NONE)
+    private volatile long version;
+    @Setter(AccessLevel.NONE)
+    private final String epoch = UUID.randomUUID().toString();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ChangeJournal changeJournal = new ChangeJournal(CHANGE_JOURNAL_CAPACITY, 0L);
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ChildrenIndex childrenIndex = new ChildrenIndex();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final OwnerIndex ownerIndex = new OwnerIndex();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final NameIndex nameIndex = new NameIndex();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final SearchIndex searchIndex = new SearchIndex();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final FolderAggregates folderAggregates = new FolderAggregates();
+    // Ids of the operations applied since the last snapshot install, so an
+    // operation delivered twice (over Redis and a peer pull, say) is applied
+    // once.
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Set<UUID> appliedOperationIds = new HashSet<>();
+    // The vector clock of the installed snapshot. The snapshot reflects every
+    // operation of a replica up to that replica's entry; operations of other
+    // replicas, or later ones, still have to be applied whatever their
+    // timestamp.
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Map<String, Long> snapshotClock = new HashMap<>();
+
     /**
      * A simple, immutable state holder for passing the (log, tree) tuple, as
      * described in the paper.
@@ -50,8 +113,20 @@ public class CrdtTree {
     }
 
     public CrdtTree(String replicaId) {
+        this(replicaId, List.of());
+    }
+
+    /**
+     * @param replicaIds Every replica of the deployment. They start in the
+     *                   vector clock at 0, so nothing is causally stable
+     *                   before each of them has been heard from.
+     */
+    public CrdtTree(String replicaId, Collection<String> replicaIds) {
         this.replicaId = replicaId;
         this.vectorClock.put(replicaId, 0L);
+        replicaIds.stream()
+                .filter(id -> !id.isBlank())
+                .forEach(id -> this.vectorClock.putIfAbsent(id, 0L));
     }
 
     /**
@@ -60,8 +135,26 @@ public class CrdtTree {
      * This is the equivalent of the `apply_ops` fold in the paper.
      *
      * @param op The operation to apply.
+     * @return The log entry and changed nodes, or {@code null} if the
+     *         operation had already been applied, in which case nothing
+     *         changed.
      */
-    public synchronized void applyOperation(CrdtOperation op) {
+    public synchronized AppliedOperation applyOperation(CrdtOperation op) {
+        if (!markApplied(op)) {
+            return null;
+        }
+        Map<UUID, TreeNode> previousTree = this.nodeMap;
+        // Besides the op's own node, every logged op newer than it is undone and
+        // redone, so those nodes may end up changed as well.
+        Set<UUID> touched = new HashSet<>();
+        touched.add(op.getNodeId());
+        for (CrdtOperation logged : this.operationLog) {
+            if (logged.getTimestamp() <= op.getTimestamp()) {
+                break;
+            }
+            touched.add(logged.getNodeId());
+        }
+
         TreeState initialState = new TreeState(this.operationLog, this.nodeMap);
         TreeState finalState = applyOpRecursive(op, initialState);
 
@@ -71,6 +164,161 @@ public class CrdtTree {
 
         // Update the vector clock for this replica
         updateVectorClock(op.getReplicaId(), op.getTimestamp());
+
+        Set<UUID> changed = recordChanges(previousTree, touched);
+        return new AppliedOperation(logEntryOf(op), changed);
+    }
+
+    /**
+     * The outcome of {@link #applyOperation}.
+     *
+     * @param logEntry       The operation as logged, with the parent and name
+     *                       its node had just before it in timestamp order.
+     *                       Persist these, not the sender's: undoing the entry
+     *                       restores them.
+     * @param changedNodeIds Nodes whose state differs from before the apply,
+     *                       which may include nodes of redone operations.
+     */
+    public record AppliedOperation(CrdtOperation logEntry, Set<UUID> changedNodeIds) {
+    }
+
+    private CrdtOperation logEntryOf(CrdtOperation op) {
+        for (CrdtOperation entry : operationLog) {
+            if (entry.getTimestamp() < op.getTimestamp()) {
+                break;
+            }
+            if (entry.getId() != null && entry.getId().equals(op.getId())) {
+                return entry;
+            }
+        }
+        return op;
+    }
+
+    /**
+     * Records an operation as applied.
+     *
+     * @return {@code false} if it was applied before.
+     */
+    private boolean markApplied(CrdtOperation op) {
+        if (op.getId() != null && appliedOperationIds.contains(op.getId())) {
+            return false;
+        }
+        if (op.getTimestamp() <= snapshotClock.getOrDefault(op.getReplicaId(), Long.MIN_VALUE)) {
+            // Already reflected in the installed snapshot.
+            return false;
+        }
+        return op.getId() == null || appliedOperationIds.add(op.getId());
+    }
+
+    /**
+     * Applies a batch of operations, e.g. the creates of a folder copy planned
+     * by this replica. When the batch is in timestamp order and newer than
+     * everything in the log, as locally generated operations are, no undo or
+     * redo is needed: the node map and log are copied once for the whole batch
+     * instead of once per operation, and the indexes are updated in one pass.
+     * Otherwise each operation is applied as by {@link #applyOperation}.
+     */
+    public synchronized void applyOperations(List<CrdtOperation> ops) {
+        long previous = operationLog.isEmpty() ? Long.MIN_VALUE : operationLog.get(0).getTimestamp();
+        for (CrdtOperation op : ops) {
+            if (op.getTimestamp() < previous) {
+                ops.forEach(this::applyOperation);
+                return;
+            }
+            previous = op.getTimestamp();
+        }
+
+        Map<UUID, TreeNode> previousTree = this.nodeMap;
+        Map<UUID, TreeNode> newTree = new HashMap<>(previousTree);
+        LinkedList<CrdtOperation> newLog = new LinkedList<>(this.operationLog);
+        Set<UUID> touched = new HashSet<>();
+        for (CrdtOperation op : ops) {
+            if (!markApplied(op)) {
+                continue;
+            }
+            TreeNode existingNode = newTree.get(op.getNodeId());
+            newLog.addFirst(op.toBuilder()
+                    .oldParentId(existingNode != null ? existingNode.getParentId() : null)
+                    .oldNodeName(existingNode != null ? existingNode.getName() : null)
+                    .build());
+            moveInPlace(op, newTree);
+            touched.add(op.getNodeId());
+            updateVectorClock(op.getReplicaId(), op.getTimestamp());
+        }
+
+        this.operationLog = newLog;
+        this.nodeMap = newTree;
+        recordChanges(previousTree, touched);
+    }
+
+    /**
+     * Moves a node's entries in the secondary indexes from its previous to its
+     * current state. Either side may be {@code null}.
+     */
+    private void reindex(TreeNode before, TreeNode after) {
+        if (before != null) {
+            childrenIndex.remove(before);
+            ownerIndex.remove(before);
+            nameIndex.remove(before);
+            searchIndex.remove(before);
+        }
+        if (after != null) {
+            childrenIndex.add(after);
+            ownerIndex.add(after);
+            nameIndex.add(after);
+            searchIndex.add(after);
+        }
+    }
+
+    private Set<UUID> recordChanges(Map<UUID, TreeNode> previousTree, Set<UUID> touched) {
+        Set<UUID> changed = new HashSet<>();
+        List<TreeNode> befores = new ArrayList<>();
+        List<TreeNode> afters = new ArrayList<>();
+        for (UUID id : touched) {
+            TreeNode before = previousTree.get(id);
+            TreeNode after = this.nodeMap.get(id);
+            if (!Objects.equals(before, after)) {
+                changed.add(id);
+                reindex(before, after);
+                befores.add(before);
+                afters.add(after);
+            }
+        }
+        folderAggregates.update(befores, afters);
+        // A node joining or leaving a group of same-named siblings changes the
+        // display names of the others, so clients must refresh them too.
+        // Likewise, every folder above an old or new position has new totals.
+        Set<UUID> journalled = new HashSet<>(changed);
+        for (UUID id : changed) {
+            for (TreeNode state : new TreeNode[] { previousTree.get(id), this.nodeMap.get(id) }) {
+                if (state != null && state.getName() != null) {
+                    journalled.addAll(nameIndex.lookup(state.getParentId(), state.getName()));
+                }
+            }
+            journalled.addAll(ancestorIds(previousTree, id));
+            journalled.addAll(ancestorIds(this.nodeMap, id));
+            // A folder moved into or out of the trash hides or reveals its whole
+            // subtree, though the nodes below it did not change themselves.
+            if (enteredOrLeftTrash(previousTree.get(id), this.nodeMap.get(id), previousTree)) {
+                getSubtreeNodes(id).forEach(node -> journalled.add(node.getId()));
+            }
+        }
+        journalled.remove(VIRTUAL_ROOT_ID);
+        journalled.remove(TRASH_ROOT_ID);
+        journalled.remove(PURGED_ROOT_ID);
+        // The version also covers the vector clock, which every apply advances.
+        version++;
+        if (!journalled.isEmpty()) {
+            changeJournal.record(version, journalled);
+        }
+        return changed;
+    }
+
+    private boolean enteredOrLeftTrash(TreeNode before, TreeNode after, Map<UUID, TreeNode> previousTree) {
+        if (before == null || after == null || after.isFile()) {
+            return false;
+        }
+        return isInTrash(before, previousTree) != isInTrash(after, this.nodeMap);
     }
 
     /**
@@ -158,20 +406,37 @@ public class CrdtTree {
      */
     private Map<UUID, TreeNode> performMove(CrdtOperation op, Map<UUID, TreeNode> tree) {
         Map<UUID, TreeNode> newTree = new HashMap<>(tree);
+        return moveInPlace(op, newTree) ? newTree : tree; // Return original tree if there is no change.
+    }
+
+    /**
+     * The body of {@link #performMove}, modifying {@code newTree} directly.
+     *
+     * @return Whether the operation took effect; if not, the map is unchanged.
+     */
+    private boolean moveInPlace(CrdtOperation op, Map<UUID, TreeNode> newTree) {
         UUID childId = op.getNodeId();
         UUID newParentId = op.getParentId();
 
         // Ignore the operation if it would create a cycle.
         if (childId.equals(newParentId) || wouldCreateCycle(childId, newParentId, newTree)) {
-            return tree; // Return original tree, no change.
+            return false;
         }
 
         TreeNode nodeToMove = newTree.get(childId);
         UUID oldParentId = (nodeToMove != null) ? nodeToMove.getParentId() : null;
 
+        // A purge is final, and only applies to nodes that are in the trash at
+        // its point in the timestamp order; a concurrent restore ordered
+        // before it wins.
+        if (PURGED_ROOT_ID.equals(oldParentId)
+                || (PURGED_ROOT_ID.equals(newParentId) && (nodeToMove == null || !isInTrash(nodeToMove, newTree)))) {
+            return false;
+        }
+
         if (nodeToMove == null) { // This is a CREATE operation.
             nodeToMove = new TreeNode(childId, newParentId, op.getNodeName(), op.getNodeType(), op.getTimestamp(),
-                    op.getReplicaId(), false);
+                    op.getReplicaId(), false, op.getOwnerId(), op.getFileSize(), op.getMimeType(), op.getTimestamp());
         } else { // This is a MOVE, RENAME, or UNDELETE operation.
             // CLONE the node before modifying to prevent state leakage across recursive calls.
             nodeToMove = new TreeNode(nodeToMove);
@@ -186,12 +451,12 @@ public class CrdtTree {
         }
 
         // If the new parent is the trash, mark as deleted.
-        if (TRASH_ROOT_ID.equals(newParentId)) {
+        if (TRASH_ROOT_ID.equals(newParentId) || PURGED_ROOT_ID.equals(newParentId)) {
             nodeToMove.setDeleted(true);
         }
 
         newTree.put(childId, nodeToMove);
-        return newTree;
+        return true;
     }
 
     /**
@@ -222,12 +487,49 @@ public class CrdtTree {
             nodeToUndo.setParentId(originalParentId);
             nodeToUndo.setName(originalName);
             // Restore the 'deleted' status based on the original parent.
-            nodeToUndo.setDeleted(TRASH_ROOT_ID.equals(originalParentId));
+            nodeToUndo.setDeleted(TRASH_ROOT_ID.equals(originalParentId) || PURGED_ROOT_ID.equals(originalParentId));
             newTree.put(childId, nodeToUndo);
         }
         return newTree;
     }
 
+    /**
+     * Whether a node is in the trash, directly or inside a trashed folder.
+     * Nodes below an already purged folder count as well.
+     */
+    private static boolean isInTrash(TreeNode node, Map<UUID, TreeNode> tree) {
+        Set<UUID> visited = new HashSet<>();
+        for (UUID id = node.getParentId(); id != null && visited.add(id); ) {
+            if (TRASH_ROOT_ID.equals(id) || PURGED_ROOT_ID.equals(id)) {
+                return true;
+            }
+            TreeNode parent = tree.get(id);
+            id = parent != null ? parent.getParentId() : null;
+        }
+        return false;
+    }
+
+    /**
+     * Whether a node is reachable from the root through live folders, i.e.
+     * shown in the tree.
+     */
+    private static boolean isVisible(TreeNode node, Map<UUID, TreeNode> tree) {
+        Set<UUID> visited = new HashSet<>();
+        for (TreeNode current = node; ; ) {
+            if (current.isDeleted()) {
+                return false;
+            }
+            UUID parentId = current.getParentId();
+            if (parentId == null || VIRTUAL_ROOT_ID.equals(parentId)) {
+                return true;
+            }
+            current = tree.get(parentId);
+            if (current == null || !visited.add(parentId)) {
+                return false;
+            }
+        }
+    }
+
     /**
      * Checks if moving a node to a new parent would create a cycle.
      *
@@ -237,7 +539,8 @@ public class CrdtTree {
      * @return True if a cycle would be created, false otherwise.
      */
     private boolean wouldCreateCycle(UUID nodeId, UUID newParentId, Map<UUID, TreeNode> tree) {
-        if (newParentId == null || VIRTUAL_ROOT_ID.equals(newParentId) || TRASH_ROOT_ID.equals(newParentId)) {
+        if (newParentId == null || VIRTUAL_ROOT_ID.equals(newParentId) || TRASH_ROOT_ID.equals(newParentId)
+                || PURGED_ROOT_ID.equals(newParentId)) {
             return false; // Can't create a cycle by moving to a root.
         }
         if (nodeId.equals(newParentId)) {
@@ -259,46 +562,643 @@ public class CrdtTree {
      */
     public Map<String, Object> getTreeStructure() {
         Map<String, Object> tree = new HashMap<>();
-        // Filter out nodes in the trash and nodes that don't have a parent in the tree
-        // (or have the virtual root as parent)
-        List<TreeNode> rootNodes = this.nodeMap.values().stream()
-                .filter(node -> !node.isDeleted())
-                .filter(node -> node.getParentId() == null || VIRTUAL_ROOT_ID.equals(node.getParentId()))
-                .sorted(Comparator.comparing(TreeNode::getName))
-                .collect(Collectors.toList());
-
-        tree.put("nodes", buildNodeTree(rootNodes));
+        // Read before the nodes: a client asking for changes since this version
+        // may then receive some twice, but never miss one.
+        long currentVersion = this.version;
+        Map<UUID, TreeNode> nodes = this.nodeMap;
+        tree.put("nodes", buildNodeTree(VIRTUAL_ROOT_ID, nodes));
         tree.put("vectorClock", vectorClock);
         tree.put("replicaId", replicaId);
+        tree.put("version", currentVersion);
+        tree.put("epoch", epoch);
 
         return tree;
     }
 
+    /**
+     * Returns the nodes that changed after {@code sinceVersion} as a flat list:
+     * visible nodes in {@code upserted}, and ids that were deleted, vanished or
+     * are below a trashed folder in {@code removed}. Falls back to the full structure (with
+     * {@code full=true}) when the version is from another epoch or no longer
+     * covered by the journal.
+     */
+    public synchronized Map<String, Object> getTreeDelta(long sinceVersion, String clientEpoch) {
+        Set<UUID> changed = (epoch.equals(clientEpoch) && sinceVersion <= version)
+                ? changeJournal.changedSince(sinceVersion)
+                : null;
+        if (changed == null) {
+            Map<String, Object> full = getTreeStructure();
+            full.put("full", true);
+            return full;
+        }
+
+        List<Map<String, Object>> upserted = new ArrayList<>();
+        List<UUID> removed = new ArrayList<>();
+        for (UUID id : changed) {
+            TreeNode node = nodeMap.get(id);
+            if (node == null || !isVisible(node, nodeMap)) {
+                removed.add(id);
+            } else {
+                upserted.add(toNodeMap(node, nodeMap));
+            }
+        }
+
+        Map<String, Object> delta = new HashMap<>();
+        delta.put("full", false);
+        delta.put("upserted", upserted);
+        delta.put("removed", removed);
+        delta.put("version", version);
+        delta.put("epoch", epoch);
+        delta.put("vectorClock", vectorClock);
+        delta.put("replicaId", replicaId);
+        return delta;
+    }
+
     /**
      * Build hierarchical structure recursively for the API.
      */
-    private List<Map<String, Object>> buildNodeTree(List<TreeNode> nodes) {
-        return nodes.stream().map(node -> {
-            Map<String, Object> nodeMap = new HashMap<>();
-            nodeMap.put("id", node.getId());
-            nodeMap.put("parentId", node.getParentId());
-            nodeMap.put("name", node.getName());
-            nodeMap.put("type", node.getType());
-            nodeMap.put("timestamp", node.getTimestamp());
-            nodeMap.put("replicaId", node.getReplicaId());
+    private List<Map<String, Object>> buildNodeTree(UUID parentId, Map<UUID, TreeNode> tree) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        Iterator<TreeNode> children = visibleChildren(parentId, tree);
+        while (children.hasNext()) {
+            TreeNode node = children.next();
+            Map<String, Object> nodeMap = toNodeMap(node, tree);
+            List<Map<String, Object>> grandChildren = buildNodeTree(node.getId(), tree);
+            if (!grandChildren.isEmpty()) {
+                nodeMap.put("children", grandChildren);
+            }
+            result.add(nodeMap);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the same document as {@link #getTreeStructure()} straight to a
+     * generator, walking the children index depth-first with an explicit stack
+     * instead of materialising a map per node. Nodes are read from the node map
+     * captured at the start; a node changed during the walk may be skipped, but
+     * it was changed after the written version, so a delta from that version
+     * will carry it.
+     */
+    public void writeTreeStructure(JsonGenerator generator) throws IOException {
+        long currentVersion = this.version;
+        Map<UUID, TreeNode> tree = this.nodeMap;
+
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("nodes");
+        Deque<Iterator<TreeNode>> stack = new ArrayDeque<>();
+        stack.push(visibleChildren(VIRTUAL_ROOT_ID, tree));
+        while (!stack.isEmpty()) {
+            Iterator<TreeNode> siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                if (!stack.isEmpty()) {
+                    // Close the "children" array and the parent object around it.
+                    generator.writeEndArray();
+                    generator.writeEndObject();
+                }
+                continue;
+            }
+            TreeNode node = siblings.next();
+            generator.writeStartObject();
+            writeNodeFields(node, displayName(node, tree), node.isFile() ? null : folderAggregates.get(node.getId()),
+                    generator);
+            Iterator<TreeNode> children = visibleChildren(node.getId(), tree);
+            if (children.hasNext()) {
+                generator.writeArrayFieldStart("children");
+                stack.push(children);
+            } else {
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+
+        generator.writeObjectFieldStart("vectorClock");
+        for (Map.Entry<String, Long> entry : vectorClock.entrySet()) {
+            generator.writeNumberField(entry.getKey(), entry.getValue());
+        }
+        generator.writeEndObject();
+        generator.writeStringField("replicaId", replicaId);
+        generator.writeNumberField("version", currentVersion);
+        generator.writeStringField("epoch", epoch);
+        generator.writeEndObject();
+    }
+
+    private static void writeNodeFields(TreeNode node, String displayName, FolderAggregates.Aggregate aggregate,
+            JsonGenerator generator) throws IOException {
+        generator.writeStringField("id", node.getId().toString());
+        generator.writeStringField("parentId", node.getParentId() != null ? node.getParentId().toString() : null);
+        generator.writeStringField("name", node.getName());
+        generator.writeStringField("displayName", displayName);
+        generator.writeStringField("type", node.getType() != null ? node.getType().name() : null);
+        if (node.getTimestamp() != null) {
+            generator.writeNumberField("timestamp", node.getTimestamp());
+        } else {
+            generator.writeNullField("timestamp");
+        }
+        generator.writeStringField("replicaId", node.getReplicaId());
+        if (aggregate == null) {
+            if (node.getFileSize() != null) {
+                generator.writeNumberField("fileSize", node.getFileSize());
+            } else {
+                generator.writeNullField("fileSize");
+            }
+        } else {
+            generator.writeNumberField("size", aggregate.bytes());
+            generator.writeNumberField("fileCount", aggregate.fileCount());
+            generator.writeNumberField("lastModified", aggregate.lastModified());
+        }
+    }
+
+    /**
+     * Lazily iterates the visible children of a parent in name order. Index
+     * entries that disagree with {@code tree} (moved or changed since it was
+     * captured) are skipped.
+     */
+    private Iterator<TreeNode> visibleChildren(UUID parentId, Map<UUID, TreeNode> tree) {
+        UUID parentKey = ChildrenIndex.parentKey(parentId);
+        return childrenIndex.childrenOf(parentKey).stream()
+                .map(key -> tree.get(key.id()))
+                .filter(node -> node != null && !node.isDeleted()
+                        && parentKey.equals(ChildrenIndex.parentKey(node.getParentId())))
+                .iterator();
+    }
+
+    /**
+     * Returns one page of the visible children of {@code rootId} in name order,
+     * each expanded up to {@code depth - 1} further levels. {@code limit} caps
+     * the number of nodes in the whole response: the page itself is filled
+     * first, and the remainder is spent expanding it depth-first. Any folder
+     * whose children were cut short carries a {@code childrenCursor} to
+     * continue from with another call on that folder.
+     *
+     * @return The page, or {@code null} if {@code rootId} is not a visible node.
+     */
+    public Map<String, Object> getSubtree(UUID rootId, int depth, int limit, String cursor) {
+        long currentVersion = this.version;
+        Map<UUID, TreeNode> tree = this.nodeMap;
+        UUID parentKey = ChildrenIndex.parentKey(rootId);
+        if (!VIRTUAL_ROOT_ID.equals(parentKey)) {
+            TreeNode root = tree.get(parentKey);
+            if (root == null || root.isDeleted()) {
+                return null;
+            }
+        }
+
+        ChildrenIndex.ChildKey after = (cursor != null && !cursor.isBlank()) ? ChildrenIndex.decodeCursor(cursor) : null;
+        ChildPage page = listChildren(parentKey, after, limit, tree);
+        int[] budget = { limit - page.nodes().size() };
+        List<Map<String, Object>> nodes = new ArrayList<>();
+        for (TreeNode node : page.nodes()) {
+            nodes.add(expandNode(node, depth - 1, budget, tree));
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", parentKey);
+        result.put("nodes", nodes);
+        result.put("nextCursor", page.nextCursor());
+        result.put("version", currentVersion);
+        result.put("epoch", epoch);
+        return result;
+    }
+
+    private record ChildPage(List<TreeNode> nodes, String nextCursor) {
+    }
+
+    private ChildPage listChildren(UUID parentKey, ChildrenIndex.ChildKey after, int limit, Map<UUID, TreeNode> tree) {
+        NavigableSet<ChildrenIndex.ChildKey> children = childrenIndex.childrenOf(parentKey);
+        if (after != null) {
+            children = children.tailSet(after, false);
+        }
+        List<TreeNode> nodes = new ArrayList<>();
+        ChildrenIndex.ChildKey last = null;
+        for (ChildrenIndex.ChildKey key : children) {
+            TreeNode node = tree.get(key.id());
+            if (node == null || node.isDeleted() || !parentKey.equals(ChildrenIndex.parentKey(node.getParentId()))) {
+                continue;
+            }
+            if (nodes.size() == limit) {
+                // There is at least one more visible child after this page.
+                return new ChildPage(nodes, ChildrenIndex.encodeCursor(last));
+            }
+            nodes.add(node);
+            last = key;
+        }
+        return new ChildPage(nodes, null);
+    }
+
+    private Map<String, Object> expandNode(TreeNode node, int remainingDepth, int[] budget, Map<UUID, TreeNode> tree) {
+        Map<String, Object> nodeMap = toNodeMap(node, tree);
+        boolean hasChildren = visibleChildren(node.getId(), tree).hasNext();
+        nodeMap.put("hasChildren", hasChildren);
+        if (hasChildren && remainingDepth > 0 && budget[0] > 0) {
+            ChildPage page = listChildren(node.getId(), null, budget[0], tree);
+            budget[0] -= page.nodes().size();
+            List<Map<String, Object>> children = new ArrayList<>();
+            for (TreeNode child : page.nodes()) {
+                children.add(expandNode(child, remainingDepth - 1, budget, tree));
+            }
+            nodeMap.put("children", children);
+            if (page.nextCursor() != null) {
+                nodeMap.put("childrenCursor", page.nextCursor());
+            }
+        }
+        return nodeMap;
+    }
+
+    /**
+     * The visible children of a folder in name order.
+     */
+    public List<TreeNode> getChildren(UUID parentId) {
+        List<TreeNode> children = new ArrayList<>();
+        visibleChildren(parentId, this.nodeMap).forEachRemaining(children::add);
+        return children;
+    }
+
+    /**
+     * Applies a local operation unless it would give its node the same name as
+     * a visible sibling under its target parent. The check and the apply hold
+     * the same lock, so two concurrent local writes cannot both pass it.
+     * Writes on other replicas can still produce duplicates; those are told
+     * apart through {@link #getDisplayName}.
+     *
+     * @throws IllegalArgumentException if the name is taken.
+     */
+    public synchronized AppliedOperation applyIfNameAvailable(CrdtOperation op) {
+        checkNameAvailable(op);
+        return applyOperation(op);
+    }
+
+    /**
+     * Applies a batch as {@link #applyOperations} unless its first operation,
+     * the root of the batch, would take the name of a visible sibling. Checked
+     * under the same lock as {@link #applyIfNameAvailable}.
+     *
+     * @throws IllegalArgumentException if the name is taken.
+     */
+    public synchronized void applyOperationsIfNameAvailable(List<CrdtOperation> ops) {
+        checkNameAvailable(ops.get(0));
+        applyOperations(ops);
+    }
+
+    private void checkNameAvailable(CrdtOperation op) {
+        boolean taken = getChildrenNamed(op.getParentId(), op.getNodeName()).stream()
+                .anyMatch(sibling -> !sibling.getId().equals(op.getNodeId()));
+        if (taken) {
+            throw new IllegalArgumentException("A file or folder named '" + op.getNodeName()
+                    + "' already exists in this folder");
+        }
+    }
+
+    /**
+     * The visible children of {@code parentId} named exactly {@code name}.
+     * More than one means concurrent operations produced duplicate names.
+     */
+    public List<TreeNode> getChildrenNamed(UUID parentId, String name) {
+        Map<UUID, TreeNode> tree = this.nodeMap;
+        return visibleAmong(nameIndex.lookup(parentId, name), parentId, tree);
+    }
+
+    /**
+     * Resolves a slash-separated path of names from the root, one name lookup
+     * per segment. Empty segments are ignored, so leading, trailing and doubled
+     * slashes are harmless.
+     *
+     * When concurrent operations left several siblings with the same name, the
+     * one shown under the plain name (see {@link #getDisplayName}) is chosen.
+     *
+     * @return The node, or {@code null} if some segment does not exist.
+     */
+    public TreeNode resolvePath(String path) {
+        Map<UUID, TreeNode> tree = this.nodeMap;
+        UUID parentId = VIRTUAL_ROOT_ID;
+        TreeNode current = null;
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            List<TreeNode> matches = visibleAmong(nameIndex.lookup(parentId, segment), parentId, tree);
+            if (matches.isEmpty()) {
+                return null;
+            }
+            current = matches.stream().min(DUPLICATE_ORDER).get();
+            parentId = current.getId();
+        }
+        return current;
+    }
+
+    /**
+     * A search result: the node, its path from the root and the number of
+     * folders above it.
+     */
+    public record SearchHit(TreeNode node, String path, int depth) {
+    }
+
+    // Visible matches ranked per query; beyond this, a very short prefix is
+    // ranked among the first matches in term order rather than among all of
+    // them. Deleted and trashed matches are skipped without counting.
+    private static final int SEARCH_CANDIDATE_LIMIT = 10_000;
+
+    private static final Comparator<SearchHit> SEARCH_ORDER = Comparator
+            .comparingInt(SearchHit::depth)
+            .thenComparing(hit -> hit.node().getTimestamp(), Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(hit -> hit.node().getName(), Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(hit -> hit.node().getId());
+
+    /**
+     * Finds visible nodes with a name matching every word of {@code query},
+     * each as a prefix of a word in the name, case-insensitively. Shallower
+     * nodes rank first, then more recently changed ones. Candidates come from
+     * the search index, so the cost depends on the number of matches, not on
+     * the size of the tree.
+     */
+    public List<SearchHit> search(String query, int limit) {
+        Map<UUID, TreeNode> tree = this.nodeMap;
+        List<String> words = SearchIndex.terms(query);
+        if (words.size() > 1) {
+            // The first term is the whole query; match word by word instead.
+            words = words.subList(1, words.size());
+        }
+        // The longest word is usually the most selective.
+        String probe = words.stream().max(Comparator.comparingInt(String::length)).orElse("");
+        if (probe.isEmpty()) {
+            return List.of();
+        }
+        List<String> queryWords = words;
+        List<SearchHit> hits = new ArrayList<>();
+        searchIndex.lookup(probe, SEARCH_CANDIDATE_LIMIT, id -> {
+            TreeNode node = tree.get(id);
+            if (node == null || node.isDeleted() || node.getName() == null
+                    || !matchesAll(node.getName(), queryWords)) {
+                return false;
+            }
+            SearchHit hit = searchHit(node, tree);
+            if (hit != null) {
+                hits.add(hit);
+            }
+            return hit != null;
+        });
+        hits.sort(SEARCH_ORDER);
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    private static boolean matchesAll(String name, List<String> words) {
+        List<String> terms = SearchIndex.terms(name);
+        return words.stream().allMatch(word -> terms.stream().anyMatch(term -> term.startsWith(word)));
+    }
+
+    /**
+     * Builds the path of a node, or returns {@code null} if it is inside the
+     * trash or otherwise detached from the root.
+     */
+    private static SearchHit searchHit(TreeNode node, Map<UUID, TreeNode> tree) {
+        Deque<String> names = new ArrayDeque<>();
+        names.push(node.getName());
+        Set<UUID> visited = new HashSet<>();
+        UUID parentId = node.getParentId();
+        while (parentId != null && !VIRTUAL_ROOT_ID.equals(parentId)) {
+            TreeNode parent = tree.get(parentId);
+            if (parent == null || parent.isDeleted() || !visited.add(parentId)) {
+                return null;
+            }
+            names.push(parent.getName());
+            parentId = parent.getParentId();
+        }
+        return new SearchHit(node, "/" + String.join("/", names), names.size() - 1);
+    }
+
+    /**
+     * The name to show for a node. Siblings that share a name because of
+     * concurrent operations are told apart deterministically: the first by
+     * (creation timestamp, id) keeps the plain name, the others get the replica that
+     * last wrote them appended, e.g. {@code report (replica-2).pdf}. Stored
+     * names are untouched, and every converged replica derives the same labels.
+     */
+    public String getDisplayName(TreeNode node) {
+        return displayName(node, this.nodeMap);
+    }
+
+    private String displayName(TreeNode node, Map<UUID, TreeNode> tree) {
+        if (node.getName() == null) {
+            return null;
+        }
+        List<TreeNode> sameName = visibleAmong(nameIndex.lookup(node.getParentId(), node.getName()),
+                node.getParentId(), tree);
+        if (sameName.size() < 2 || sameName.stream().noneMatch(other -> other.getId().equals(node.getId()))
+                || sameName.stream().min(DUPLICATE_ORDER).get().getId().equals(node.getId())) {
+            return node.getName();
+        }
+        long fromSameReplica = sameName.stream()
+                .filter(other -> Objects.equals(other.getReplicaId(), node.getReplicaId()))
+                .count();
+        String suffix = fromSameReplica > 1
+                ? node.getReplicaId() + " " + node.getId().toString().substring(0, 8)
+                : node.getReplicaId();
+        return withSuffix(node.getName(), suffix, node.isFile());
+    }
+
+    /**
+     * Inserts {@code " (suffix)"} into a name, before the extension for files:
+     * {@code report.pdf} becomes {@code report (suffix).pdf}.
+     */
+    public static String withSuffix(String name, String suffix, boolean isFile) {
+        int dot = isFile ? name.lastIndexOf('.') : -1;
+        if (dot <= 0) {
+            return name + " (" + suffix + ")";
+        }
+        return name.substring(0, dot) + " (" + suffix + ")" + name.substring(dot);
+    }
+
+    private static List<TreeNode> visibleAmong(Set<UUID> ids, UUID parentId, Map<UUID, TreeNode> tree) {
+        UUID parentKey = ChildrenIndex.parentKey(parentId);
+        List<TreeNode> nodes = new ArrayList<>();
+        for (UUID id : ids) {
+            TreeNode node = tree.get(id);
+            if (node != null && !node.isDeleted() && parentKey.equals(ChildrenIndex.parentKey(node.getParentId()))) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * The visible nodes owned by a user, in name order.
+     */
+    public List<TreeNode> getNodesByOwner(UUID ownerId) {
+        Map<UUID, TreeNode> tree = this.nodeMap;
+        return ownerIndex.nodesOf(ownerId).stream()
+                .map(tree::get)
+                .filter(node -> node != null && !node.isDeleted() && ownerId.equals(node.getOwnerId()))
+                .sorted(Comparator.comparing(TreeNode::getName, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                        .thenComparing(TreeNode::getId))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Bytes and files currently stored for an owner, trash included. O(1).
+     */
+    public StorageUsage getStorageUsage(UUID ownerId) {
+        return ownerIndex.usageOf(ownerId);
+    }
 
-            List<TreeNode> children = this.nodeMap.values().stream()
-                    .filter(child -> !child.isDeleted())
-                    .filter(child -> node.getId().equals(child.getParentId()))
-                    .sorted(Comparator.comparing(TreeNode::getName))
-                    .collect(Collectors.toList());
+    /**
+     * Recomputes every owner's usage from the node map and replaces the
+     * incrementally maintained counters. Holds the tree lock for one pass over
+     * the nodes, so it is meant for infrequent background reconciliation.
+     *
+     * @return The number of owners whose counter had drifted.
+     */
+    public synchronized int reconcileStorageUsage() {
+        Map<UUID, StorageUsage> recomputed = new HashMap<>();
+        for (TreeNode node : nodeMap.values()) {
+            if (StorageUsage.counts(node) && node.getOwnerId() != null) {
+                recomputed.merge(node.getOwnerId(), StorageUsage.of(node), StorageUsage::plus);
+            }
+        }
+        return ownerIndex.replaceUsage(recomputed);
+    }
 
-            if (!children.isEmpty()) {
-                nodeMap.put("children", buildNodeTree(children));
+    /**
+     * Fills in owner and file metadata for nodes created by operations that did
+     * not carry it, taking it from their persisted state. Only missing values
+     * are set; nodes the tree does not know are ignored.
+     *
+     * @return The number of nodes updated.
+     */
+    public synchronized int backfillMetadata(Collection<TreeNode> persisted) {
+        Map<UUID, TreeNode> previousTree = this.nodeMap;
+        Map<UUID, TreeNode> newTree = new HashMap<>(previousTree);
+        Set<UUID> touched = new HashSet<>();
+        for (TreeNode source : persisted) {
+            TreeNode current = newTree.get(source.getId());
+            if (current == null || (current.getOwnerId() != null && current.getFileSize() != null
+                    && current.getMimeType() != null)) {
+                continue;
+            }
+            TreeNode updated = new TreeNode(current);
+            if (updated.getOwnerId() == null) {
+                updated.setOwnerId(source.getOwnerId());
             }
+            if (updated.getFileSize() == null) {
+                updated.setFileSize(source.getFileSize());
+            }
+            if (updated.getMimeType() == null) {
+                updated.setMimeType(source.getMimeType());
+            }
+            if (!updated.equals(current)) {
+                newTree.put(updated.getId(), updated);
+                touched.add(updated.getId());
+            }
+        }
+        if (touched.isEmpty()) {
+            return 0;
+        }
+        this.nodeMap = newTree;
+        recordChanges(previousTree, touched);
+        return touched.size();
+    }
 
-            return nodeMap;
-        }).collect(Collectors.toList());
+    public int getNodeCount() {
+        return nodeMap.size();
+    }
+
+    private Map<String, Object> toNodeMap(TreeNode node, Map<UUID, TreeNode> tree) {
+        Map<String, Object> nodeMap = new HashMap<>();
+        nodeMap.put("id", node.getId());
+        nodeMap.put("parentId", node.getParentId());
+        nodeMap.put("name", node.getName());
+        nodeMap.put("displayName", displayName(node, tree));
+        nodeMap.put("type", node.getType());
+        nodeMap.put("timestamp", node.getTimestamp());
+        nodeMap.put("replicaId", node.getReplicaId());
+        if (node.isFile()) {
+            nodeMap.put("fileSize", node.getFileSize());
+        } else {
+            FolderAggregates.Aggregate aggregate = folderAggregates.get(node.getId());
+            nodeMap.put("size", aggregate.bytes());
+            nodeMap.put("fileCount", aggregate.fileCount());
+            nodeMap.put("lastModified", aggregate.lastModified());
+        }
+        return nodeMap;
+    }
+
+    /**
+     * Totals over everything below a folder, kept up to date on every apply.
+     * Pass {@link #VIRTUAL_ROOT_ID} for the whole live tree or
+     * {@link #TRASH_ROOT_ID} for the trash.
+     */
+    public FolderAggregates.Aggregate getFolderAggregate(UUID folderId) {
+        return folderAggregates.get(folderId);
+    }
+
+    /**
+     * The nodes directly in the trash, i.e. the ones deleted explicitly.
+     */
+    public List<TreeNode> getTrashedNodes() {
+        return childrenOf(TRASH_ROOT_ID);
+    }
+
+    /**
+     * A node and everything below it, children before their parents. The
+     * deleted flag is not consulted, so this also walks trashed folders.
+     */
+    public List<TreeNode> getSubtreeNodes(UUID rootId) {
+        Map<UUID, TreeNode> tree = this.nodeMap;
+        List<TreeNode> nodes = new ArrayList<>();
+        TreeNode root = tree.get(rootId);
+        if (root == null) {
+            return nodes;
+        }
+        Deque<TreeNode> pending = new ArrayDeque<>();
+        Set<UUID> visited = new HashSet<>();
+        pending.push(root);
+        // Reverse pre-order: parents are emitted first, then the list is reversed.
+        while (!pending.isEmpty()) {
+            TreeNode node = pending.pop();
+            if (!visited.add(node.getId())) {
+                continue;
+            }
+            nodes.add(node);
+            for (ChildrenIndex.ChildKey key : childrenIndex.childrenOf(node.getId())) {
+                TreeNode child = tree.get(key.id());
+                if (child != null && node.getId().equals(child.getParentId())) {
+                    pending.push(child);
+                }
+            }
+        }
+        Collections.reverse(nodes);
+        return nodes;
+    }
+
+    private List<TreeNode> childrenOf(UUID parentId) {
+        Map<UUID, TreeNode> tree = this.nodeMap;
+        List<TreeNode> nodes = new ArrayList<>();
+        for (ChildrenIndex.ChildKey key : childrenIndex.childrenOf(parentId)) {
+            TreeNode node = tree.get(key.id());
+            if (node != null && parentId.equals(node.getParentId())) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the ids of all ancestors of a node, nearest first, ending at the
+     * virtual root or the trash. Returns an empty list for unknown nodes.
+     */
+    public List<UUID> getAncestorIds(UUID nodeId) {
+        return ancestorIds(this.nodeMap, nodeId);
+    }
+
+    private static List<UUID> ancestorIds(Map<UUID, TreeNode> tree, UUID nodeId) {
+        List<UUID> ancestors = new ArrayList<>();
+        TreeNode node = tree.get(nodeId);
+        Set<UUID> visited = new HashSet<>();
+        while (node != null && node.getParentId() != null && visited.add(node.getParentId())) {
+            ancestors.add(node.getParentId());
+            node = tree.get(node.getParentId());
+        }
+        return ancestors;
     }
 
     /**
@@ -309,6 +1209,72 @@ public class CrdtTree {
                 vectorClock.getOrDefault(opReplicaId, 0L), timestamp));
     }
 
+    /**
+     * The timestamp up to which every replica has delivered its operations:
+     * the configured ones (see {@link #CrdtTree(String, Collection)}) and any
+     * other heard from. Log entries at or below it are causally stable: no
+     * operation can still arrive that would need to undo them.
+     */
+    public synchronized long getStableTimestamp() {
+        return vectorClock.values().stream().mapToLong(Long::longValue).min().orElse(0L);
+    }
+
+    /**
+     * Captures a consistent view of the tree for state transfer. Every apply
+     * publishes a fresh node map instead of mutating the current one, so the
+     * captured map stays valid without copying it.
+     */
+    public synchronized Snapshot snapshot() {
+        long stableTimestamp = getStableTimestamp();
+        List<CrdtOperation> unstableLog = operationLog.stream()
+                .takeWhile(op -> op.getTimestamp() > stableTimestamp)
+                .collect(Collectors.toList());
+        return new Snapshot(new HashMap<>(vectorClock), stableTimestamp, unstableLog,
+                Collections.unmodifiableCollection(nodeMap.values()));
+    }
+
+    /**
+     * Replaces the local state with a snapshot taken on another replica.
+     *
+     * @param nodes         The converged nodes of the snapshot.
+     * @param unstableLog   The log entries newer than the snapshot's stable
+     *                      timestamp, newest first, kept so late operations can
+     *                      still be ordered before them.
+     * @param snapshotClock The vector clock of the snapshot; an operation at
+     *                      or below its replica's entry is treated as applied.
+     *                      Local operations the snapshot has not seen are not
+     *                      part of the new state and have to be applied again.
+     */
+    public synchronized void installSnapshot(Collection<TreeNode> nodes, List<CrdtOperation> unstableLog,
+            Map<String, Long> snapshotClock) {
+        Map<UUID, TreeNode> newTree = new HashMap<>();
+        for (TreeNode node : nodes) {
+            newTree.put(node.getId(), new TreeNode(node));
+        }
+        this.nodeMap = newTree;
+        childrenIndex.clear();
+        ownerIndex.clear();
+        nameIndex.clear();
+        searchIndex.clear();
+        newTree.values().forEach(node -> reindex(null, node));
+        folderAggregates.rebuild(newTree.values());
+        this.operationLog = new LinkedList<>(unstableLog);
+        appliedOperationIds.clear();
+        unstableLog.forEach(this::markApplied);
+        this.snapshotClock = new HashMap<>(snapshotClock);
+        snapshotClock.forEach(this::updateVectorClock);
+        // Every node may have changed; clients holding older versions reload.
+        changeJournal.reset(++version);
+    }
+
+    /**
+     * A point-in-time copy of the tree, its clock and the log tail that is not
+     * yet causally stable.
+     */
+    public record Snapshot(Map<String, Long> vectorClock, long stableTimestamp, List<CrdtOperation> unstableLog,
+            Collection<TreeNode> nodes) {
+    }
+
     /**
      * Get all nodes currently in the tree map.
      */
@@ -0,0 +1,120 @@
+package com.crdt.crdt;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-folder totals over the whole subtree: bytes, file count and the latest
+ * timestamp of any change inside. Maintained incrementally by
+ * {@link CrdtTree}: a changed node's contribution is taken off its old
+ * ancestor chain and added to its new one, so a create, move, delete or undo
+ * costs O(depth) however large the moved subtree is.
+ * <p>
+ * The class keeps its own mirror of the parent links it has counted. A batch
+ * of changes is applied in two phases: all changed nodes are detached first,
+ * then attached in their new places. Intermediate states therefore never
+ * contain a cycle, even when one apply undoes and redoes several moves.
+ * <p>
+ * The last-modified value only grows: removing something from a folder is
+ * itself a modification of it.
+ */
+public class FolderAggregates {
+
+    /**
+     * Totals over a folder's subtree, excluding the folder itself.
+     */
+    public record Aggregate(long bytes, long fileCount, long lastModified) {
+    }
+
+    private static final class Totals {
+        private long bytes;
+        private long fileCount;
+        private long lastModified;
+    }
+
+    // Parent links of the nodes currently counted.
+    private final Map<UUID, UUID> parents = new ConcurrentHashMap<>();
+    private final Map<UUID, Totals> totals = new ConcurrentHashMap<>();
+
+    /**
+     * Moves every changed node from its previous to its current place. The two
+     * lists are parallel; either entry of a pair may be {@code null}.
+     */
+    synchronized void update(List<TreeNode> before, List<TreeNode> after) {
+        for (TreeNode node : before) {
+            if (node != null) {
+                detach(node);
+            }
+        }
+        for (int i = 0; i < after.size(); i++) {
+            TreeNode node = after.get(i);
+            if (node != null) {
+                attach(node);
+            } else if (before.get(i) != null) {
+                // The node no longer exists at all.
+                totals.remove(before.get(i).getId());
+            }
+        }
+    }
+
+    synchronized void rebuild(Iterable<TreeNode> nodes) {
+        parents.clear();
+        totals.clear();
+        for (TreeNode node : nodes) {
+            attach(node);
+        }
+    }
+
+    Aggregate get(UUID folderId) {
+        Totals folder = totals.get(ChildrenIndex.parentKey(folderId));
+        if (folder == null) {
+            return new Aggregate(0, 0, 0);
+        }
+        synchronized (this) {
+            return new Aggregate(folder.bytes, folder.fileCount, folder.lastModified);
+        }
+    }
+
+    private void attach(TreeNode node) {
+        UUID parentId = ChildrenIndex.parentKey(node.getParentId());
+        parents.put(node.getId(), parentId);
+        Totals subtree = totals.get(node.getId());
+        long bytes = ownBytes(node) + (subtree != null ? subtree.bytes : 0);
+        long files = (node.isFile() ? 1 : 0) + (subtree != null ? subtree.fileCount : 0);
+        long lastModified = Math.max(timestampOf(node), subtree != null ? subtree.lastModified : 0);
+        walk(parentId, bytes, files, lastModified);
+    }
+
+    private void detach(TreeNode node) {
+        UUID parentId = parents.remove(node.getId());
+        if (parentId == null) {
+            return;
+        }
+        Totals subtree = totals.get(node.getId());
+        long bytes = ownBytes(node) + (subtree != null ? subtree.bytes : 0);
+        long files = (node.isFile() ? 1 : 0) + (subtree != null ? subtree.fileCount : 0);
+        walk(parentId, -bytes, -files, timestampOf(node));
+    }
+
+    private void walk(UUID startId, long bytesDelta, long filesDelta, long timestamp) {
+        Set<UUID> visited = new HashSet<>();
+        for (UUID id = startId; id != null && visited.add(id); id = parents.get(id)) {
+            Totals folder = totals.computeIfAbsent(id, key -> new Totals());
+            folder.bytes += bytesDelta;
+            folder.fileCount += filesDelta;
+            folder.lastModified = Math.max(folder.lastModified, timestamp);
+        }
+    }
+
+    private static long ownBytes(TreeNode node) {
+        return node.isFile() && node.getFileSize() != null ? node.getFileSize() : 0L;
+    }
+
+    private static long timestampOf(TreeNode node) {
+        return node.getTimestamp() != null ? node.getTimestamp() : 0L;
+    }
+}
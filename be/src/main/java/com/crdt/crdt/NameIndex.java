@@ -0,0 +1,57 @@
+package com.crdt.crdt;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * For every parent, a hash map from child name to the ids carrying it. Each
+ * level of a path is one lookup, so resolving a path costs O(depth). A node
+ * is indexed under its own parent only, so moving a folder updates a single
+ * entry however large the subtree below it is.
+ */
+class NameIndex {
+
+    private final Map<UUID, Map<String, Set<UUID>>> namesByParent = new ConcurrentHashMap<>();
+
+    void add(TreeNode node) {
+        if (node.getName() == null) {
+            return;
+        }
+        namesByParent.compute(ChildrenIndex.parentKey(node.getParentId()), (parent, names) -> {
+            Map<String, Set<UUID>> target = names != null ? names : new ConcurrentHashMap<>();
+            target.computeIfAbsent(node.getName(), name -> ConcurrentHashMap.newKeySet()).add(node.getId());
+            return target;
+        });
+    }
+
+    void remove(TreeNode node) {
+        if (node.getName() == null) {
+            return;
+        }
+        namesByParent.computeIfPresent(ChildrenIndex.parentKey(node.getParentId()), (parent, names) -> {
+            names.computeIfPresent(node.getName(), (name, ids) -> {
+                ids.remove(node.getId());
+                return ids.isEmpty() ? null : ids;
+            });
+            return names.isEmpty() ? null : names;
+        });
+    }
+
+    void clear() {
+        namesByParent.clear();
+    }
+
+    /**
+     * A live view of the ids named {@code name} under {@code parentId};
+     * callers confirm each against the node map.
+     */
+    Set<UUID> lookup(UUID parentId, String name) {
+        Map<String, Set<UUID>> names = namesByParent.get(ChildrenIndex.parentKey(parentId));
+        if (names == null) {
+            return Set.of();
+        }
+        return names.getOrDefault(name, Set.of());
+    }
+}
@@ -0,0 +1,82 @@
+package com.crdt.crdt;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node ids and storage usage per owner, maintained by {@link CrdtTree}
+ * alongside the node map so a user's files can be listed, and their quota
+ * checked, without scanning the tree or the database.
+ */
+class OwnerIndex {
+
+    private final Map<UUID, Set<UUID>> nodesByOwner = new ConcurrentHashMap<>();
+    private final Map<UUID, StorageUsage> usageByOwner = new ConcurrentHashMap<>();
+
+    void add(TreeNode node) {
+        if (node.getOwnerId() == null) {
+            return;
+        }
+        nodesByOwner.computeIfAbsent(node.getOwnerId(), owner -> ConcurrentHashMap.newKeySet()).add(node.getId());
+        if (StorageUsage.counts(node)) {
+            usageByOwner.merge(node.getOwnerId(), StorageUsage.of(node), StorageUsage::plus);
+        }
+    }
+
+    void remove(TreeNode node) {
+        if (node.getOwnerId() == null) {
+            return;
+        }
+        nodesByOwner.computeIfPresent(node.getOwnerId(), (owner, ids) -> {
+            ids.remove(node.getId());
+            return ids.isEmpty() ? null : ids;
+        });
+        if (StorageUsage.counts(node)) {
+            usageByOwner.computeIfPresent(node.getOwnerId(), (owner, usage) -> {
+                StorageUsage remaining = usage.minus(StorageUsage.of(node));
+                return remaining.fileCount() == 0 ? null : remaining;
+            });
+        }
+    }
+
+    void clear() {
+        nodesByOwner.clear();
+        usageByOwner.clear();
+    }
+
+    StorageUsage usageOf(UUID ownerId) {
+        return usageByOwner.getOrDefault(ownerId, StorageUsage.NONE);
+    }
+
+    /**
+     * Replaces the usage counters with freshly computed ones.
+     *
+     * @return The number of owners whose counter had drifted.
+     */
+    int replaceUsage(Map<UUID, StorageUsage> recomputed) {
+        int drifted = 0;
+        for (UUID owner : usageByOwner.keySet()) {
+            if (!recomputed.containsKey(owner)) {
+                drifted++;
+            }
+        }
+        for (Map.Entry<UUID, StorageUsage> entry : recomputed.entrySet()) {
+            if (!entry.getValue().equals(usageByOwner.get(entry.getKey()))) {
+                drifted++;
+            }
+        }
+        usageByOwner.keySet().retainAll(recomputed.keySet());
+        usageByOwner.putAll(recomputed);
+        return drifted;
+    }
+
+    /**
+     * A live view of the ids owned by {@code ownerId}; callers confirm each
+     * against the node map.
+     */
+    Set<UUID> nodesOf(UUID ownerId) {
+        return nodesByOwner.getOrDefault(ownerId, Set.of());
+    }
+}
@@ -0,0 +1,103 @@
+package com.crdt.crdt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * Name search over the tree. Every node is indexed under its lower-cased full
+ * name and under each word of it, where words are runs of letters and digits:
+ * {@code Q3-Report_final.pdf} is found by {@code q3-rep}, {@code report},
+ * {@code fin} or {@code pdf}. Terms are kept sorted, so a prefix lookup is a
+ * range scan of the matching terms only.
+ */
+class SearchIndex {
+
+    private final NavigableMap<String, Set<UUID>> idsByTerm = new ConcurrentSkipListMap<>();
+
+    static List<String> terms(String name) {
+        Set<String> terms = new LinkedHashSet<>();
+        String lower = name.toLowerCase(Locale.ROOT);
+        terms.add(lower);
+        for (String word : lower.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                terms.add(word);
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    void add(TreeNode node) {
+        if (node.getName() == null) {
+            return;
+        }
+        for (String term : terms(node.getName())) {
+            idsByTerm.computeIfAbsent(term, key -> ConcurrentHashMap.newKeySet()).add(node.getId());
+        }
+    }
+
+    void remove(TreeNode node) {
+        if (node.getName() == null) {
+            return;
+        }
+        for (String term : terms(node.getName())) {
+            idsByTerm.computeIfPresent(term, (key, ids) -> {
+                ids.remove(node.getId());
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    void clear() {
+        idsByTerm.clear();
+    }
+
+    /**
+     * Ids indexed under a term starting with {@code prefix}, exact term
+     * matches first, that {@code accept} confirms against the node map. The
+     * scan stops once {@code max} ids were accepted, so ids of deleted or
+     * trashed nodes do not use up the budget.
+     */
+    Set<UUID> lookup(String prefix, int max, Predicate<UUID> accept) {
+        Set<UUID> ids = new LinkedHashSet<>();
+        Set<UUID> rejected = new HashSet<>();
+        Set<UUID> exact = idsByTerm.get(prefix);
+        if (exact != null) {
+            addUpTo(ids, rejected, exact, max, accept);
+        }
+        for (Map.Entry<String, Set<UUID>> entry : idsByTerm.tailMap(prefix, false).entrySet()) {
+            if (ids.size() >= max || !entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            addUpTo(ids, rejected, entry.getValue(), max, accept);
+        }
+        return ids;
+    }
+
+    private static void addUpTo(Set<UUID> target, Set<UUID> rejected, Collection<UUID> source, int max,
+            Predicate<UUID> accept) {
+        for (UUID id : source) {
+            if (target.size() >= max) {
+                return;
+            }
+            // A node is indexed under several terms; judge it once.
+            if (!target.contains(id) && !rejected.contains(id)) {
+                if (accept.test(id)) {
+                    target.add(id);
+                } else {
+                    rejected.add(id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.crdt.crdt;
+
+/**
+ * Bytes and number of files an owner has in the tree, trash included: trashed
+ * files still occupy storage until they are purged.
+ */
+public record StorageUsage(long bytes, long fileCount) {
+
+    public static final StorageUsage NONE = new StorageUsage(0, 0);
+
+    StorageUsage plus(StorageUsage other) {
+        return new StorageUsage(bytes + other.bytes, fileCount + other.fileCount);
+    }
+
+    StorageUsage minus(StorageUsage other) {
+        return new StorageUsage(bytes - other.bytes, fileCount - other.fileCount);
+    }
+
+    /**
+     * Whether a node is charged to its owner: files, unless purged.
+     */
+    static boolean counts(TreeNode node) {
+        return node.isFile() && !CrdtTree.PURGED_ROOT_ID.equals(node.getParentId());
+    }
+
+    static StorageUsage of(TreeNode node) {
+        return new StorageUsage(node.getFileSize() != null ? node.getFileSize() : 0L, 1);
+    }
+}
@@ -3,6 +3,7 @@ package com.crdt.crdt;
 import java.util.UUID;
 
 import com.crdt.model.FileNode;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -24,6 +25,13 @@ public class TreeNode {
     private Long timestamp;
     private String replicaId;
     private boolean deleted;
+    // Metadata carried by the create operation, so listings need not hit the database.
+    private UUID ownerId;
+    private Long fileSize;
+    private String mimeType;
+    // Timestamp of the create operation. Unlike timestamp, moves and renames
+    // leave it alone, so it can order duplicates stably.
+    private Long createdTimestamp;
 
     public TreeNode(TreeNode other) {
         this.id = other.id;
@@ -33,11 +41,16 @@ public class TreeNode {
         this.timestamp = other.timestamp;
         this.replicaId = other.replicaId;
         this.deleted = other.deleted;
+        this.ownerId = other.ownerId;
+        this.fileSize = other.fileSize;
+        this.mimeType = other.mimeType;
+        this.createdTimestamp = other.createdTimestamp;
     }
 
     /**
      * Check if this node is a root node (no parent)
      */
+    @JsonIgnore
     public boolean isRoot() {
         return parentId == null;
     }
@@ -45,6 +58,7 @@ public class TreeNode {
     /**
      * Check if this node is a folder
      */
+    @JsonIgnore
     public boolean isFolder() {
         return type == FileNode.FileType.FOLDER;
     }
@@ -52,6 +66,7 @@ public class TreeNode {
     /**
      * Check if this node is a file
      */
+    @JsonIgnore
     public boolean isFile() {
         return type == FileNode.FileType.FILE;
     }
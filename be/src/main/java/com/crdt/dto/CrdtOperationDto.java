@@ -2,6 +2,9 @@ package com.crdt.dto;
 
 import java.util.UUID;
 
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -17,8 +20,51 @@ public class CrdtOperationDto {
     private String nodeName;
     private String oldNodeName;
     private String nodeType;
+    private UUID ownerId;
+    private Long fileSize;
+    private String mimeType;
     private String replicaId;
     private Long timestamp;
     private String vectorClock;
     private boolean isApplied;
+
+    public static CrdtOperationDto fromEntity(CrdtOperation operation) {
+        CrdtOperationDto dto = new CrdtOperationDto();
+        dto.setId(operation.getId());
+        dto.setNodeId(operation.getNodeId());
+        dto.setParentId(operation.getParentId());
+        dto.setOldParentId(operation.getOldParentId());
+        dto.setNodeName(operation.getNodeName());
+        dto.setOldNodeName(operation.getOldNodeName());
+        if (operation.getNodeType() != null) {
+            dto.setNodeType(operation.getNodeType().toString());
+        }
+        dto.setOwnerId(operation.getOwnerId());
+        dto.setFileSize(operation.getFileSize());
+        dto.setMimeType(operation.getMimeType());
+        dto.setReplicaId(operation.getReplicaId());
+        dto.setTimestamp(operation.getTimestamp());
+        dto.setVectorClock(operation.getVectorClock());
+        dto.setApplied(Boolean.TRUE.equals(operation.getIsApplied()));
+        return dto;
+    }
+
+    public CrdtOperation toEntity() {
+        return CrdtOperation.builder()
+                .id(id)
+                .nodeId(nodeId)
+                .parentId(parentId)
+                .oldParentId(oldParentId)
+                .nodeName(nodeName)
+                .oldNodeName(oldNodeName)
+                .nodeType(nodeType != null ? FileNode.FileType.valueOf(nodeType) : null)
+                .ownerId(ownerId)
+                .fileSize(fileSize)
+                .mimeType(mimeType)
+                .replicaId(replicaId)
+                .timestamp(timestamp)
+                .vectorClock(vectorClock)
+                .isApplied(isApplied)
+                .build();
+    }
 }
@@ -0,0 +1,19 @@
+package com.crdt.dto;
+
+import java.util.UUID;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CreateUploadRequest {
+    private String name;
+    private UUID parentId;
+    private Long size;
+    private String mimeType;
+    // Optional; the server picks a default and clamps out-of-range values
+    private Long chunkSize;
+}
@@ -14,9 +14,14 @@ public class FileNodeDto {
     private UUID id;
     private UUID parentId;
     private String name;
+    // Differs from name only for siblings that share a name after concurrent writes
+    private String displayName;
+    // Only set in search results
+    private String path;
     private String type;
     private Long fileSize;
     private String mimeType;
+    private String contentHash;
     private Long timestamp;
     private String replicaId;
     private boolean deleted;
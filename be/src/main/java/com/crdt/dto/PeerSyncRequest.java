@@ -0,0 +1,21 @@
+package com.crdt.dto;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Sent by a replica that wants to catch up with a peer. The vector clock
+ * doubles as the pagination cursor: after applying a page the caller sends
+ * its advanced clock and receives the next page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PeerSyncRequest {
+    private String replicaId;
+    private Map<String, Long> vectorClock;
+    private Integer limit;
+}
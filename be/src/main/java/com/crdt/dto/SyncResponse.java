@@ -15,4 +15,7 @@ public class SyncResponse {
     private Map<String, Long> vectorClock;
     private List<CrdtOperationDto> operations;
     private boolean hasMore;
+    // Operations at or below this timestamp may be missing from the sender's
+    // log; 0 if it holds its full history.
+    private long compactionHorizon;
 }
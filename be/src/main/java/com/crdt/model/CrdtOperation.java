@@ -49,6 +49,15 @@ public class CrdtOperation {
     @Column(name = "node_type")
     private FileNode.FileType nodeType;
 
+    @Column(name = "owner_id")
+    private UUID ownerId;
+
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Column(name = "mime_type")
+    private String mimeType;
+
     @Column(name = "replica_id", nullable = false)
     private String replicaId;
 
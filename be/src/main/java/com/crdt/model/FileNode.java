@@ -39,6 +39,11 @@ public class FileNode {
     @Column(name = "file_path")
     private String filePath;
 
+    // SHA-256 of the content, hex encoded; null for files stored before
+    // content addressing
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @Column(name = "is_deleted")
     private Boolean isDeleted = false;
 
@@ -48,6 +53,10 @@ public class FileNode {
     @Column(name = "timestamp")
     private Long timestamp;
 
+    // Timestamp of the create operation, which orders same-named siblings
+    @Column(name = "created_timestamp")
+    private Long createdTimestamp;
+
     @Column(name = "vector_clock", columnDefinition = "TEXT")
     private String vectorClock;
 
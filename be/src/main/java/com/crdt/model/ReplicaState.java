@@ -30,6 +30,11 @@ public class ReplicaState {
     @Column(name = "vector_clock", columnDefinition = "TEXT")
     private String vectorClock;
 
+    // Stable timestamp of the snapshot this replica was bootstrapped from.
+    // Operations at or before it are not in the local log.
+    @Column(name = "snapshot_timestamp")
+    private Long snapshotTimestamp;
+
     @Column(name = "is_active")
     private Boolean isActive = true;
 
@@ -1,6 +1,7 @@
 package com.crdt.repository;
 
 import com.crdt.model.CrdtOperation;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -31,6 +32,10 @@ public interface CrdtOperationRepository extends JpaRepository<CrdtOperation, UU
     // New method for the improved sync logic
     List<CrdtOperation> findByReplicaIdAndTimestampGreaterThanOrderByTimestamp(String replicaId, long timestamp);
 
+    // Bounded variant used when serving peer sync pages
+    List<CrdtOperation> findByReplicaIdAndTimestampGreaterThanOrderByTimestamp(String replicaId, long timestamp,
+            Pageable pageable);
+
     // New method to discover all replicas in the system
     @Query("SELECT DISTINCT o.replicaId FROM CrdtOperation o")
     List<String> findDistinctReplicaIds();
@@ -1,13 +1,17 @@
 package com.crdt.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.crdt.model.FileNode;
 
@@ -31,6 +35,36 @@ public interface FileNodeRepository extends JpaRepository<FileNode, UUID> {
 
     List<FileNode> findByReplicaIdAndIsDeletedFalse(String replicaId);
 
+    /**
+     * File paths not yet in the hashed blob layout: files stored before
+     * content addressing, and blobs stored flat in the blob directory.
+     */
+    @Query("SELECT DISTINCT f.filePath FROM FileNode f WHERE f.filePath IS NOT NULL "
+            + "AND (f.contentHash IS NULL OR f.filePath LIKE CONCAT('%/blobs/', f.contentHash))")
+    List<String> findUnshardedFilePaths(Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileNode f SET f.filePath = :newPath, f.contentHash = :contentHash WHERE f.filePath = :oldPath")
+    int relocateFilePath(@Param("oldPath") String oldPath, @Param("newPath") String newPath,
+            @Param("contentHash") String contentHash);
+
+    /**
+     * Drops the content reference of purged files whose purge no replica can
+     * still reorder, so their blobs become garbage.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileNode f SET f.filePath = NULL WHERE f.parentId = :purgedRootId "
+            + "AND f.filePath IS NOT NULL AND f.timestamp <= :stableTimestamp")
+    int releasePurgedContent(@Param("purgedRootId") UUID purgedRootId, @Param("stableTimestamp") long stableTimestamp);
+
+    /**
+     * Which of {@code paths} are still referenced by some node.
+     */
+    @Query("SELECT DISTINCT f.filePath FROM FileNode f WHERE f.filePath IN :paths")
+    List<String> findReferencedFilePaths(@Param("paths") Collection<String> paths);
+
     @Query("SELECT f FROM FileNode f WHERE f.timestamp > :timestamp ORDER BY f.timestamp")
     List<FileNode> findNodesModifiedAfter(@Param("timestamp") Long timestamp);
 }
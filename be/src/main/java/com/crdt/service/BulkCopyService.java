@@ -0,0 +1,199 @@
+package com.crdt.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.crdt.TreeNode;
+import com.crdt.exception.ResourceNotFoundException;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+import com.crdt.repository.FileNodeRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Copies a file or a whole folder in one batch. The source subtree is
+ * snapshotted from the in-memory tree and a create operation planned for
+ * every node up front, so the copy is not affected by changes made to the
+ * source meanwhile. Content is shared by reference, so no bytes are copied:
+ * each new file only needs the storage location of its source, looked up in
+ * batches on a bounded pool. The operations are then applied and persisted
+ * together by {@link CrdtService#applyLocalBatch}, which checks again under
+ * the tree's lock that the copy's name is still free, and progress is
+ * reported to clients as {@code copy.progress} events. The copy's size is
+ * held against the user's quota until it is applied.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BulkCopyService {
+
+    private static final int LOOKUP_BATCH_SIZE = 500;
+
+    private record PlannedNode(TreeNode source, UUID id, UUID parentId, String name) {
+    }
+
+    private final CrdtService crdtService;
+    private final HLCService hlcService;
+    private final FileNodeRepository fileNodeRepository;
+    private final CrdtEventPublisher eventPublisher;
+
+    @Value("${file.copy.parallelism:4}")
+    private int parallelism;
+
+    // Upper bound on the nodes of one copy, which are all planned in memory.
+    @Value("${file.copy.max-nodes:100000}")
+    private int maxNodes;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    void startExecutor() {
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "bulk-copy-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    public CrdtServiceResult copy(UUID sourceId, UUID targetParentId, UUID userId) {
+        TreeNode source = crdtService.getNode(sourceId);
+        if (source == null) {
+            throw new ResourceNotFoundException("Source node not found with id: " + sourceId);
+        }
+        if (source.isDeleted()) {
+            throw new IllegalStateException("Cannot copy a deleted node.");
+        }
+
+        long bytes = source.isFile()
+                ? (source.getFileSize() != null ? source.getFileSize() : 0L)
+                : crdtService.getFolderAggregate(sourceId).bytes();
+        try (CrdtService.QuotaReservation reservation = crdtService.reserveQuota(userId, bytes)) {
+            // Copying next to the original (or into a folder with a same-named
+            // entry) yields "name (1)" rather than an error.
+            String name = crdtService.availableName(targetParentId, source.getName(), source.getType());
+
+            List<PlannedNode> plan = snapshot(source,
+                    targetParentId != null ? targetParentId : CrdtTree.VIRTUAL_ROOT_ID, name);
+            UUID copyId = plan.get(0).id();
+            Map<UUID, CrdtService.FileContent> content = resolveContent(plan);
+            List<CrdtOperation> operations = new ArrayList<>(plan.size());
+            for (PlannedNode node : plan) {
+                operations.add(createOperation(node, userId));
+            }
+
+            reportProgress(copyId, sourceId, 0, plan.size());
+            CrdtServiceResult result = crdtService.applyLocalBatch(operations, content, userId,
+                    done -> reportProgress(copyId, sourceId, done, plan.size()));
+            log.debug("Copied {} nodes from {} to {}", plan.size(), sourceId, copyId);
+            return result;
+        }
+    }
+
+    /**
+     * The visible nodes of the source subtree with their new ids, parents
+     * first. Children keep the names they are shown under, which are unique
+     * within a folder even where concurrent operations created duplicates.
+     */
+    private List<PlannedNode> snapshot(TreeNode source, UUID targetParentId, String name) {
+        List<PlannedNode> plan = new ArrayList<>();
+        Deque<PlannedNode> pending = new ArrayDeque<>();
+        pending.push(new PlannedNode(source, UUID.randomUUID(), targetParentId, name));
+        while (!pending.isEmpty()) {
+            PlannedNode node = pending.pop();
+            plan.add(node);
+            if (plan.size() > maxNodes) {
+                throw new IllegalArgumentException("Cannot copy more than " + maxNodes + " files and folders at once");
+            }
+            if (node.source().isFile()) {
+                continue;
+            }
+            for (TreeNode child : crdtService.getChildren(node.source().getId())) {
+                pending.push(new PlannedNode(child, UUID.randomUUID(), node.id(), crdtService.getDisplayName(child)));
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Looks up where the content of every source file is stored, one query
+     * per {@value #LOOKUP_BATCH_SIZE} files, several queries at a time.
+     */
+    private Map<UUID, CrdtService.FileContent> resolveContent(List<PlannedNode> plan) {
+        List<PlannedNode> files = plan.stream().filter(node -> node.source().isFile()).toList();
+        List<CompletableFuture<List<FileNode>>> lookups = new ArrayList<>();
+        for (int from = 0; from < files.size(); from += LOOKUP_BATCH_SIZE) {
+            List<UUID> ids = files.subList(from, Math.min(from + LOOKUP_BATCH_SIZE, files.size())).stream()
+                    .map(node -> node.source().getId())
+                    .toList();
+            lookups.add(CompletableFuture.supplyAsync(() -> fileNodeRepository.findAllById(ids), executor));
+        }
+
+        Map<UUID, FileNode> sources = new HashMap<>();
+        try {
+            for (CompletableFuture<List<FileNode>> lookup : lookups) {
+                lookup.join().forEach(row -> sources.put(row.getId(), row));
+            }
+        } catch (CompletionException e) {
+            lookups.forEach(lookup -> lookup.cancel(true));
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+
+        Map<UUID, CrdtService.FileContent> content = new HashMap<>();
+        for (PlannedNode node : files) {
+            FileNode row = sources.get(node.source().getId());
+            if (row == null) {
+                throw new ResourceNotFoundException("Source node not found with id: " + node.source().getId());
+            }
+            // The copy points at the same stored content; no bytes are written.
+            content.put(node.id(), new CrdtService.FileContent(row.getFilePath(), row.getContentHash()));
+        }
+        return content;
+    }
+
+    private CrdtOperation createOperation(PlannedNode node, UUID userId) {
+        TreeNode source = node.source();
+        return CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(node.id())
+                .parentId(node.parentId())
+                .oldParentId(null) // `null` oldParentId signifies creation
+                .nodeName(node.name())
+                .nodeType(source.getType())
+                .ownerId(userId)
+                .fileSize(source.isFile() ? source.getFileSize() : null)
+                .mimeType(source.isFile() ? source.getMimeType() : null)
+                .replicaId(crdtService.getReplicaId())
+                .timestamp(hlcService.newTimestamp().asLong())
+                .isApplied(true)
+                .build();
+    }
+
+    private void reportProgress(UUID copyId, UUID sourceId, int completed, int total) {
+        eventPublisher.publishNow("copy.progress",
+                Map.of("copyId", copyId, "sourceId", sourceId, "completed", completed, "total", total));
+    }
+}
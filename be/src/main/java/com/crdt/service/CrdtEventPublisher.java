@@ -1,27 +1,240 @@
 package com.crdt.service;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.event.TransactionPhase;
 import org.springframework.transaction.event.TransactionalEventListener;
 
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Relays committed CRDT events to WebSocket clients. Events are buffered and
+ * flushed on a short tick: several events for the same node collapse into the
+ * latest one, and everything left is sent as a single "batch" frame. When a
+ * tick carries more node changes than clients can usefully replay (e.g. during
+ * a large sync), a single "sync.completed" summary is sent instead.
+ * <p>
+ * Each node event is routed to {@code /topic/folders/{folderId}} for every
+ * folder on the node's parent chain before and after the change, so a client
+ * watching a folder receives only the changes inside it; watching the virtual
+ * root covers the whole live tree. Destinations without subscribers are
+ * skipped. The global {@code /topic/events} feed carries only non-node events
+ * (sync status, copy progress), unless {@code crdt.events.global-node-events}
+ * is enabled for older clients.
+ * <p>
+ * Every event is numbered when it is flushed, and the last events are kept in
+ * a bounded replay buffer. A reconnecting client asks {@link #replaySince} for
+ * what it missed and only reloads the whole tree when the gap has already been
+ * evicted or the server restarted (detected through the epoch).
+ */
 @Component
+@Slf4j
 public class CrdtEventPublisher {
 
+    private static final String DESTINATION = "/topic/events";
+    public static final String FOLDER_DESTINATION_PREFIX = "/topic/folders/";
+
     private final SimpMessagingTemplate messagingTemplate;
+    private final WebSocketSubscriptionRegistry subscriptionRegistry;
+
+    private record PendingEvent(Map<String, Object> payload, Set<UUID> folderIds) {
+    }
+
+    private record BufferedEvent(long seq, Map<String, Object> payload, Set<UUID> folderIds) {
+    }
+
+    /** Result of a replay request; {@code events} is empty when a resync is required. */
+    public record Replay(String epoch, long lastSeq, boolean resyncRequired, List<Map<String, Object>> events) {
+    }
+
+    // Identifies this process's sequence; sequence numbers restart with it.
+    private final String epoch = UUID.randomUUID().toString();
+    private final ArrayDeque<BufferedEvent> replayBuffer = new ArrayDeque<>();
+    private long lastSeq;
 
-    public CrdtEventPublisher(SimpMessagingTemplate messagingTemplate) {
+    // Pending events keyed by node id (or a unique key for non-node events),
+    // kept in the order of each key's latest change.
+    private final LinkedHashMap<Object, PendingEvent> pending = new LinkedHashMap<>();
+    private long nonNodeEventCounter;
+
+    @Value("${crdt.events.summary-threshold:200}")
+    private int summaryThreshold;
+
+    @Value("${crdt.events.replay-buffer-size:10000}")
+    private int replayBufferSize;
+
+    @Value("${crdt.events.global-node-events:false}")
+    private boolean globalNodeEvents;
+
+    public CrdtEventPublisher(SimpMessagingTemplate messagingTemplate,
+            WebSocketSubscriptionRegistry subscriptionRegistry) {
         this.messagingTemplate = messagingTemplate;
+        this.subscriptionRegistry = subscriptionRegistry;
     }
 
     @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
     public void handleCrdtOperationEvent(CrdtOperationEvent event) {
+        enqueue(event.getEventType(), event.getData(), event.getAffectedFolderIds());
+    }
+
+    /**
+     * Queues a non-node event for the next flush without waiting for the
+     * caller's transaction to commit, e.g. progress of a long operation that
+     * would otherwise only be reported once it has finished.
+     */
+    public void publishNow(String type, Map<String, Object> data) {
+        enqueue(type, data, Set.of());
+    }
+
+    private void enqueue(String type, Object data, Set<UUID> affectedFolderIds) {
         Map<String, Object> payload = new HashMap<>();
-        payload.put("type", event.getEventType());
-        payload.put("data", event.getData());
-        messagingTemplate.convertAndSend("/topic/events", payload);
+        payload.put("type", type);
+        payload.put("data", data);
+
+        Set<UUID> folderIds = new HashSet<>(affectedFolderIds);
+        Object key = nodeIdOf(data);
+        synchronized (pending) {
+            if (key == null) {
+                key = "event-" + nonNodeEventCounter++;
+            } else {
+                // Re-insert so the merged event takes the position of its latest change.
+                // Folders the earlier change touched still need to hear about it.
+                PendingEvent previous = pending.remove(key);
+                if (previous != null) {
+                    folderIds.addAll(previous.folderIds());
+                }
+            }
+            pending.put(key, new PendingEvent(payload, folderIds));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${crdt.events.flush-interval-ms:50}")
+    public void flush() {
+        List<PendingEvent> events;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            events = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+
+        events = sequence(events);
+        List<Map<String, Object>> globalEvents = events.stream()
+                .map(PendingEvent::payload)
+                .filter(payload -> globalNodeEvents || nodeIdOf(payload.get("data")) == null)
+                .toList();
+        if (!globalEvents.isEmpty()) {
+            send(DESTINATION, globalEvents);
+        }
+
+        // Group per watched folder. Non-node events (sync status and the like)
+        // are rare and relevant to every view, so each folder gets them too.
+        Map<UUID, List<Map<String, Object>>> byFolder = new HashMap<>();
+        if (events.stream().anyMatch(e -> nodeIdOf(e.payload().get("data")) == null)) {
+            subscriptionRegistry.destinationsStartingWith(FOLDER_DESTINATION_PREFIX).forEach(destination -> {
+                try {
+                    byFolder.put(UUID.fromString(destination.substring(FOLDER_DESTINATION_PREFIX.length())),
+                            new ArrayList<>());
+                } catch (IllegalArgumentException ignored) {
+                    // Not a folder id; nothing is ever routed there.
+                }
+            });
+        }
+        List<Map<String, Object>> replicaEvents = new ArrayList<>();
+        for (PendingEvent event : events) {
+            if (nodeIdOf(event.payload().get("data")) == null) {
+                replicaEvents.add(event.payload());
+                byFolder.values().forEach(list -> list.add(event.payload()));
+                continue;
+            }
+            for (UUID folderId : event.folderIds()) {
+                if (subscriptionRegistry.hasSubscribers(FOLDER_DESTINATION_PREFIX + folderId)) {
+                    byFolder.computeIfAbsent(folderId, id -> new ArrayList<>(replicaEvents)).add(event.payload());
+                }
+            }
+        }
+        byFolder.forEach((folderId, folderEvents) -> send(FOLDER_DESTINATION_PREFIX + folderId, folderEvents));
+    }
+
+    /**
+     * Returns the buffered events after {@code since}, optionally only those
+     * inside {@code folderId}. Asks for a full resync when the caller's epoch
+     * is stale or events after {@code since} are no longer buffered.
+     */
+    public Replay replaySince(long since, String clientEpoch, UUID folderId) {
+        synchronized (replayBuffer) {
+            long oldestAvailable = replayBuffer.isEmpty() ? lastSeq + 1 : replayBuffer.peekFirst().seq();
+            if (!epoch.equals(clientEpoch) || since > lastSeq || since + 1 < oldestAvailable) {
+                return new Replay(epoch, lastSeq, true, List.of());
+            }
+            List<Map<String, Object>> missed = new ArrayList<>();
+            for (BufferedEvent event : replayBuffer) {
+                if (event.seq() > since && (folderId == null || event.folderIds().isEmpty()
+                        || event.folderIds().contains(folderId))) {
+                    missed.add(event.payload());
+                }
+            }
+            return new Replay(epoch, lastSeq, false, missed);
+        }
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    // Numbers the events of one tick and appends them to the replay buffer.
+    private List<PendingEvent> sequence(List<PendingEvent> events) {
+        List<PendingEvent> numbered = new ArrayList<>(events.size());
+        synchronized (replayBuffer) {
+            for (PendingEvent event : events) {
+                Map<String, Object> payload = new HashMap<>(event.payload());
+                payload.put("seq", ++lastSeq);
+                numbered.add(new PendingEvent(payload, event.folderIds()));
+                replayBuffer.addLast(new BufferedEvent(lastSeq, payload, event.folderIds()));
+            }
+            while (replayBuffer.size() > replayBufferSize) {
+                replayBuffer.removeFirst();
+            }
+        }
+        return numbered;
+    }
+
+    private void send(String destination, List<Map<String, Object>> events) {
+        long nodeEvents = events.stream().filter(e -> nodeIdOf(e.get("data")) != null).count();
+        Map<String, Object> frame = new HashMap<>();
+        if (nodeEvents > summaryThreshold) {
+            log.debug("Coalescing {} node events into a sync summary", nodeEvents);
+            frame.put("type", "sync.completed");
+            frame.put("data", Map.of("count", nodeEvents, "summary", true,
+                    "epoch", epoch, "lastSeq", lastSeqOf(events)));
+        } else {
+            frame.put("type", "batch");
+            frame.put("data", Map.of("events", events, "epoch", epoch, "lastSeq", lastSeqOf(events)));
+        }
+        messagingTemplate.convertAndSend(destination, frame);
+    }
+
+    private static long lastSeqOf(List<Map<String, Object>> events) {
+        return events.isEmpty() ? 0L : (Long) events.get(events.size() - 1).get("seq");
+    }
+
+    private static Object nodeIdOf(Object data) {
+        if (data instanceof Map<?, ?> map) {
+            return map.get("id");
+        }
+        return null;
     }
 }
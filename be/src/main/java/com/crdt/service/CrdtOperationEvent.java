@@ -3,6 +3,8 @@ package com.crdt.service;
 import org.springframework.context.ApplicationEvent;
 
 import java.io.Serial;
+import java.util.Set;
+import java.util.UUID;
 
 public class CrdtOperationEvent extends ApplicationEvent {
 
@@ -10,11 +12,18 @@ public class CrdtOperationEvent extends ApplicationEvent {
     private static final long serialVersionUID = 1L;
     private final String eventType;
     private final Object data;
+    // Folders whose subtree contains the changed node, before and after the change.
+    private final Set<UUID> affectedFolderIds;
 
     public CrdtOperationEvent(Object source, String eventType, Object data) {
+        this(source, eventType, data, Set.of());
+    }
+
+    public CrdtOperationEvent(Object source, String eventType, Object data, Set<UUID> affectedFolderIds) {
         super(source);
         this.eventType = eventType;
         this.data = data;
+        this.affectedFolderIds = affectedFolderIds;
     }
 
     public String getEventType() {
@@ -24,4 +33,8 @@ public class CrdtOperationEvent extends ApplicationEvent {
     public Object getData() {
         return data;
     }
+
+    public Set<UUID> getAffectedFolderIds() {
+        return affectedFolderIds;
+    }
 }
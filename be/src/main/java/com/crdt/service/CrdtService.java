@@ -1,18 +1,32 @@
 package com.crdt.service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import com.crdt.crdt.CrdtTree;
+import com.crdt.crdt.FolderAggregates;
+import com.crdt.crdt.StorageUsage;
 import com.crdt.crdt.TreeNode;
+import com.crdt.exception.QuotaExceededException;
 import com.crdt.exception.ResourceNotFoundException;
 import com.crdt.model.CrdtOperation;
 import com.crdt.model.FileNode;
@@ -23,10 +37,13 @@ import com.crdt.repository.FileNodeRepository;
 import com.crdt.repository.ReplicaStateRepository;
 import com.crdt.repository.UserRepository;
 import com.crdt.util.HybridLogicalClock;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -37,6 +54,13 @@ import lombok.extern.slf4j.Slf4j;
 @Transactional
 public class CrdtService {
 
+    private static final int SNAPSHOT_PERSIST_BATCH_SIZE = 500;
+    public static final int DEFAULT_SUBTREE_PAGE_SIZE = 100;
+    public static final int MAX_SUBTREE_PAGE_SIZE = 1000;
+    public static final int MAX_SUBTREE_DEPTH = 8;
+    public static final int DEFAULT_SEARCH_LIMIT = 50;
+    public static final int MAX_SEARCH_LIMIT = 500;
+
     private final FileNodeRepository fileNodeRepository;
     private final CrdtOperationRepository crdtOperationRepository;
     private final ReplicaStateRepository replicaStateRepository;
@@ -49,11 +73,34 @@ public class CrdtService {
     @Value("${crdt.replica.id}")
     private String replicaId;
 
-    @Value("${file.storage.path}")
-    private String storagePath;
+    // Every replica of the deployment; operations are causally stable only
+    // once each of them has delivered past them.
+    @Value("${crdt.sync.replica-ids:}")
+    private List<String> replicaIds;
+
+    // Bytes each user may store, trash included; 0 disables the check.
+    @Value("${file.storage.user-quota:0}")
+    private long userQuota;
+
+    // When every replica has its own database, operations received from peers
+    // must be written to the local log so they survive restarts and can be
+    // relayed to other peers. Leave disabled with a shared database: the
+    // originating replica already owns that row.
+    @Value("${crdt.sync.persist-remote-operations:false}")
+    private boolean persistRemoteOperations;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
     private CrdtTree crdtTree;
 
+    // Quota held by uploads and copies that are not in the tree yet, per user.
+    private final Map<UUID, Long> reservedBytes = new HashMap<>();
+
+    // Operations at or below this timestamp may be missing from our log: they
+    // came with the snapshot this replica was bootstrapped from.
+    private volatile long compactionHorizon;
+
     @PreDestroy
     public void persistStateOnShutdown() {
         log.info("Persisting replica state for replica ID: {}", replicaId);
@@ -80,20 +127,55 @@ public class CrdtService {
      * is correct and converged.
      */
     public void initializeCrdtTree() {
-        this.crdtTree = new CrdtTree(replicaId);
+        this.crdtTree = new CrdtTree(replicaId, replicaIds);
         log.info("Initializing CRDT Tree for replica: {}", replicaId);
 
-        // Fetch all operations from the database, strictly ordered by timestamp.
-        List<CrdtOperation> operationsToReplay = crdtOperationRepository.findAll(Sort.by("timestamp"));
+        ReplicaState state = replicaStateRepository.findByReplicaId(replicaId).orElse(null);
+        if (state != null && state.getSnapshotTimestamp() != null) {
+            // This replica was bootstrapped from a snapshot, so history before the
+            // snapshot is not in our log. The persisted rows reflect the tree after
+            // every persisted operation, and every persisted operation carries the
+            // old parent and name of its log entry (see persistLogEntry), so the
+            // rows plus the operations after the snapshot are the tree and its log
+            // as they were. They are installed as such: re-applying an operation
+            // to rows that already reflect it would log the new parent as the old
+            // one, and a later undo would then restore the wrong parent.
+            List<TreeNode> seedNodes = fileNodeRepository.findAll().stream()
+                    .map(this::toTreeNode)
+                    .toList();
+            List<CrdtOperation> unstableLog = new ArrayList<>(crdtOperationRepository
+                    .findByTimestampGreaterThanOrderByTimestamp(state.getSnapshotTimestamp()));
+            Map<String, Long> clock = deserializeVectorClock(state.getVectorClock());
+            for (CrdtOperation op : unstableLog) {
+                hlcService.updateWithRemoteTimestamp(HybridLogicalClock.fromLong(op.getTimestamp()));
+                clock.merge(op.getReplicaId(), op.getTimestamp(), Math::max);
+            }
+            Collections.reverse(unstableLog);
+            crdtTree.installSnapshot(seedNodes, unstableLog, clock);
+            compactionHorizon = state.getSnapshotTimestamp();
+            log.info("Seeded tree with {} nodes and {} logged operations from snapshot state at {}",
+                    seedNodes.size(), unstableLog.size(), state.getSnapshotTimestamp());
+        } else {
+            // Fetch all operations from the database, strictly ordered by timestamp.
+            List<CrdtOperation> operationsToReplay = crdtOperationRepository.findAll(Sort.by("timestamp"));
+            log.info("Replaying {} operations to build in-memory CRDT tree...", operationsToReplay.size());
+            for (CrdtOperation op : operationsToReplay) {
+                // Update HLC with each operation's timestamp to ensure the clock is up-to-date.
+                hlcService.updateWithRemoteTimestamp(HybridLogicalClock.fromLong(op.getTimestamp()));
+                // Apply the operation to the in-memory tree.
+                // Since operations are sorted, this will not trigger the undo-redo path,
+                // making initialization efficient.
+                crdtTree.applyOperation(op);
+            }
+        }
 
-        log.info("Replaying {} operations to build in-memory CRDT tree...", operationsToReplay.size());
-        for (CrdtOperation op : operationsToReplay) {
-            // Update HLC with each operation's timestamp to ensure the clock is up-to-date.
-            hlcService.updateWithRemoteTimestamp(HybridLogicalClock.fromLong(op.getTimestamp()));
-            // Apply the operation to the in-memory tree.
-            // Since operations are sorted, this will not trigger the undo-redo path,
-            // making initialization efficient.
-            crdtTree.applyOperation(op);
+        // Operations recorded before they carried owner and file metadata leave
+        // it empty in the tree; take it from the persisted nodes once.
+        if (crdtTree.getAllNodes().stream().anyMatch(node -> node.getOwnerId() == null)) {
+            int backfilled = crdtTree.backfillMetadata(fileNodeRepository.findAll().stream()
+                    .map(this::toTreeNode)
+                    .toList());
+            log.info("Backfilled metadata for {} nodes from the database", backfilled);
         }
 
         log.info("CRDT Tree initialized successfully. Final vector clock: {}", crdtTree.getVectorClock());
@@ -118,20 +200,21 @@ public class CrdtService {
                 .oldParentId(null) // `null` oldParentId signifies creation
                 .nodeName(name)
                 .nodeType(FileNode.FileType.FOLDER)
+                .ownerId(owner.getId())
                 .replicaId(replicaId)
                 .timestamp(timestamp)
                 .isApplied(true)
                 .build();
 
         // Apply and persist
-        return applyAndPersist(operation, owner);
+        return applyAndPersist(operation, owner, true);
     }
 
     /**
      * Creates a new file metadata entry. Also modeled as a MOVE from a null parent.
      */
     public CrdtServiceResult createFile(String name, UUID parentId, Long fileSize, String mimeType, String filePath,
-            UUID userId) {
+            String contentHash, UUID userId) {
         User owner = userRepository.findById(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + userId));
 
@@ -146,18 +229,22 @@ public class CrdtService {
                 .oldParentId(null) // `null` oldParentId signifies creation
                 .nodeName(name)
                 .nodeType(FileNode.FileType.FILE)
+                .ownerId(owner.getId())
+                .fileSize(fileSize)
+                .mimeType(mimeType)
                 .replicaId(replicaId)
                 .timestamp(timestamp)
                 .isApplied(true)
                 .build();
 
-        CrdtServiceResult result = applyAndPersist(operation, owner);
+        CrdtServiceResult result = applyAndPersist(operation, owner, true);
         FileNode newNode = result.getFileNode();
 
         // Update physical file attributes
         newNode.setFileSize(fileSize);
         newNode.setMimeType(mimeType);
         newNode.setFilePath(filePath);
+        newNode.setContentHash(contentHash);
         FileNode savedNode = fileNodeRepository.save(newNode);
         return new CrdtServiceResult(savedNode, result.getOperation());
     }
@@ -185,7 +272,7 @@ public class CrdtService {
                 .isApplied(true)
                 .build();
 
-        return applyAndPersist(operation, fileNode.getOwner());
+        return applyAndPersist(operation, fileNode.getOwner(), true);
     }
 
     /**
@@ -218,6 +305,36 @@ public class CrdtService {
         return applyAndPersist(operation, fileNode.getOwner());
     }
 
+    /**
+     * Removes a node from the trash for good. This is modeled as a MOVE to the
+     * "purged" parent, which the tree only accepts while the node is still in
+     * the trash, and which no later operation can undo.
+     */
+    public CrdtServiceResult purgeNode(UUID nodeId) {
+        TreeNode node = crdtTree.getNode(nodeId);
+        if (node == null) {
+            throw new ResourceNotFoundException("File not found with id: " + nodeId);
+        }
+
+        long timestamp = hlcService.newTimestamp().asLong();
+
+        CrdtOperation operation = CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(nodeId)
+                .parentId(CrdtTree.PURGED_ROOT_ID)
+                .oldParentId(node.getParentId())
+                .nodeName(node.getName())
+                .oldNodeName(node.getName())
+                .nodeType(node.getType())
+                .replicaId(replicaId)
+                .timestamp(timestamp)
+                .isApplied(true)
+                .build();
+
+        User owner = fileNodeRepository.findById(nodeId).map(FileNode::getOwner).orElse(null);
+        return applyAndPersist(operation, owner);
+    }
+
     /**
      * Updates a file/folder name. This is modeled as a MOVE to the same parent but
      * with new metadata (the name).
@@ -245,12 +362,24 @@ public class CrdtService {
                 .isApplied(true)
                 .build();
 
-        return applyAndPersist(operation, fileNode.getOwner());
+        return applyAndPersist(operation, fileNode.getOwner(), true);
+    }
+
+    /**
+     * Returns {@code name} if no visible sibling under {@code parentId} uses it,
+     * otherwise the first free {@code name (n)}, keeping a file's extension.
+     */
+    public String availableName(UUID parentId, String name, FileNode.FileType type) {
+        String candidate = name;
+        for (int n = 1; !crdtTree.getChildrenNamed(parentId, candidate).isEmpty(); n++) {
+            candidate = CrdtTree.withSuffix(name, String.valueOf(n), type == FileNode.FileType.FILE);
+        }
+        return candidate;
     }
 
     /**
      * Processes an operation from an external source (another replica via Redis or
-     * sync).
+     * sync). An operation is applied once, however many times it is delivered.
      */
     public void processExternalOperation(CrdtOperation operation) {
         if (this.replicaId.equals(operation.getReplicaId())) {
@@ -260,22 +389,48 @@ public class CrdtService {
         // CRITICAL: Update local HLC with the timestamp from the remote operation.
         hlcService.updateWithRemoteTimestamp(HybridLogicalClock.fromLong(operation.getTimestamp()));
 
+        // Remember where the node was so subscribers of its old folders hear about it.
+        Set<UUID> affectedFolders = new HashSet<>(crdtTree.getAncestorIds(operation.getNodeId()));
+
         // Apply the operation to the in-memory CRDT tree.
-        crdtTree.applyOperation(operation);
+        CrdtTree.AppliedOperation applied = crdtTree.applyOperation(operation);
+        if (applied == null) {
+            log.debug("Skipping operation {} from replica {}: already applied", operation.getId(),
+                    operation.getReplicaId());
+            return;
+        }
+        affectedFolders.addAll(crdtTree.getAncestorIds(operation.getNodeId()));
 
-        // Persist the converged state of the affected node to the database.
-        persistNodeState(operation.getNodeId(), null);
+        // Persist the converged state of the affected nodes to the database.
+        persistNodeState(operation.getNodeId(), ownerOf(operation.getOwnerId()));
+        persistRedoneNodes(applied, operation.getNodeId());
 
         // Mark the operation as applied in the database if it exists.
-        crdtOperationRepository.findById(operation.getId()).ifPresent(op -> {
+        crdtOperationRepository.findById(operation.getId()).ifPresentOrElse(op -> {
             if (op.getIsApplied() == null || !op.getIsApplied()) {
                 op.setIsApplied(true);
                 crdtOperationRepository.save(op);
             }
+        }, () -> {
+            if (persistRemoteOperations) {
+                persistLogEntry(operation, applied);
+                operation.setIsApplied(true);
+                crdtOperationRepository.save(operation);
+            }
         });
 
         // Publish event for real-time UI updates.
-        publishEvent("file.externally_modified", buildNodeEventPayload(crdtTree.getNode(operation.getNodeId())));
+        publishNodeEvent("file.externally_modified", buildNodeEventPayload(crdtTree.getNode(operation.getNodeId())),
+                affectedFolders);
+    }
+
+    /**
+     * Processes a page of operations pulled from a peer within a single
+     * transaction.
+     */
+    @Transactional
+    public void processExternalOperations(List<CrdtOperation> operations) {
+        operations.forEach(this::processExternalOperation);
     }
 
     /**
@@ -287,10 +442,25 @@ public class CrdtService {
      * @return The persisted FileNode with the converged state and the operation.
      */
     private CrdtServiceResult applyAndPersist(CrdtOperation operation, User owner) {
+        return applyAndPersist(operation, owner, false);
+    }
+
+    /**
+     * @param checkName Whether to reject the operation if a visible sibling
+     *                  under its target parent already has its name; see
+     *                  {@link CrdtTree#applyIfNameAvailable}.
+     */
+    private CrdtServiceResult applyAndPersist(CrdtOperation operation, User owner, boolean checkName) {
+        Set<UUID> affectedFolders = new HashSet<>(crdtTree.getAncestorIds(operation.getNodeId()));
+
         // 1. Apply to the in-memory CRDT tree. This is the source of truth.
-        crdtTree.applyOperation(operation);
+        CrdtTree.AppliedOperation applied = checkName
+                ? crdtTree.applyIfNameAvailable(operation)
+                : crdtTree.applyOperation(operation);
+        affectedFolders.addAll(crdtTree.getAncestorIds(operation.getNodeId()));
 
         // 2. Persist the operation itself to the log.
+        persistLogEntry(operation, applied);
         operation.setVectorClock(serializeVectorClock(crdtTree.getVectorClock()));
         CrdtOperation savedOperation = crdtOperationRepository.save(operation);
 
@@ -301,17 +471,109 @@ public class CrdtService {
         broadcastOperation(savedOperation);
 
         // 5. Publish event for local UI.
-        publishEvent("file.locally_modified", buildNodeEventPayload(persistedNode));
+        publishNodeEvent("file.locally_modified", buildNodeEventPayload(persistedNode), affectedFolders);
 
         return new CrdtServiceResult(persistedNode, savedOperation);
     }
 
+    /**
+     * Copies the old parent and name the tree logged for an operation onto the
+     * row to be saved, so a restart can install the log as it was instead of
+     * recomputing it (see {@link #initializeCrdtTree}).
+     */
+    private static void persistLogEntry(CrdtOperation operation, CrdtTree.AppliedOperation applied) {
+        if (applied != null) {
+            operation.setOldParentId(applied.logEntry().getOldParentId());
+            operation.setOldNodeName(applied.logEntry().getOldNodeName());
+        }
+    }
+
+    /**
+     * Persists nodes other than the operation's own that changed because
+     * newer operations were undone and redone around it.
+     */
+    private void persistRedoneNodes(CrdtTree.AppliedOperation applied, UUID nodeId) {
+        for (UUID changedId : applied.changedNodeIds()) {
+            if (!changedId.equals(nodeId)) {
+                persistNodeState(changedId, null);
+            }
+        }
+    }
+
+    /**
+     * Where the content of a file created by {@link #applyLocalBatch} is
+     * stored.
+     */
+    public record FileContent(String filePath, String contentHash) {
+    }
+
+    /**
+     * Applies and persists creates planned by this replica as one batch, e.g.
+     * a folder copy: the tree is updated in one pass (see
+     * {@link CrdtTree#applyOperationsIfNameAvailable}), after checking that
+     * the root's name is still free, rows and log entries are written
+     * {@value #SNAPSHOT_PERSIST_BATCH_SIZE} at a time, and local clients get a
+     * single event for the first node, the root of the batch.
+     *
+     * @param operations Create operations, parents before their children.
+     * @param content    Storage of the new files, by node id.
+     * @param progress   Told the number of nodes persisted after each chunk.
+     * @return The first node and its operation.
+     * @throws IllegalArgumentException if a sibling of the root took its name
+     *                                  since it was chosen.
+     */
+    public CrdtServiceResult applyLocalBatch(List<CrdtOperation> operations, Map<UUID, FileContent> content,
+            UUID userId, IntConsumer progress) {
+        User owner = userRepository.findById(userId)
+                .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + userId));
+        UUID rootId = operations.get(0).getNodeId();
+
+        crdtTree.applyOperationsIfNameAvailable(operations);
+        Set<UUID> affectedFolders = new HashSet<>(crdtTree.getAncestorIds(rootId));
+
+        String vectorClockJson = serializeVectorClock(crdtTree.getVectorClock());
+        List<CrdtOperation> savedOperations = new ArrayList<>(operations.size());
+        for (int from = 0; from < operations.size(); from += SNAPSHOT_PERSIST_BATCH_SIZE) {
+            List<CrdtOperation> batch = operations.subList(from,
+                    Math.min(from + SNAPSHOT_PERSIST_BATCH_SIZE, operations.size()));
+            for (CrdtOperation operation : batch) {
+                TreeNode treeNode = crdtTree.getNode(operation.getNodeId());
+                if (treeNode == null) {
+                    continue;
+                }
+                FileNode fileNode = new FileNode();
+                fileNode.setId(treeNode.getId());
+                fileNode.setOwner(owner);
+                copyTreeState(treeNode, fileNode, vectorClockJson);
+                FileContent fileContent = content.get(treeNode.getId());
+                if (fileContent != null) {
+                    fileNode.setFilePath(fileContent.filePath());
+                    fileNode.setContentHash(fileContent.contentHash());
+                }
+                // New ids: persist directly instead of letting save() look each one up.
+                entityManager.persist(fileNode);
+                operation.setVectorClock(vectorClockJson);
+            }
+            savedOperations.addAll(crdtOperationRepository.saveAll(batch));
+            // Keep the persistence context from growing with the whole batch.
+            entityManager.flush();
+            entityManager.clear();
+            progress.accept(from + batch.size());
+        }
+
+        savedOperations.forEach(this::broadcastOperation);
+        FileNode root = fileNodeRepository.findById(rootId).orElse(null);
+        publishNodeEvent("file.locally_modified", buildNodeEventPayload(root), affectedFolders);
+        return new CrdtServiceResult(root, savedOperations.get(0));
+    }
+
     /**
      * Persists the converged state of a node from the in-memory tree to the
      * database.
      *
      * @param nodeId The ID of the node to persist.
-     * @param owner  The user who owns the file (used only for creation).
+     * @param owner  The user who owns the file, used when the row has none;
+     *               if {@code null}, the node's owner id is looked up.
      * @return The saved FileNode entity.
      */
     private FileNode persistNodeState(UUID nodeId, User owner) {
@@ -336,19 +598,34 @@ public class CrdtService {
         // If it's a new node, set ID and owner.
         if (fileNode.getId() == null) {
             fileNode.setId(treeNode.getId());
-            fileNode.setOwner(owner);
+        }
+        if (fileNode.getOwner() == null) {
+            fileNode.setOwner(owner != null ? owner : ownerOf(treeNode.getOwnerId()));
         }
 
-        // Update attributes from the converged TreeNode state.
+        copyTreeState(treeNode, fileNode, serializeVectorClock(crdtTree.getVectorClock()));
+        return fileNodeRepository.save(fileNode);
+    }
+
+    /**
+     * Copies the converged TreeNode attributes onto a FileNode entity.
+     */
+    private void copyTreeState(TreeNode treeNode, FileNode fileNode, String vectorClockJson) {
         fileNode.setName(treeNode.getName());
         fileNode.setParentId(treeNode.getParentId());
         fileNode.setType(treeNode.getType());
         fileNode.setIsDeleted(treeNode.isDeleted());
         fileNode.setTimestamp(treeNode.getTimestamp());
+        fileNode.setCreatedTimestamp(treeNode.getCreatedTimestamp());
         fileNode.setReplicaId(treeNode.getReplicaId());
-        fileNode.setVectorClock(serializeVectorClock(crdtTree.getVectorClock()));
-
-        return fileNodeRepository.save(fileNode);
+        fileNode.setVectorClock(vectorClockJson);
+        // Replicas that only see the operation learn the file metadata from it.
+        if (treeNode.getFileSize() != null) {
+            fileNode.setFileSize(treeNode.getFileSize());
+        }
+        if (treeNode.getMimeType() != null) {
+            fileNode.setMimeType(treeNode.getMimeType());
+        }
     }
 
     /**
@@ -386,6 +663,120 @@ public class CrdtService {
         }
     }
 
+    /**
+     * Replaces the local tree with a snapshot streamed from a healthy replica
+     * and persists it, so joining costs time proportional to the tree size
+     * rather than to the length of the operation history. Operations in our
+     * log that the snapshot has not seen yet, our own unsynced ones and those
+     * of replicas the peer has not heard from, are re-applied on top of it.
+     *
+     * @param vectorClock     The vector clock of the snapshot.
+     * @param stableTimestamp The causally stable timestamp of the snapshot. The
+     *                        history up to it is not transferred, so it becomes
+     *                        our compaction horizon.
+     * @param unstableLog     Log entries newer than the stable timestamp, newest
+     *                        first.
+     * @param nodes           The converged nodes of the snapshot.
+     */
+    public void installSnapshot(Map<String, Long> vectorClock, long stableTimestamp,
+            List<CrdtOperation> unstableLog, List<TreeNode> nodes) {
+        log.info("Installing snapshot with {} nodes and {} unstable operations", nodes.size(), unstableLog.size());
+        // Replicas whose operations we hold, taken before the snapshot's clock
+        // is merged into ours.
+        Set<String> heldReplicaIds = new HashSet<>(crdtTree.getVectorClock().keySet());
+        heldReplicaIds.addAll(crdtOperationRepository.findDistinctReplicaIds());
+        crdtTree.installSnapshot(nodes, unstableLog, vectorClock);
+        compactionHorizon = stableTimestamp;
+        vectorClock.values().stream().max(Long::compare)
+                .ifPresent(ts -> hlcService.updateWithRemoteTimestamp(HybridLogicalClock.fromLong(ts)));
+
+        String vectorClockJson = serializeVectorClock(crdtTree.getVectorClock());
+        for (int from = 0; from < nodes.size(); from += SNAPSHOT_PERSIST_BATCH_SIZE) {
+            List<TreeNode> batch = nodes.subList(from, Math.min(from + SNAPSHOT_PERSIST_BATCH_SIZE, nodes.size()));
+            Map<UUID, FileNode> existing = new HashMap<>();
+            fileNodeRepository.findAllById(batch.stream().map(TreeNode::getId).toList())
+                    .forEach(fileNode -> existing.put(fileNode.getId(), fileNode));
+            // Owners without a local account stay unset; the tree keeps their id.
+            Map<UUID, User> owners = new HashMap<>();
+            userRepository.findAllById(batch.stream().map(TreeNode::getOwnerId).filter(Objects::nonNull)
+                    .distinct().toList())
+                    .forEach(user -> owners.put(user.getId(), user));
+
+            List<FileNode> toSave = new ArrayList<>(batch.size());
+            for (TreeNode treeNode : batch) {
+                FileNode fileNode = existing.get(treeNode.getId());
+                if (fileNode == null) {
+                    fileNode = new FileNode();
+                    fileNode.setId(treeNode.getId());
+                }
+                if (fileNode.getOwner() == null && treeNode.getOwnerId() != null) {
+                    fileNode.setOwner(owners.get(treeNode.getOwnerId()));
+                }
+                copyTreeState(treeNode, fileNode, vectorClockJson);
+                toSave.add(fileNode);
+            }
+            fileNodeRepository.saveAll(toSave);
+            // Keep the persistence context from growing with the whole tree.
+            entityManager.flush();
+            entityManager.clear();
+        }
+
+        // Keep the unstable tail, as the snapshot logged it, so a restart can
+        // install it on top of the persisted rows.
+        for (CrdtOperation op : unstableLog) {
+            CrdtOperation row = crdtOperationRepository.findById(op.getId())
+                    .orElseGet(() -> op.toBuilder().build());
+            row.setOldParentId(op.getOldParentId());
+            row.setOldNodeName(op.getOldNodeName());
+            row.setIsApplied(true);
+            crdtOperationRepository.save(row);
+        }
+
+        // Operations the peer has not seen would otherwise be lost.
+        List<CrdtOperation> unseen = new ArrayList<>();
+        for (String heldReplicaId : heldReplicaIds) {
+            unseen.addAll(crdtOperationRepository.findByReplicaIdAndTimestampGreaterThanOrderByTimestamp(
+                    heldReplicaId, vectorClock.getOrDefault(heldReplicaId, 0L)));
+        }
+        unseen.sort(Comparator.comparing(CrdtOperation::getTimestamp));
+        for (CrdtOperation op : unseen) {
+            CrdtTree.AppliedOperation applied = crdtTree.applyOperation(op);
+            if (applied == null) {
+                continue;
+            }
+            persistLogEntry(op, applied);
+            crdtOperationRepository.save(op);
+            persistNodeState(op.getNodeId(), ownerOf(op.getOwnerId()));
+            persistRedoneNodes(applied, op.getNodeId());
+        }
+
+        ReplicaState state = replicaStateRepository.findByReplicaId(replicaId).orElse(new ReplicaState());
+        state.setReplicaId(replicaId);
+        state.setSnapshotTimestamp(stableTimestamp);
+        state.setVectorClock(serializeVectorClock(crdtTree.getVectorClock()));
+        state.setLastOperationTimestamp(hlcService.getLatestHlc().asLong());
+        state.setLastHeartbeat(java.time.LocalDateTime.now());
+        state.setIsActive(true);
+        replicaStateRepository.save(state);
+
+        publishEvent("sync.completed", Map.of("replicaId", replicaId, "count", nodes.size(), "snapshot", true));
+    }
+
+    /**
+     * The local user with the given id, or {@code null} if the id is unset or
+     * the user only exists on other replicas.
+     */
+    private User ownerOf(UUID ownerId) {
+        return ownerId != null ? userRepository.findById(ownerId).orElse(null) : null;
+    }
+
+    private TreeNode toTreeNode(FileNode fileNode) {
+        return new TreeNode(fileNode.getId(), fileNode.getParentId(), fileNode.getName(), fileNode.getType(),
+                fileNode.getTimestamp(), fileNode.getReplicaId(), Boolean.TRUE.equals(fileNode.getIsDeleted()),
+                fileNode.getOwner() != null ? fileNode.getOwner().getId() : null, fileNode.getFileSize(),
+                fileNode.getMimeType(), fileNode.getCreatedTimestamp());
+    }
+
     private void broadcastOperation(CrdtOperation operation) {
         try {
             redisTemplate.convertAndSend("crdt:operations", operation);
@@ -448,12 +839,51 @@ public class CrdtService {
         eventPublisher.publishEvent(new CrdtOperationEvent(this, type, data));
     }
 
+    private void publishNodeEvent(String type, Object data, Set<UUID> affectedFolderIds) {
+        eventPublisher.publishEvent(new CrdtOperationEvent(this, type, data, affectedFolderIds));
+    }
+
     // --- Read-only methods ---
 
     public Map<String, Object> getTreeStructure() {
         return crdtTree.getTreeStructure();
     }
 
+    public Map<String, Object> getTreeDelta(long sinceVersion, String epoch) {
+        return crdtTree.getTreeDelta(sinceVersion, epoch);
+    }
+
+    public void writeTreeStructure(JsonGenerator generator) throws IOException {
+        crdtTree.writeTreeStructure(generator);
+    }
+
+    public int getTreeNodeCount() {
+        return crdtTree.getNodeCount();
+    }
+
+    /**
+     * One page of a folder's children from the in-memory tree, optionally
+     * expanded a few levels deep. See {@link CrdtTree#getSubtree}.
+     */
+    public Map<String, Object> getSubtree(UUID folderId, Integer depth, Integer limit, String cursor) {
+        int effectiveDepth = Math.max(1, Math.min(depth != null ? depth : 1, MAX_SUBTREE_DEPTH));
+        int effectiveLimit = Math.max(1, Math.min(limit != null ? limit : DEFAULT_SUBTREE_PAGE_SIZE,
+                MAX_SUBTREE_PAGE_SIZE));
+        Map<String, Object> subtree = crdtTree.getSubtree(folderId, effectiveDepth, effectiveLimit, cursor);
+        if (subtree == null) {
+            throw new ResourceNotFoundException("Folder not found with id: " + folderId);
+        }
+        return subtree;
+    }
+
+    public long getTreeVersion() {
+        return crdtTree.getVersion();
+    }
+
+    public String getTreeEpoch() {
+        return crdtTree.getEpoch();
+    }
+
     public List<CrdtOperation> getOperationsSince(Long timestamp) {
         if (timestamp == null) {
             return crdtOperationRepository.findAll(Sort.by("timestamp"));
@@ -461,10 +891,41 @@ public class CrdtService {
         return crdtOperationRepository.findByTimestampGreaterThanOrderByTimestamp(timestamp);
     }
 
+    /**
+     * Returns up to {@code limit} operations from the local log that are not
+     * covered by the given vector clock, in timestamp order. Each replica's
+     * operations form a contiguous prefix of what the caller is missing, so the
+     * caller's clock after applying them is a valid cursor for the next page.
+     */
+    public List<CrdtOperation> getOperationsMissingFrom(Map<String, Long> vectorClock, int limit) {
+        List<CrdtOperation> missing = new ArrayList<>();
+        for (String knownReplicaId : crdtOperationRepository.findDistinctReplicaIds()) {
+            long seen = vectorClock.getOrDefault(knownReplicaId, 0L);
+            missing.addAll(crdtOperationRepository.findByReplicaIdAndTimestampGreaterThanOrderByTimestamp(
+                    knownReplicaId, seen, PageRequest.of(0, limit)));
+        }
+        missing.sort(Comparator.comparing(CrdtOperation::getTimestamp));
+        return missing.size() > limit ? missing.subList(0, limit) : missing;
+    }
+
+    public CrdtTree.Snapshot getSnapshot() {
+        return crdtTree.snapshot();
+    }
+
     public String getReplicaId() {
         return replicaId;
     }
 
+    /**
+     * The timestamp at or below which operations may be missing from our log
+     * because they were received as part of a snapshot, or 0 if the log is
+     * complete. A peer that is missing such operations cannot catch up by
+     * pulling from us.
+     */
+    public long getCompactionHorizon() {
+        return compactionHorizon;
+    }
+
     public Map<String, Long> getVectorClock() {
         return crdtTree.getVectorClock();
     }
@@ -477,31 +938,119 @@ public class CrdtService {
         return crdtTree.getAllNodes();
     }
 
-    public CrdtServiceResult copyNode(UUID sourceId, UUID targetParentId, UUID userId) {
-        FileNode source = fileNodeRepository.findById(sourceId)
-                .orElseThrow(() -> new ResourceNotFoundException("Source node not found with id: " + sourceId));
+    public List<TreeNode> getChildren(UUID parentId) {
+        return crdtTree.getChildren(parentId);
+    }
+
+    public List<TreeNode> getTrashedNodes() {
+        return crdtTree.getTrashedNodes();
+    }
+
+    public List<TreeNode> getSubtreeNodes(UUID rootId) {
+        return crdtTree.getSubtreeNodes(rootId);
+    }
+
+    public long getStableTimestamp() {
+        return crdtTree.getStableTimestamp();
+    }
+
+    public FolderAggregates.Aggregate getFolderAggregate(UUID folderId) {
+        return crdtTree.getFolderAggregate(folderId);
+    }
+
+    public StorageUsage getStorageUsage(UUID userId) {
+        return crdtTree.getStorageUsage(userId);
+    }
 
-        if (source.getIsDeleted()) {
-            throw new IllegalStateException("Cannot copy a deleted node.");
+    /**
+     * Holds {@code bytes} of the user's quota for a write that is not in the
+     * tree yet, or throws if they do not fit next to the user's usage and
+     * their other open reservations. Checking and reserving is one step, so
+     * concurrent writes cannot each see the same free space. Close the
+     * reservation once the write has been applied, which makes the tree's
+     * counter cover it, or abandoned.
+     */
+    public QuotaReservation reserveQuota(UUID userId, long bytes) {
+        if (userQuota <= 0 || userId == null) {
+            return new QuotaReservation(null, 0);
         }
+        synchronized (reservedBytes) {
+            long used = crdtTree.getStorageUsage(userId).bytes() + reservedBytes.getOrDefault(userId, 0L);
+            if (used + bytes > userQuota) {
+                throw new QuotaExceededException("Storage quota exceeded: " + bytes
+                        + " bytes does not fit, " + used + " of " + userQuota + " bytes used or reserved");
+            }
+            reservedBytes.merge(userId, bytes, Long::sum);
+        }
+        return new QuotaReservation(userId, bytes);
+    }
 
-        if (source.getType() == FileNode.FileType.FILE) {
-            try {
-                FileService.DuplicateResult dup = FileService.duplicateFileStatic(source.getFilePath(),
-                        source.getName(), storagePath);
-                return createFile(source.getName(), targetParentId, dup.size, source.getMimeType(), dup.filePath,
-                        userId);
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to duplicate file: " + e.getMessage());
+    /**
+     * Quota held by {@link #reserveQuota} until closed. Closing more than
+     * once has no further effect.
+     */
+    public final class QuotaReservation implements AutoCloseable {
+
+        private final UUID userId;
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private QuotaReservation(UUID userId, long bytes) {
+            this.userId = userId;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (userId == null || !released.compareAndSet(false, true)) {
+                return;
+            }
+            synchronized (reservedBytes) {
+                reservedBytes.computeIfPresent(userId, (id, held) -> held > bytes ? held - bytes : null);
             }
         }
+    }
 
-        // Folder: create the new folder and recursively copy its children.
-        CrdtServiceResult newFolderResult = createFolder(source.getName(), targetParentId, userId);
-        List<FileNode> children = fileNodeRepository.findByParentIdAndIsDeletedFalseOrderByName(sourceId);
-        for (FileNode child : children) {
-            copyNode(child.getId(), newFolderResult.getFileNode().getId(), userId);
+    /**
+     * Recomputes the usage counters from the tree and corrects any that
+     * drifted. The tree, not the database, is what they are defined over:
+     * with a shared database, rows of operations still in flight from peers
+     * are not in the local tree yet, and without persist-remote-operations a
+     * replica's own database lacks nodes it received from peers.
+     */
+    @Scheduled(initialDelayString = "${file.storage.usage-reconcile-interval-ms:3600000}",
+            fixedDelayString = "${file.storage.usage-reconcile-interval-ms:3600000}")
+    public void reconcileStorageUsage() {
+        if (crdtTree == null) {
+            return;
+        }
+        int drifted = crdtTree.reconcileStorageUsage();
+        if (drifted > 0) {
+            log.warn("Corrected storage usage counters for {} owners", drifted);
         }
-        return newFolderResult;
+    }
+
+    public String getDisplayName(TreeNode node) {
+        return crdtTree.getDisplayName(node);
+    }
+
+    public TreeNode resolvePath(String path) {
+        TreeNode node = crdtTree.resolvePath(path);
+        if (node == null) {
+            throw new ResourceNotFoundException("No file or folder at path: " + path);
+        }
+        return node;
+    }
+
+    public List<CrdtTree.SearchHit> search(String query, Integer limit) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Search query must not be empty");
+        }
+        int effectiveLimit = Math.max(1, Math.min(limit != null ? limit : DEFAULT_SEARCH_LIMIT, MAX_SEARCH_LIMIT));
+        return crdtTree.search(query.trim(), effectiveLimit);
+    }
+
+    public List<TreeNode> getNodesOwnedBy(UUID ownerId) {
+        return crdtTree.getNodesByOwner(ownerId);
     }
 }
@@ -0,0 +1,320 @@
+package com.crdt.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.crdt.exception.ResourceNotFoundException;
+import com.crdt.storage.BlobReadCache;
+import com.crdt.storage.BlobStore;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Writes a stored file to an HTTP response. Supports conditional requests
+ * (ETag and Last-Modified), single and multiple byte ranges with
+ * {@code If-Range}, and HEAD. Files on local disk are copied with
+ * {@link FileChannel#transferTo}; on Tomcat, single bodies of at least
+ * {@code file.download.sendfile-threshold} bytes are handed to the connector's
+ * sendfile support instead, so the bytes never pass through the JVM heap.
+ * Remote blobs are streamed from the {@link BlobStore}. Small blobs are
+ * served from the {@link BlobReadCache} when their content hash is known.
+ * <p>
+ * Blobs stored gzip-compressed are sent as stored, with
+ * {@code Content-Encoding: gzip}, to clients that accept it and ask for the
+ * whole file; ranges and other clients get the decoded content. Their decoded
+ * length is the node's recorded file size, so it never has to be measured; a
+ * range of such a blob is still decoded from the start of the blob, which
+ * {@link com.crdt.storage.CompressionPolicy} bounds by not compressing large
+ * files.
+ */
+@Component
+@RequiredArgsConstructor
+public class FileDownloadWriter {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private record Span(long start, long end) {
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    private final BlobStore blobStore;
+    private final BlobReadCache readCache;
+
+    @Value("${file.download.sendfile-threshold:1048576}")
+    private long sendfileThreshold;
+
+    /**
+     * @param contentHash The blob's hash, or {@code null} for content stored
+     *                    before content addressing, which is never cached.
+     * @param size        The size of the content. Required for compressed
+     *                    blobs, whose stored size is not the content's;
+     *                    every compressed blob is recorded with it.
+     */
+    public void write(String location, String contentHash, Long size, String etag, String fileName, String mimeType,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean compressed = BlobStore.isCompressed(location);
+        if (compressed && size == null) {
+            throw new IllegalStateException("Content size of compressed blob is not recorded: " + location);
+        }
+        BlobReadCache.CachedBlob cached = readCache.get(contentHash, location, size);
+        // The stored bytes are sent as they are only for a whole file.
+        boolean encoded = compressed && cached == null && request.getHeader(HttpHeaders.RANGE) == null
+                && acceptsGzip(request);
+        long length;
+        long lastModified;
+        if (cached != null) {
+            length = cached.content().remaining();
+            lastModified = cached.lastModified();
+        } else {
+            BlobStore.BlobInfo info;
+            try {
+                info = blobStore.stat(location);
+                length = !compressed || encoded ? info.size() : size;
+            } catch (NoSuchFileException e) {
+                throw new ResourceNotFoundException("File content not found: " + fileName);
+            }
+            lastModified = info.lastModified();
+        }
+        ByteBuffer content = cached != null ? cached.content() : null;
+        Path file = compressed && !encoded ? null : blobStore.localFile(location);
+        String contentType = mimeType != null ? mimeType : "application/octet-stream";
+        if (compressed) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (encoded) {
+            // The encoded body is a different representation of the file.
+            etag = gzipEtag(etag);
+        }
+
+        // Sets 304 or 412 and the validator headers when the client's copy
+        // is current or a precondition fails.
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (encoded) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(fileName, StandardCharsets.UTF_8).build().toString());
+
+        List<Span> spans = null;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && ifRangeMatches(request, etag, lastModified)) {
+            spans = parseRanges(rangeHeader, length);
+            if (spans == null) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+        }
+        boolean head = "HEAD".equals(request.getMethod());
+
+        if (spans == null || spans.isEmpty()) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            if (!head) {
+                writeSpan(location, file, content, encoded, new Span(0, length - 1), request, response);
+            }
+            return;
+        }
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        if (spans.size() == 1) {
+            Span span = spans.get(0);
+            response.setContentType(contentType);
+            response.setContentLengthLong(span.length());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(span, length));
+            if (!head) {
+                writeSpan(location, file, content, encoded, span, request, response);
+            }
+            return;
+        }
+
+        String boundary = UUID.randomUUID().toString();
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        if (head) {
+            return;
+        }
+        OutputStream out = response.getOutputStream();
+        for (Span span : spans) {
+            String partHeader = "\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(span, length) + "\r\n\r\n";
+            out.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+            copySpan(location, file, content, encoded, span, out);
+        }
+        out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * @param encoded Whether a compressed blob is sent as stored rather than
+     *                decoded; content that is cached or a local file is
+     *                already what is sent.
+     */
+    private void writeSpan(String location, Path file, ByteBuffer content, boolean encoded, Span span,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (content == null && file != null && span.length() >= sendfileThreshold
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, span.start());
+            request.setAttribute(SENDFILE_END, span.end() + 1);
+            return;
+        }
+        OutputStream out = response.getOutputStream();
+        copySpan(location, file, content, encoded, span, out);
+        out.flush();
+    }
+
+    private void copySpan(String location, Path file, ByteBuffer content, boolean encoded, Span span,
+            OutputStream out) throws IOException {
+        if (span.length() == 0) {
+            return;
+        }
+        if (content != null) {
+            ByteBuffer slice = content.slice((int) span.start(), (int) span.length());
+            WritableByteChannel target = Channels.newChannel(out);
+            while (slice.hasRemaining()) {
+                target.write(slice);
+            }
+            readCache.recordBytesServed(span.length());
+            return;
+        }
+        if (file != null) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                transfer(channel, span, out);
+            }
+            return;
+        }
+        try (InputStream in = encoded ? blobStore.openRange(location, span.start(), span.length())
+                : blobStore.openContent(location, span.start(), span.length())) {
+            in.transferTo(out);
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        Enumeration<String> headers = request.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+        while (headers != null && headers.hasMoreElements()) {
+            for (String coding : headers.nextElement().split(",")) {
+                String[] parts = coding.split(";");
+                String name = parts[0].trim();
+                if (!name.equalsIgnoreCase("gzip") && !name.equalsIgnoreCase("x-gzip")) {
+                    continue;
+                }
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                        try {
+                            return Double.parseDouble(parameter.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String gzipEtag(String etag) {
+        return etag != null && etag.endsWith("\"") ? etag.substring(0, etag.length() - 1) + "-gzip\"" : etag;
+    }
+
+    private static void transfer(FileChannel channel, Span span, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = span.start();
+        long remaining = span.length();
+        while (remaining > 0) {
+            long written = channel.transferTo(position, remaining, target);
+            if (written <= 0) {
+                throw new IOException("File ended before the requested range");
+            }
+            position += written;
+            remaining -= written;
+        }
+    }
+
+    /**
+     * A Range header is honoured only if {@code If-Range}, when present, still
+     * names the current representation; otherwise the full body is sent.
+     */
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The requested spans, empty if the header is malformed and should
+     *         be ignored, or {@code null} if no range can be satisfied.
+     */
+    private static List<Span> parseRanges(String header, long length) {
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(header);
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+        List<Span> spans = new ArrayList<>();
+        long total = 0;
+        for (HttpRange range : ranges) {
+            try {
+                Span span = new Span(range.getRangeStart(length), range.getRangeEnd(length));
+                spans.add(span);
+                total += span.length();
+            } catch (IllegalArgumentException e) {
+                // Starts past the end of the file; other ranges may still apply.
+            }
+        }
+        if (spans.isEmpty()) {
+            return null;
+        }
+        // Overlapping ranges adding up to more than the file are a known
+        // amplification pattern; serve the whole file instead.
+        return total > length ? List.of() : spans;
+    }
+
+    private static String contentRange(Span span, long length) {
+        return "bytes " + span.start() + "-" + span.end() + "/" + length;
+    }
+}
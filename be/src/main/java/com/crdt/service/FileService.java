@@ -1,26 +1,23 @@
 package com.crdt.service;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.UUID;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.crdt.crdt.TreeNode;
+import com.crdt.exception.FileTooLargeException;
 import com.crdt.exception.ResourceNotFoundException;
 import com.crdt.model.FileNode;
 import com.crdt.repository.FileNodeRepository;
+import com.crdt.storage.BlobStore;
+import com.crdt.storage.CompressionPolicy;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 
 @Service
@@ -29,9 +26,9 @@ public class FileService {
 
     private final FileNodeRepository fileNodeRepository;
     private final CrdtService crdtService;
-
-    @Value("${file.storage.path}")
-    private String storagePath;
+    private final FileDownloadWriter downloadWriter;
+    private final FolderArchiveWriter archiveWriter;
+    private final CompressionPolicy compressionPolicy;
 
     @Value("${file.storage.max-size}")
     private long maxFileSize;
@@ -42,54 +39,29 @@ public class FileService {
         }
 
         if (file.getSize() > maxFileSize) {
-            throw new RuntimeException("File size exceeds maximum allowed size");
+            throw new FileTooLargeException("File size exceeds maximum allowed size");
         }
-
-        // Save file to storage
-        String fileName = java.util.UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-        Path filePath = Paths.get(storagePath).resolve(fileName);
-        Files.createDirectories(filePath.getParent());
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-
-        // Register file via CRDT (creates DB node + broadcasts)
-        return crdtService.createFile(
-                file.getOriginalFilename(),
-                parentId,
-                file.getSize(),
-                file.getContentType(),
-                filePath.toString(),
-                userId).getFileNode();
-    }
-
-    public static class DuplicateResult {
-        public String filePath;
-        public long size;
-
-        public DuplicateResult(String filePath, long size) {
-            this.filePath = filePath;
-            this.size = size;
+        try (CrdtService.QuotaReservation reservation = crdtService.reserveQuota(userId, file.getSize())) {
+            // Store the content under its hash; identical uploads share one blob.
+            // Text-like content that compresses well is stored compressed.
+            BlobStore.StoredBlob blob = compressionPolicy.store(file.getInputStream(), file.getContentType(),
+                    file.getSize());
+
+            // Register file via CRDT (creates DB node + broadcasts). An upload never
+            // fails on a name clash; it is stored as "name (1).ext" instead.
+            return crdtService.createFile(
+                    crdtService.availableName(parentId, file.getOriginalFilename(), FileNode.FileType.FILE),
+                    parentId,
+                    blob.size(),
+                    file.getContentType(),
+                    blob.path(),
+                    blob.hash(),
+                    userId).getFileNode();
         }
     }
 
-    public DuplicateResult duplicateFile(String sourceFilePath, String originalFilename) throws IOException {
-        return FileService.duplicateFileStatic(sourceFilePath, originalFilename, storagePath);
-    }
-
-    public static DuplicateResult duplicateFileStatic(String sourceFilePath, String originalFilename,
-            String storagePath) throws IOException {
-        Path source = Paths.get(sourceFilePath);
-        if (!Files.exists(source)) {
-            throw new IOException("Source file not found: " + sourceFilePath);
-        }
-        String newName = java.util.UUID.randomUUID().toString() + "_" + originalFilename;
-        Path target = Paths.get(storagePath).resolve(newName);
-        Files.createDirectories(target.getParent());
-        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
-        long size = Files.size(target);
-        return new DuplicateResult(target.toString(), size);
-    }
-
-    public ResponseEntity<Resource> downloadFile(UUID fileId, UUID userId) throws IOException {
+    public void downloadFile(UUID fileId, UUID userId, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
         FileNode fileNode = fileNodeRepository.findById(fileId)
                 .orElseThrow(() -> new ResourceNotFoundException("File not found with id: " + fileId));
 
@@ -97,24 +69,53 @@ public class FileService {
             throw new ResourceNotFoundException("File has been deleted: " + fileId);
         }
 
-        Path filePath = Paths.get(fileNode.getFilePath());
-        Resource resource = new UrlResource(filePath.toUri());
+        if (fileNode.getFilePath() == null) {
+            throw new ResourceNotFoundException("File content not found for id: " + fileId);
+        }
+
+        downloadWriter.write(fileNode.getFilePath(), fileNode.getContentHash(), fileNode.getFileSize(), etagOf(fileNode),
+                fileNode.getName(), fileNode.getMimeType(), request, response);
+    }
 
-        if (!resource.exists()) {
-            throw new ResourceNotFoundException("File not found on disk for id: " + fileId);
+    /**
+     * Streams a folder and everything below it as a ZIP archive.
+     */
+    public void downloadArchive(UUID folderId, UUID userId, HttpServletResponse response) throws IOException {
+        TreeNode folder = crdtService.getNode(folderId);
+        if (folder == null) {
+            throw new ResourceNotFoundException("Folder not found with id: " + folderId);
         }
+        if (folder.isDeleted()) {
+            throw new ResourceNotFoundException("Folder has been deleted: " + folderId);
+        }
+        if (folder.isFile()) {
+            throw new IllegalArgumentException("Only folders can be downloaded as an archive");
+        }
+        archiveWriter.write(folder, response);
+    }
 
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(fileNode.getMimeType()))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileNode.getName() + "\"")
-                .body(resource);
+    /**
+     * A strong entity tag: the content hash where known, otherwise the size
+     * and the timestamp of the last write.
+     */
+    private static String etagOf(FileNode fileNode) {
+        if (fileNode.getContentHash() != null) {
+            return "\"" + fileNode.getContentHash() + "\"";
+        }
+        return "\"" + fileNode.getFileSize() + "-" + fileNode.getTimestamp() + "\"";
     }
 
-    public List<FileNode> getChildren(UUID parentId, UUID userId) {
-        return fileNodeRepository.findByParentIdAndIsDeletedFalseOrderByName(parentId);
+    /**
+     * Lists a folder from the in-memory tree; the database is not queried.
+     */
+    public List<TreeNode> getChildren(UUID parentId, UUID userId) {
+        return crdtService.getChildren(parentId);
     }
 
-    public List<FileNode> getUserFiles(UUID userId) {
-        return fileNodeRepository.findByOwnerIdAndIsDeletedFalseOrderByName(userId);
+    /**
+     * Lists a user's files from the in-memory tree; the database is not queried.
+     */
+    public List<TreeNode> getUserFiles(UUID userId) {
+        return crdtService.getNodesOwnedBy(userId);
     }
 }
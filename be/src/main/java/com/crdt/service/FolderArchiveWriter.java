@@ -0,0 +1,188 @@
+package com.crdt.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import com.crdt.crdt.TreeNode;
+import com.crdt.model.FileNode;
+import com.crdt.repository.FileNodeRepository;
+import com.crdt.storage.BlobStore;
+import com.crdt.util.HybridLogicalClock;
+
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Streams a folder as a ZIP archive while walking it in the in-memory tree.
+ * Each file is copied from the {@link BlobStore} straight into the response;
+ * the archive is never staged on disk or in memory, so its size is not known
+ * up front and it is sent chunked. ZIP64 extensions are written as needed for
+ * large archives and more than 65535 entries.
+ * <p>
+ * Storage locations are not part of the tree and are looked up in batches,
+ * one query per {@value #LOOKUP_BATCH_SIZE} files of a folder.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FolderArchiveWriter {
+
+    private static final int LOOKUP_BATCH_SIZE = 500;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Content that deflate would not shrink further; written without compression.
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-7z-compressed",
+            "application/x-rar-compressed", "application/vnd.rar", "application/x-bzip2", "application/x-xz",
+            "application/zstd", "application/java-archive", "application/epub+zip", "application/pdf");
+    private static final List<String> COMPRESSED_PREFIXES = List.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/avif", "image/heic",
+            "video/", "audio/", "application/vnd.openxmlformats-officedocument.");
+
+    private record Pending(TreeNode folder, String prefix) {
+    }
+
+    private final CrdtService crdtService;
+    private final FileNodeRepository fileNodeRepository;
+    private final BlobStore blobStore;
+
+    public void write(TreeNode folder, HttpServletResponse response) throws IOException {
+        String archiveName = entryName(crdtService.getDisplayName(folder)) + ".zip";
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(archiveName, StandardCharsets.UTF_8).build().toString());
+
+        OutputStream out = new BufferedOutputStream(response.getOutputStream(), BUFFER_SIZE);
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        Deque<Pending> pending = new ArrayDeque<>();
+        pending.push(new Pending(folder, ""));
+        int files = 0;
+        while (!pending.isEmpty()) {
+            Pending current = pending.pop();
+            List<TreeNode> fileNodes = new ArrayList<>();
+            for (TreeNode child : crdtService.getChildren(current.folder().getId())) {
+                String path = current.prefix() + entryName(crdtService.getDisplayName(child));
+                if (child.isFile()) {
+                    fileNodes.add(child);
+                } else {
+                    writeDirectory(zip, path + "/", child);
+                    pending.push(new Pending(child, path + "/"));
+                }
+            }
+            for (int start = 0; start < fileNodes.size(); start += LOOKUP_BATCH_SIZE) {
+                List<TreeNode> batch = fileNodes.subList(start, Math.min(start + LOOKUP_BATCH_SIZE, fileNodes.size()));
+                Map<UUID, FileNode> rows = fileNodeRepository.findAllById(batch.stream().map(TreeNode::getId).toList())
+                        .stream()
+                        .collect(Collectors.toMap(FileNode::getId, Function.identity()));
+                for (TreeNode node : batch) {
+                    if (writeFile(zip, current.prefix() + entryName(crdtService.getDisplayName(node)), node,
+                            rows.get(node.getId()))) {
+                        files++;
+                    }
+                }
+            }
+        }
+        zip.finish();
+        out.flush();
+        log.debug("Streamed folder {} as a ZIP archive with {} files", folder.getId(), files);
+    }
+
+    private void writeDirectory(ZipOutputStream zip, String path, TreeNode folder) throws IOException {
+        ZipEntry entry = new ZipEntry(path);
+        setTime(entry, folder);
+        zip.putNextEntry(entry);
+        zip.closeEntry();
+    }
+
+    /**
+     * @return Whether the file was written; files whose content is missing are
+     *         skipped, since the response has already started.
+     */
+    private boolean writeFile(ZipOutputStream zip, String path, TreeNode node, FileNode row) throws IOException {
+        if (row == null || row.getFilePath() == null) {
+            log.warn("Skipping {} in archive: no stored content", node.getId());
+            return false;
+        }
+        InputStream content;
+        try {
+            long size = row.getFileSize() != null ? row.getFileSize()
+                    : BlobStore.isCompressed(row.getFilePath()) ? Long.MAX_VALUE
+                    : blobStore.stat(row.getFilePath()).size();
+            content = blobStore.openContent(row.getFilePath(), 0, size);
+        } catch (NoSuchFileException e) {
+            log.warn("Skipping {} in archive: content not found at {}", node.getId(), row.getFilePath());
+            return false;
+        }
+        try (InputStream in = content) {
+            // Deflate at level 0 rather than STORED entries: those need the
+            // CRC before the data, which would mean reading every file twice.
+            zip.setLevel(isCompressed(node.getMimeType()) ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+            ZipEntry entry = new ZipEntry(path);
+            setTime(entry, node);
+            zip.putNextEntry(entry);
+            in.transferTo(zip);
+            zip.closeEntry();
+        }
+        return true;
+    }
+
+    private static void setTime(ZipEntry entry, TreeNode node) {
+        if (node.getTimestamp() != null) {
+            entry.setTime(HybridLogicalClock.fromLong(node.getTimestamp()).getPhysicalTime());
+        }
+    }
+
+    static boolean isCompressed(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        String type = mimeType.toLowerCase();
+        int parameters = type.indexOf(';');
+        if (parameters >= 0) {
+            type = type.substring(0, parameters).trim();
+        }
+        if (COMPRESSED_TYPES.contains(type)) {
+            return true;
+        }
+        for (String prefix : COMPRESSED_PREFIXES) {
+            if (type.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A name usable as one path segment of an entry: separators and the
+     * relative segments extraction tools would follow are replaced.
+     */
+    private static String entryName(String name) {
+        if (name == null || name.isBlank() || name.equals(".") || name.equals("..")) {
+            return "_";
+        }
+        return name.replace('/', '_').replace('\\', '_');
+    }
+}
@@ -0,0 +1,257 @@
+package com.crdt.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.crdt.TreeNode;
+import com.crdt.dto.CrdtOperationDto;
+import com.crdt.dto.PeerSyncRequest;
+import com.crdt.dto.SyncResponse;
+import com.crdt.model.CrdtOperation;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pulls missing operations directly from peer replicas over HTTP. Unlike
+ * {@link CrdtService#syncWithReplicas()}, this does not rely on all replicas
+ * reading the same {@code crdt_operations} table, so each replica can run
+ * against its own database.
+ */
+@Service
+@Slf4j
+public class PeerSyncService {
+
+    public static final String PEER_TOKEN_HEADER = "X-Replica-Token";
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    // Upper bound on pages per pull so a misbehaving peer cannot pin us forever.
+    private static final int MAX_PAGES_PER_PULL = 10_000;
+
+    private final CrdtService crdtService;
+    private final ObjectMapper objectMapper;
+    private final RestClient restClient;
+
+    @Value("${crdt.sync.peers:}")
+    private List<String> peers;
+
+    @Value("${crdt.sync.peer-token:}")
+    private String peerToken;
+
+    @Value("${crdt.sync.batch-size:100}")
+    private int pageSize;
+
+    @Value("${crdt.sync.bootstrap-peer:}")
+    private String bootstrapPeer;
+
+    public PeerSyncService(CrdtService crdtService, ObjectMapper objectMapper, RestClient.Builder restClientBuilder) {
+        this.crdtService = crdtService;
+        this.objectMapper = objectMapper;
+        this.restClient = restClientBuilder.build();
+    }
+
+    /**
+     * Pulls from every configured peer in turn. A failing peer is logged and
+     * skipped; the next scheduled round will retry it.
+     */
+    public void syncWithPeers() {
+        for (String peer : peers) {
+            if (peer.isBlank()) {
+                continue;
+            }
+            try {
+                pullFrom(peer);
+            } catch (Exception e) {
+                log.warn("Peer sync with {} failed: {}", peer, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Repeatedly asks the peer for operations not covered by our vector clock,
+     * applying each page before requesting the next. If some of them are
+     * older than the peer's compaction horizon, the peer can no longer send
+     * them, and this replica is bootstrapped from the peer's snapshot instead.
+     *
+     * @param peerBaseUrl Base URL of the peer API, e.g. {@code http://replica-2:8080/api}.
+     * @return The number of operations received, not counting those covered
+     *         by an installed snapshot.
+     */
+    public int pullFrom(String peerBaseUrl) {
+        int received = 0;
+        for (int page = 0; page < MAX_PAGES_PER_PULL; page++) {
+            PeerSyncRequest request = new PeerSyncRequest(crdtService.getReplicaId(),
+                    new HashMap<>(crdtService.getVectorClock()), pageSize);
+
+            SyncResponse response = restClient.post()
+                    .uri(peerBaseUrl + "/crdt/peer/operations")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(PEER_TOKEN_HEADER, peerToken)
+                    .body(request)
+                    .retrieve()
+                    .body(SyncResponse.class);
+
+            if (page == 0 && response != null && isBehindHorizon(response)) {
+                // The operations we are missing are no longer in the peer's
+                // log; pulling would skip them for good.
+                log.info("Replica {} is behind the compaction horizon of peer {}", crdtService.getReplicaId(),
+                        peerBaseUrl);
+                return bootstrapFrom(peerBaseUrl);
+            }
+            if (response == null || response.getOperations() == null || response.getOperations().isEmpty()) {
+                break;
+            }
+
+            List<CrdtOperation> operations = response.getOperations().stream()
+                    .map(CrdtOperationDto::toEntity)
+                    .collect(Collectors.toList());
+            Map<String, Long> clockBefore = new HashMap<>(crdtService.getVectorClock());
+            crdtService.processExternalOperations(operations);
+            received += operations.size();
+
+            if (!response.isHasMore()) {
+                break;
+            }
+            if (clockBefore.equals(crdtService.getVectorClock())) {
+                // The page did not advance our clock (e.g. it only held our own
+                // operations), so asking again would return the same page.
+                log.warn("Peer {} returned a page that did not advance the vector clock; stopping.", peerBaseUrl);
+                break;
+            }
+        }
+
+        if (received > 0) {
+            log.info("Pulled {} operations from peer {}", received, peerBaseUrl);
+        }
+        return received;
+    }
+
+    /**
+     * Whether the peer has seen operations that we have not and that are at
+     * or below its compaction horizon, so no longer in its log.
+     */
+    private boolean isBehindHorizon(SyncResponse response) {
+        long horizon = response.getCompactionHorizon();
+        if (horizon <= 0 || response.getVectorClock() == null) {
+            return false;
+        }
+        Map<String, Long> local = crdtService.getVectorClock();
+        return response.getVectorClock().entrySet().stream()
+                .anyMatch(entry -> local.getOrDefault(entry.getKey(), 0L) < Math.min(entry.getValue(), horizon));
+    }
+
+    /**
+     * Bootstraps an empty replica from the configured peer's snapshot instead of
+     * replaying the whole operation history. Does nothing if no bootstrap peer
+     * is configured or the local tree already has state.
+     */
+    public void bootstrapIfEmpty() {
+        if (bootstrapPeer.isBlank() || !crdtService.getNodes().isEmpty()) {
+            return;
+        }
+        bootstrapFrom(bootstrapPeer);
+    }
+
+    /**
+     * Installs a snapshot streamed from the peer, then pulls whatever the peer
+     * applied while the snapshot was in flight.
+     *
+     * @return The number of operations pulled after the snapshot.
+     */
+    public int bootstrapFrom(String peerBaseUrl) {
+        log.info("Bootstrapping replica {} from snapshot of {}", crdtService.getReplicaId(), peerBaseUrl);
+        restClient.get()
+                .uri(peerBaseUrl + "/crdt/peer/snapshot")
+                .header(PEER_TOKEN_HEADER, peerToken)
+                .exchange((request, response) -> {
+                    if (!response.getStatusCode().is2xxSuccessful()) {
+                        throw new IllegalStateException("Snapshot request to " + peerBaseUrl + " failed with status "
+                                + response.getStatusCode());
+                    }
+                    readSnapshot(response.getBody());
+                    return null;
+                });
+        return pullFrom(peerBaseUrl);
+    }
+
+    /**
+     * Streams a snapshot as JSON without materialising it: the log tail first,
+     * then one node at a time.
+     */
+    public void writeSnapshot(CrdtTree.Snapshot snapshot, OutputStream out) throws IOException {
+        // The mapper flushes after every value by default; for a large tree that
+        // would turn into one network write per node.
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("replicaId", crdtService.getReplicaId());
+            generator.writeFieldName("vectorClock");
+            writer.writeValue(generator, snapshot.vectorClock());
+            generator.writeNumberField("stableTimestamp", snapshot.stableTimestamp());
+            generator.writeArrayFieldStart("log");
+            for (CrdtOperation op : snapshot.unstableLog()) {
+                writer.writeValue(generator, CrdtOperationDto.fromEntity(op));
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("nodes");
+            for (TreeNode node : snapshot.nodes()) {
+                writer.writeValue(generator, node);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private void readSnapshot(InputStream body) throws IOException {
+        Map<String, Long> vectorClock = Map.of();
+        long stableTimestamp = 0L;
+        List<CrdtOperation> unstableLog = new ArrayList<>();
+        List<TreeNode> nodes = new ArrayList<>();
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Snapshot must be a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "vectorClock" -> vectorClock = objectMapper.readValue(parser, new TypeReference<>() {
+                    });
+                    case "stableTimestamp" -> stableTimestamp = parser.getLongValue();
+                    case "log" -> {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            unstableLog.add(objectMapper.readValue(parser, CrdtOperationDto.class).toEntity());
+                        }
+                    }
+                    case "nodes" -> {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            nodes.add(objectMapper.readValue(parser, TreeNode.class));
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+
+        crdtService.installSnapshot(vectorClock, stableTimestamp, unstableLog, nodes);
+    }
+}
@@ -0,0 +1,184 @@
+package com.crdt.service;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.crdt.TreeNode;
+import com.crdt.repository.FileNodeRepository;
+import com.crdt.storage.BlobReadCache;
+import com.crdt.storage.BlobStore;
+import com.crdt.util.HybridLogicalClock;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reclaims the storage of deleted files in three steps, each run bounded so a
+ * large trash is worked off over several runs:
+ * <ol>
+ * <li>Nodes in the trash for longer than {@code file.trash.retention-days}
+ * are purged with CRDT operations, children before their folder, so every
+ * replica converges on the same result. Only nodes whose deletion is causally
+ * stable are considered, and only the replica that deleted a node purges it,
+ * unless it has not done so after twice the retention period.</li>
+ * <li>Purged files whose purge is itself causally stable, so no concurrent
+ * restore can still be ordered before it, give up their content
+ * reference.</li>
+ * <li>Blobs that no node references are deleted, mark and sweep against
+ * {@code files.file_path}. Blobs younger than the grace period are kept:
+ * an upload stores its blob just before the node referencing it.</li>
+ * </ol>
+ * Causal stability covers every replica listed in {@code crdt.sync.replica-ids}.
+ * With peers configured but no such list, a replica that has not been heard
+ * from since startup could still restore a node, so nothing is purged.
+ * <p>
+ * The blob sweep assumes every node that references a blob is in this
+ * replica's database; it must be disabled when replicas with separate
+ * databases share a storage directory or bucket.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TrashSweeper {
+
+    private final CrdtService crdtService;
+    private final FileNodeRepository fileNodeRepository;
+    private final BlobStore blobStore;
+    private final BlobReadCache readCache;
+
+    // 0 keeps trashed files until they are restored.
+    @Value("${file.trash.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${file.trash.purge-batch-size:500}")
+    private int purgeBatchSize;
+
+    @Value("${file.storage.gc.enabled:true}")
+    private boolean gcEnabled;
+
+    @Value("${file.storage.gc.grace-period-ms:86400000}")
+    private long gcGracePeriodMs;
+
+    @Value("${file.storage.gc.batch-size:1000}")
+    private int gcBatchSize;
+
+    @Value("${file.storage.gc.max-deletes:10000}")
+    private int gcMaxDeletes;
+
+    @Value("${crdt.sync.peers:}")
+    private List<String> peers;
+
+    @Value("${crdt.sync.replica-ids:}")
+    private List<String> replicaIds;
+
+    @Scheduled(initialDelayString = "${file.trash.sweep-interval-ms:3600000}",
+            fixedDelayString = "${file.trash.sweep-interval-ms:3600000}")
+    public void sweep() {
+        try {
+            purgeExpiredTrash();
+            int released = fileNodeRepository.releasePurgedContent(CrdtTree.PURGED_ROOT_ID,
+                    crdtService.getStableTimestamp());
+            if (released > 0) {
+                log.info("Released the content of {} purged files", released);
+            }
+            if (gcEnabled) {
+                collectGarbage();
+            }
+        } catch (Exception e) {
+            log.error("Trash sweep failed: {}", e.getMessage());
+        }
+    }
+
+    void purgeExpiredTrash() {
+        if (retentionDays <= 0) {
+            return;
+        }
+        if (peers.stream().anyMatch(peer -> !peer.isBlank()) && replicaIds.stream().allMatch(String::isBlank)) {
+            log.warn("Not purging the trash: peers are configured but crdt.sync.replica-ids is not");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long retentionMs = TimeUnit.DAYS.toMillis(retentionDays);
+        long stableTimestamp = crdtService.getStableTimestamp();
+        String replicaId = crdtService.getReplicaId();
+        int purged = 0;
+        for (TreeNode trashed : crdtService.getTrashedNodes()) {
+            if (trashed.getTimestamp() == null || trashed.getTimestamp() > stableTimestamp) {
+                continue;
+            }
+            long age = now - HybridLogicalClock.fromLong(trashed.getTimestamp()).getPhysicalTime();
+            if (age < retentionMs || (!replicaId.equals(trashed.getReplicaId()) && age < 2 * retentionMs)) {
+                continue;
+            }
+            for (TreeNode node : crdtService.getSubtreeNodes(trashed.getId())) {
+                if (purged >= purgeBatchSize) {
+                    log.info("Purged {} nodes from the trash, continuing in the next run", purged);
+                    return;
+                }
+                crdtService.purgeNode(node.getId());
+                purged++;
+            }
+        }
+        if (purged > 0) {
+            log.info("Purged {} nodes from the trash", purged);
+        }
+    }
+
+    void collectGarbage() throws IOException {
+        long cutoff = System.currentTimeMillis() - gcGracePeriodMs;
+        List<BlobStore.ListedBlob> batch = new ArrayList<>();
+        int[] deleted = { 0 };
+        blobStore.forEachBlob(blob -> {
+            if (deleted[0] >= gcMaxDeletes || blob.lastModified() >= cutoff) {
+                return;
+            }
+            batch.add(blob);
+            if (batch.size() >= gcBatchSize) {
+                deleted[0] += sweepBatch(batch, cutoff, gcMaxDeletes - deleted[0]);
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty() && deleted[0] < gcMaxDeletes) {
+            deleted[0] += sweepBatch(batch, cutoff, gcMaxDeletes - deleted[0]);
+        }
+        if (deleted[0] > 0) {
+            log.info("Deleted {} unreferenced blobs", deleted[0]);
+        }
+    }
+
+    private int sweepBatch(List<BlobStore.ListedBlob> batch, long cutoff, int limit) {
+        List<String> locations = batch.stream().map(BlobStore.ListedBlob::location).toList();
+        Set<String> referenced = new HashSet<>(fileNodeRepository.findReferencedFilePaths(locations));
+        int deleted = 0;
+        for (String location : locations) {
+            if (deleted >= limit || referenced.contains(location)) {
+                continue;
+            }
+            try {
+                // Storing identical content refreshes the blob instead of
+                // writing it again; such a blob is about to be referenced.
+                if (blobStore.stat(location).lastModified() >= cutoff) {
+                    continue;
+                }
+                blobStore.delete(location);
+                readCache.invalidateLocation(location);
+                deleted++;
+            } catch (NoSuchFileException e) {
+                // Already gone.
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not delete unreferenced blob {}: {}", location, e.getMessage());
+            }
+        }
+        return deleted;
+    }
+}
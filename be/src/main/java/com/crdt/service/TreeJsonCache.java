@@ -0,0 +1,81 @@
+package com.crdt.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Keeps the serialized tree for the current tree version, so repeated reads
+ * between writes neither walk the tree nor run Jackson again. The entity tag
+ * is derived from the tree's epoch and version. Trees above
+ * {@code crdt.tree.cache-max-nodes} are not buffered; callers stream them with
+ * {@link #write(OutputStream)} instead.
+ */
+@Component
+public class TreeJsonCache {
+
+    public record CachedTree(String etag, byte[] json) {
+    }
+
+    private final CrdtService crdtService;
+    private final ObjectMapper objectMapper;
+
+    private volatile CachedTree cached;
+
+    @Value("${crdt.tree.cache-max-nodes:200000}")
+    private int cacheMaxNodes;
+
+    public TreeJsonCache(CrdtService crdtService, ObjectMapper objectMapper) {
+        this.crdtService = crdtService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * The entity tag the tree would be served with right now, without
+     * serializing anything.
+     */
+    public String currentEtag() {
+        return etagOf(crdtService.getTreeEpoch(), crdtService.getTreeVersion());
+    }
+
+    /**
+     * @return The serialized tree, or {@code null} when the tree is too large
+     *         to buffer and should be streamed.
+     */
+    public CachedTree get() throws IOException {
+        // Read before walking the tree: the bytes may be newer than the tag,
+        // never older.
+        String etag = currentEtag();
+        CachedTree current = cached;
+        if (current != null && current.etag().equals(etag)) {
+            return current;
+        }
+        if (crdtService.getTreeNodeCount() > cacheMaxNodes) {
+            return null;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        write(buffer);
+        CachedTree built = new CachedTree(etag, buffer.toByteArray());
+        cached = built;
+        return built;
+    }
+
+    /**
+     * Streams the tree as JSON; memory use does not grow with the tree size.
+     */
+    public void write(OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            crdtService.writeTreeStructure(generator);
+        }
+    }
+
+    private static String etagOf(String epoch, long version) {
+        return "\"" + epoch + "-" + version + "\"";
+    }
+}
@@ -0,0 +1,355 @@
+package com.crdt.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.crdt.exception.FileTooLargeException;
+import com.crdt.exception.ResourceNotFoundException;
+import com.crdt.model.FileNode;
+import com.crdt.storage.BlobStore;
+import com.crdt.storage.CompressionPolicy;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Resumable uploads. Chunks of a session may be sent in any order and in
+ * parallel, and each is written straight to its offset in a temporary file.
+ * The content hash is advanced over the contiguous prefix of received chunks
+ * as they arrive, so committing neither copies nor re-reads the file: it is
+ * moved into the blob store and registered with a single {@code createFile}.
+ * <p>
+ * A session holds the quota for its full size from creation until it is
+ * committed or discarded, and a user may have at most
+ * {@code file.upload.max-sessions-per-user} open at once. The temporary file
+ * grows as chunks land and is only open while one is written or hashed.
+ * <p>
+ * Sessions live in memory on the replica that created them and expire after
+ * {@code file.upload.session-ttl-ms} without activity. A restart loses them;
+ * the temporary files they left behind are removed once the application is
+ * ready.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UploadSessionService {
+
+    public static final long DEFAULT_CHUNK_SIZE = 8L * 1024 * 1024;
+    public static final long MIN_CHUNK_SIZE = 256L * 1024;
+    public static final long MAX_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+
+    public record UploadStatus(UUID uploadId, String name, long size, long chunkSize, int chunkCount,
+            List<Integer> receivedChunks) {
+    }
+
+    private static final class UploadSession {
+        private final UUID id;
+        private final UUID userId;
+        private final UUID parentId;
+        private final String name;
+        private final String mimeType;
+        private final long size;
+        private final long chunkSize;
+        private final int chunkCount;
+        private final Path file;
+        private final CrdtService.QuotaReservation reservation;
+        // Guarded by the session's monitor.
+        private final BitSet received = new BitSet();
+        private final MessageDigest digest = BlobStore.newDigest();
+        private int hashedChunks;
+        private boolean closed;
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        private UploadSession(UUID id, UUID userId, UUID parentId, String name, String mimeType, long size,
+                long chunkSize, Path file, CrdtService.QuotaReservation reservation) {
+            this.id = id;
+            this.userId = userId;
+            this.parentId = parentId;
+            this.name = name;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            this.file = file;
+            this.reservation = reservation;
+        }
+
+        private long offsetOf(int index) {
+            return index * chunkSize;
+        }
+
+        private long lengthOf(int index) {
+            return Math.min(chunkSize, size - offsetOf(index));
+        }
+    }
+
+    private final BlobStore blobStore;
+    private final CrdtService crdtService;
+    private final CompressionPolicy compressionPolicy;
+
+    private final Map<UUID, UploadSession> sessions = new ConcurrentHashMap<>();
+    // Temporary files written before this are not from this process.
+    private final long startedAt = System.currentTimeMillis();
+
+    @Value("${file.upload.max-size:107374182400}")
+    private long maxUploadSize;
+
+    @Value("${file.upload.session-ttl-ms:86400000}")
+    private long sessionTtlMs;
+
+    @Value("${file.upload.max-sessions-per-user:10}")
+    private int maxSessionsPerUser;
+
+    public UploadStatus create(String name, UUID parentId, Long size, String mimeType, Long chunkSize, UUID userId)
+            throws IOException {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("File name must not be empty");
+        }
+        if (size == null || size < 0) {
+            throw new IllegalArgumentException("File size must be zero or positive");
+        }
+        if (size > maxUploadSize) {
+            throw new FileTooLargeException("File size exceeds maximum allowed size");
+        }
+        long effectiveChunkSize = Math.max(MIN_CHUNK_SIZE,
+                Math.min(chunkSize != null ? chunkSize : DEFAULT_CHUNK_SIZE, MAX_CHUNK_SIZE));
+
+        UploadSession session;
+        synchronized (sessions) {
+            long open = sessions.values().stream().filter(existing -> existing.userId.equals(userId)).count();
+            if (open >= maxSessionsPerUser) {
+                throw new IllegalStateException("Too many unfinished uploads; commit or cancel one of the "
+                        + open + " open ones first");
+            }
+            CrdtService.QuotaReservation reservation = crdtService.reserveQuota(userId, size);
+            try {
+                session = new UploadSession(UUID.randomUUID(), userId, parentId, name, mimeType, size,
+                        effectiveChunkSize, blobStore.createTempFile(), reservation);
+            } catch (IOException | RuntimeException e) {
+                reservation.close();
+                throw e;
+            }
+            sessions.put(session.id, session);
+        }
+        return statusOf(session);
+    }
+
+    public UploadStatus getStatus(UUID uploadId, UUID userId) {
+        return statusOf(sessionFor(uploadId, userId));
+    }
+
+    /**
+     * Writes one chunk from {@code body} directly into the session's file. A
+     * chunk that was already received is acknowledged without being rewritten,
+     * so retries are safe.
+     */
+    public UploadStatus writeChunk(UUID uploadId, int index, InputStream body, UUID userId) throws IOException {
+        UploadSession session = sessionFor(uploadId, userId);
+        if (index < 0 || index >= session.chunkCount) {
+            throw new IllegalArgumentException("Chunk index must be between 0 and " + (session.chunkCount - 1));
+        }
+        synchronized (session) {
+            if (session.received.get(index)) {
+                return statusOf(session);
+            }
+        }
+        long expected = session.lengthOf(index);
+        ReadableByteChannel source = Channels.newChannel(body);
+        long written = 0;
+        // Writing past the end grows the file; the gaps before the chunk take
+        // no space on most file systems until they are written.
+        try (FileChannel channel = FileChannel.open(session.file, StandardOpenOption.WRITE)) {
+            while (written < expected) {
+                long transferred = channel.transferFrom(source, session.offsetOf(index) + written,
+                        expected - written);
+                if (transferred <= 0) {
+                    break;
+                }
+                written += transferred;
+            }
+        }
+        if (written != expected || body.read() != -1) {
+            throw new IllegalArgumentException("Chunk " + index + " must be exactly " + expected + " bytes");
+        }
+        synchronized (session) {
+            if (session.closed) {
+                throw new IllegalStateException("Upload session is no longer open: " + uploadId);
+            }
+            session.received.set(index);
+            advanceDigest(session);
+            session.lastActivity = System.currentTimeMillis();
+            return statusOf(session);
+        }
+    }
+
+    /**
+     * Registers the uploaded file once every chunk has arrived. The session's
+     * quota is released once the file counts toward the user's usage.
+     */
+    public FileNode commit(UUID uploadId, UUID userId) throws IOException {
+        UploadSession session = sessionFor(uploadId, userId);
+        BlobStore.StoredBlob blob;
+        boolean closedHere = false;
+        try {
+            synchronized (session) {
+                if (session.closed) {
+                    throw new IllegalStateException("Upload session is no longer open: " + uploadId);
+                }
+                if (session.hashedChunks < session.chunkCount) {
+                    throw new IllegalStateException("Upload is missing " + (session.chunkCount
+                            - session.received.cardinality()) + " of " + session.chunkCount + " chunks");
+                }
+                close(session);
+                closedHere = true;
+                try {
+                    blob = compressionPolicy.adopt(session.file, HexFormat.of().formatHex(session.digest.digest()),
+                            session.size, session.mimeType);
+                } finally {
+                    // Adopting consumes the file; if it failed, nothing else will.
+                    Files.deleteIfExists(session.file);
+                }
+            }
+            return crdtService.createFile(
+                    crdtService.availableName(session.parentId, session.name, FileNode.FileType.FILE),
+                    session.parentId,
+                    blob.size(),
+                    session.mimeType,
+                    blob.path(),
+                    blob.hash(),
+                    userId).getFileNode();
+        } finally {
+            if (closedHere) {
+                session.reservation.close();
+            }
+        }
+    }
+
+    public void abort(UUID uploadId, UUID userId) throws IOException {
+        UploadSession session = sessionFor(uploadId, userId);
+        synchronized (session) {
+            discard(session);
+        }
+    }
+
+    /**
+     * Removes partial uploads of sessions lost in a restart, along with any
+     * other temporary file an interrupted store left behind.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void removeOrphanedFiles() {
+        try {
+            int removed = blobStore.deleteTempFiles(startedAt);
+            if (removed > 0) {
+                log.info("Removed {} temporary files left from before the restart", removed);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to remove temporary files left from before the restart: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${file.upload.sweep-interval-ms:600000}")
+    public void expireSessions() {
+        long cutoff = System.currentTimeMillis() - sessionTtlMs;
+        for (UploadSession session : sessions.values()) {
+            if (session.lastActivity >= cutoff) {
+                continue;
+            }
+            synchronized (session) {
+                try {
+                    discard(session);
+                } catch (IOException e) {
+                    log.warn("Failed to remove expired upload {}: {}", session.id, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private UploadSession sessionFor(UUID uploadId, UUID userId) {
+        UploadSession session = sessions.get(uploadId);
+        // Another user's session is reported the same way as a missing one.
+        if (session == null || !session.userId.equals(userId)) {
+            throw new ResourceNotFoundException("Upload session not found: " + uploadId);
+        }
+        return session;
+    }
+
+    /**
+     * Feeds every chunk that now extends the contiguous received prefix into
+     * the digest. SHA-256 must see the bytes in order, so chunks arriving
+     * early wait until the gap before them is filled.
+     */
+    private void advanceDigest(UploadSession session) throws IOException {
+        if (!session.received.get(session.hashedChunks)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(session.file, StandardOpenOption.READ)) {
+            while (session.hashedChunks < session.chunkCount && session.received.get(session.hashedChunks)) {
+                int index = session.hashedChunks;
+                long position = session.offsetOf(index);
+                long end = position + session.lengthOf(index);
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("Upload file is shorter than expected");
+                    }
+                    buffer.flip();
+                    session.digest.update(buffer);
+                    position += read;
+                }
+                session.hashedChunks++;
+            }
+        }
+    }
+
+    private void close(UploadSession session) {
+        session.closed = true;
+        sessions.remove(session.id);
+    }
+
+    /**
+     * Closes the session, deletes its file and releases its quota.
+     */
+    private void discard(UploadSession session) throws IOException {
+        close(session);
+        try {
+            Files.deleteIfExists(session.file);
+        } finally {
+            session.reservation.close();
+        }
+    }
+
+    private static UploadStatus statusOf(UploadSession session) {
+        List<Integer> received = new ArrayList<>();
+        synchronized (session) {
+            session.received.stream().forEach(received::add);
+        }
+        return new UploadStatus(session.id, session.name, session.size, session.chunkSize, session.chunkCount,
+                received);
+    }
+}
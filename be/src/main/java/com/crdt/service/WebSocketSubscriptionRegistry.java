@@ -0,0 +1,74 @@
+package com.crdt.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+/**
+ * Tracks which STOMP destinations currently have subscribers, so the event
+ * publisher can skip building frames for folders nobody is watching.
+ */
+@Component
+public class WebSocketSubscriptionRegistry {
+
+    // sessionId -> (subscriptionId -> destination)
+    private final Map<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> subscriberCounts = new ConcurrentHashMap<>();
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String destination = accessor.getDestination();
+        if (sessionId == null || accessor.getSubscriptionId() == null || destination == null) {
+            return;
+        }
+        String previous = sessions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(accessor.getSubscriptionId(), destination);
+        if (previous != null) {
+            decrement(previous);
+        }
+        subscriberCounts.merge(destination, 1, Integer::sum);
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        Map<String, String> subscriptions = accessor.getSessionId() == null ? null
+                : sessions.get(accessor.getSessionId());
+        if (subscriptions == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        String destination = subscriptions.remove(accessor.getSubscriptionId());
+        if (destination != null) {
+            decrement(destination);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, String> subscriptions = sessions.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::decrement);
+        }
+    }
+
+    public boolean hasSubscribers(String destination) {
+        return subscriberCounts.containsKey(destination);
+    }
+
+    public List<String> destinationsStartingWith(String prefix) {
+        return subscriberCounts.keySet().stream().filter(destination -> destination.startsWith(prefix)).toList();
+    }
+
+    private void decrement(String destination) {
+        subscriberCounts.computeIfPresent(destination, (key, count) -> count > 1 ? count - 1 : null);
+    }
+}
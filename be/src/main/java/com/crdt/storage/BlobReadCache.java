@@ -0,0 +1,165 @@
+package com.crdt.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the content of small, frequently downloaded blobs in memory, keyed by
+ * content hash. Since blobs are content-addressed, an entry never goes stale;
+ * it only has to be dropped when the blob is deleted.
+ * <p>
+ * Files up to {@code file.cache.heap-max-file-size} are copied into a buffer,
+ * on the heap or, with {@code file.cache.off-heap}, outside it. Larger files
+ * up to {@code file.cache.mmap-max-file-size} are memory-mapped when stored
+ * locally, so serving them needs neither a read nor a copy into the heap.
+ * Entries are weighed by size against {@code file.cache.max-bytes}; admission
+ * and eviction follow Caffeine's W-TinyLFU policy, so a burst of one-off
+ * downloads cannot push out files that are requested all the time.
+ * <p>
+ * Hits, misses and evictions are published as {@code blob.read.cache} cache
+ * metrics, together with {@code blob.read.cache.hit.ratio}; bytes served from
+ * memory are counted in {@code blob.read.cache.bytes.saved}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BlobReadCache {
+
+    /**
+     * Read-only content and the modification time of the blob when it was
+     * cached.
+     */
+    public record CachedBlob(ByteBuffer content, long lastModified) {
+    }
+
+    private final BlobStore blobStore;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.cache.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${file.cache.heap-max-file-size:65536}")
+    private long heapMaxFileSize;
+
+    @Value("${file.cache.mmap-max-file-size:8388608}")
+    private long mmapMaxFileSize;
+
+    @Value("${file.cache.off-heap:false}")
+    private boolean offHeap;
+
+    private Cache<String, CachedBlob> cache;
+    private Counter bytesSaved;
+
+    @PostConstruct
+    void createCache() {
+        // Weighed in KiB so the total fits Caffeine's int weights.
+        cache = Caffeine.newBuilder()
+                .maximumWeight(Math.max(1, maxBytes / 1024))
+                .weigher((String hash, CachedBlob blob) -> 1 + blob.content().capacity() / 1024)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "blob.read.cache");
+        Gauge.builder("blob.read.cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .description("Share of cacheable downloads served from the blob read cache")
+                .register(meterRegistry);
+        bytesSaved = Counter.builder("blob.read.cache.bytes.saved")
+                .description("Bytes of downloads served from the blob read cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The cached content of a blob, loading it if it is small enough to be
+     * cached. Returns {@code null} when the blob is not cacheable or cannot
+     * be read; the caller then reads it from the store as usual.
+     *
+     * @param size The blob's size if known, to skip large blobs without
+     *             touching the store.
+     */
+    public CachedBlob get(String hash, String location, Long size) {
+        if (!enabled || hash == null || size == null || size > Math.max(heapMaxFileSize, mmapMaxFileSize)) {
+            return null;
+        }
+        try {
+            CachedBlob blob = cache.get(hash, key -> load(location, size));
+            return blob != null ? new CachedBlob(blob.content().duplicate(), blob.lastModified()) : null;
+        } catch (UncheckedIOException e) {
+            log.debug("Not caching blob {}: {}", hash, e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    public void recordBytesServed(long bytes) {
+        bytesSaved.increment(bytes);
+    }
+
+    public void invalidate(String hash) {
+        if (cache != null) {
+            cache.invalidate(hash);
+        }
+    }
+
+    /**
+     * Drops the entry for a blob being deleted from {@code location}; blob
+     * locations end in the content hash, followed by
+     * {@link BlobStore#GZIP_SUFFIX} for compressed blobs.
+     */
+    public void invalidateLocation(String location) {
+        int separator = Math.max(location.lastIndexOf('/'), location.lastIndexOf('\\'));
+        String name = location.substring(separator + 1);
+        invalidate(BlobStore.isCompressed(name) ? name.substring(0, name.length() - BlobStore.GZIP_SUFFIX.length())
+                : name);
+    }
+
+    /**
+     * @param contentSize The uncompressed size; compressed blobs are cached
+     *                    decompressed, in a buffer rather than mapped.
+     */
+    private CachedBlob load(String location, long contentSize) {
+        try {
+            BlobStore.BlobInfo info = blobStore.stat(location);
+            boolean compressed = BlobStore.isCompressed(location);
+            long size = compressed ? contentSize : info.size();
+            Path file = compressed ? null : blobStore.localFile(location);
+            ByteBuffer content;
+            if (size > heapMaxFileSize && size <= mmapMaxFileSize && file != null) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            } else if (size <= Math.max(heapMaxFileSize, mmapMaxFileSize)) {
+                content = offHeap ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+                try (InputStream in = blobStore.openContent(location, 0, size)) {
+                    content.put(in.readNBytes((int) size));
+                }
+                content.flip();
+            } else {
+                return null;
+            }
+            return new CachedBlob(content.asReadOnlyBuffer(), info.lastModified());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.crdt.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Content-addressed file storage. Each distinct content is stored once, keyed
+ * by its SHA-256; nodes with the same bytes share the blob, so copying a file
+ * only copies its metadata. A blob is referenced by every {@code FileNode}
+ * whose {@code filePath} holds its location.
+ * <p>
+ * The implementation is chosen with {@code file.storage.type}: {@code local}
+ * ({@link LocalBlobStore}) or {@code s3} ({@link S3BlobStore}).
+ * <p>
+ * Content can also be stored gzip-compressed, see {@link #storeCompressed}.
+ * Such blobs keep the hash of their uncompressed bytes and are told apart by
+ * the {@value #GZIP_SUFFIX} ending of their location. The methods taking a
+ * location work on the bytes as stored; {@link #openContent} decodes them.
+ */
+public interface BlobStore {
+
+    String GZIP_SUFFIX = ".gz";
+
+    /**
+     * @param path Where the blob is stored: a file path, or an
+     *             {@code s3://bucket/key} URI.
+     */
+    record StoredBlob(String hash, long size, String path) {
+    }
+
+    record BlobInfo(long size, long lastModified) {
+    }
+
+    /**
+     * A stored blob as seen when listing the store.
+     */
+    record ListedBlob(String location, long size, long lastModified) {
+    }
+
+    /**
+     * Stores {@code content} while hashing it. The bytes are read once; if
+     * identical content is already stored, the new copy is discarded.
+     */
+    StoredBlob store(InputStream content) throws IOException;
+
+    /**
+     * Stores {@code content} gzip-compressed at {@code level}, keyed by the
+     * hash of the uncompressed bytes. The returned size is the uncompressed
+     * size as well.
+     */
+    StoredBlob storeCompressed(InputStream content, int level) throws IOException;
+
+    /**
+     * A new empty local file for assembling content before it is stored, e.g.
+     * by upload sessions writing chunks at arbitrary offsets.
+     */
+    Path createTempFile() throws IOException;
+
+    /**
+     * Removes temporary files last written before {@code cutoff}, e.g. ones
+     * left behind by a process that stopped while writing them.
+     *
+     * @return The number of files removed.
+     */
+    int deleteTempFiles(long cutoff) throws IOException;
+
+    /**
+     * Stores a fully written file from {@link #createTempFile} under its
+     * already computed hash. The temporary file is consumed.
+     */
+    StoredBlob adopt(Path temp, String hash, long size) throws IOException;
+
+    /**
+     * @throws java.nio.file.NoSuchFileException if nothing is stored at
+     *                                           {@code location}.
+     */
+    BlobInfo stat(String location) throws IOException;
+
+    /**
+     * Streams {@code length} bytes of a blob starting at {@code offset}.
+     */
+    InputStream openRange(String location, long offset, long length) throws IOException;
+
+    /**
+     * Calls {@code visitor} for every stored blob, e.g. to find the ones no
+     * node references any more. Temporary files are not included.
+     */
+    void forEachBlob(Consumer<ListedBlob> visitor) throws IOException;
+
+    /**
+     * Removes the blob at {@code location}; nothing happens if it is already
+     * gone.
+     */
+    void delete(String location) throws IOException;
+
+    /**
+     * Streams {@code length} bytes of a blob's content starting at
+     * {@code offset}, decompressing it if it is stored compressed. Offsets
+     * into compressed blobs are reached by decompressing everything before
+     * them.
+     */
+    default InputStream openContent(String location, long offset, long length) throws IOException {
+        if (!isCompressed(location)) {
+            return openRange(location, offset, length);
+        }
+        InputStream in = new GZIPInputStream(openRange(location, 0, stat(location).size()), 64 * 1024);
+        try {
+            in.skipNBytes(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new LocalBlobStore.RangeInputStream(in, length);
+    }
+
+    static boolean isCompressed(String location) {
+        return location.endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * The blob as a local file, so it can be sent without copying through the
+     * heap, or {@code null} if it is not stored on this machine.
+     */
+    default Path localFile(String location) {
+        return null;
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
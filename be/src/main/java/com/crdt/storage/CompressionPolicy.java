@@ -0,0 +1,139 @@
+package com.crdt.storage;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Decides at upload time whether content is stored compressed, and stores it
+ * accordingly. Only text-like types are considered, and only if deflating a
+ * sample from the start of the content shrinks it below
+ * {@code file.storage.compression.max-ratio}; everything else is stored as
+ * is. Disabled unless {@code file.storage.compression.enabled} is set.
+ * <p>
+ * A gzip stream cannot be entered in the middle: serving a byte range of a
+ * compressed blob decodes everything before it, on every request. Files
+ * larger than {@code file.storage.compression.max-size} are therefore stored
+ * as is, which bounds that cost for the large files clients read in ranges
+ * (media, resumed downloads).
+ */
+@Component
+@RequiredArgsConstructor
+public class CompressionPolicy {
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of(
+            "application/json", "application/x-ndjson", "application/xml", "application/javascript",
+            "application/x-javascript", "application/ecmascript", "application/yaml", "application/x-yaml",
+            "application/toml", "application/sql", "application/csv", "application/x-sh",
+            "application/x-httpd-php", "application/rtf", "application/postscript", "image/svg+xml",
+            "image/bmp", "application/x-tar");
+    private static final List<String> COMPRESSIBLE_SUFFIXES = List.of("+json", "+xml", "+yaml");
+
+    private final BlobStore blobStore;
+
+    @Value("${file.storage.compression.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file.storage.compression.level:1}")
+    private int level;
+
+    @Value("${file.storage.compression.min-size:4096}")
+    private long minSize;
+
+    @Value("${file.storage.compression.max-size:67108864}")
+    private long maxSize;
+
+    @Value("${file.storage.compression.max-ratio:0.8}")
+    private double maxRatio;
+
+    /**
+     * Stores {@code content}, compressed if its type and a sample of it
+     * suggest that pays off.
+     */
+    public BlobStore.StoredBlob store(InputStream content, String mimeType, long size) throws IOException {
+        if (!isCandidate(mimeType, size)) {
+            return blobStore.store(content);
+        }
+        BufferedInputStream in = new BufferedInputStream(content, SAMPLE_SIZE);
+        in.mark(SAMPLE_SIZE);
+        byte[] sample = in.readNBytes(SAMPLE_SIZE);
+        in.reset();
+        return compressesWell(sample) ? blobStore.storeCompressed(in, level) : blobStore.store(in);
+    }
+
+    /**
+     * Stores a fully written file from {@link BlobStore#createTempFile},
+     * compressed or adopted as is. The file is consumed either way.
+     */
+    public BlobStore.StoredBlob adopt(Path file, String hash, long size, String mimeType) throws IOException {
+        if (isCandidate(mimeType, size)) {
+            byte[] sample;
+            try (InputStream in = Files.newInputStream(file)) {
+                sample = in.readNBytes(SAMPLE_SIZE);
+            }
+            if (compressesWell(sample)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    return blobStore.storeCompressed(in, level);
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        return blobStore.adopt(file, hash, size);
+    }
+
+    public boolean isCandidate(String mimeType, long size) {
+        if (!enabled || mimeType == null || size < minSize || size > maxSize) {
+            return false;
+        }
+        String type = mimeType.toLowerCase();
+        int parameters = type.indexOf(';');
+        if (parameters >= 0) {
+            type = type.substring(0, parameters).trim();
+        }
+        if (type.startsWith("text/") || COMPRESSIBLE_TYPES.contains(type)) {
+            return true;
+        }
+        for (String suffix : COMPRESSIBLE_SUFFIXES) {
+            if (type.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether deflating {@code sample} at the configured level gets it below
+     * the configured ratio of its size.
+     */
+    public boolean compressesWell(byte[] sample) {
+        if (sample.length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+            }
+            return compressed < sample.length * maxRatio;
+        } finally {
+            deflater.end();
+        }
+    }
+}
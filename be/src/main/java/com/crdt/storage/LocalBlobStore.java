@@ -0,0 +1,331 @@
+package com.crdt.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores blobs on the local file system under
+ * {@code <file.storage.path>/blobs/<aa>/<bb>/<sha256>}, where {@code aa} and
+ * {@code bb} are the first two bytes of the hash, so no directory holds more
+ * than a small fraction of the files. Compressed blobs carry a
+ * {@value #GZIP_SUFFIX} suffix.
+ */
+public class LocalBlobStore implements BlobStore {
+
+    private static final String BLOB_DIRECTORY = "blobs";
+    private static final String TEMP_DIRECTORY = "tmp";
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern STORED_BLOB = Pattern.compile("[0-9a-f]{64}(" + Pattern.quote(GZIP_SUFFIX) + ")?");
+
+    private final String storagePath;
+
+    public LocalBlobStore(String storagePath) {
+        this.storagePath = storagePath;
+    }
+
+    /**
+     * Streams {@code content} to a temporary file while hashing it, then moves
+     * the file under its hash.
+     */
+    @Override
+    public StoredBlob store(InputStream content) throws IOException {
+        Path temp = createTempFile();
+        try {
+            MessageDigest digest = BlobStore.newDigest();
+            long size;
+            try (InputStream in = new DigestInputStream(content, digest)) {
+                size = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return adopt(temp, HexFormat.of().formatHex(digest.digest()), size);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public StoredBlob storeCompressed(InputStream content, int level) throws IOException {
+        CompressedFile compressed = compressToTempFile(content, level);
+        try {
+            Path target = pathOf(compressed.hash()).resolveSibling(compressed.hash() + GZIP_SUFFIX);
+            adoptAt(compressed.file(), target);
+            return new StoredBlob(compressed.hash(), compressed.size(), target.toString());
+        } finally {
+            Files.deleteIfExists(compressed.file());
+        }
+    }
+
+    /**
+     * A temporary file holding {@code content} gzip-compressed.
+     *
+     * @param file The compressed file, to be consumed by the caller.
+     * @param hash The SHA-256 of the uncompressed content.
+     * @param size The uncompressed size.
+     */
+    public record CompressedFile(Path file, String hash, long size) {
+    }
+
+    public CompressedFile compressToTempFile(InputStream content, int level) throws IOException {
+        Path temp = createTempFile();
+        try {
+            MessageDigest digest = BlobStore.newDigest();
+            long size;
+            try (InputStream in = new DigestInputStream(content, digest);
+                    OutputStream out = new LeveledGZIPOutputStream(Files.newOutputStream(temp), level)) {
+                size = in.transferTo(out);
+            }
+            return new CompressedFile(temp, HexFormat.of().formatHex(digest.digest()), size);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * A new empty file on the same file system as the blobs, so it can later
+     * be moved into place with {@link #adopt} without copying.
+     */
+    @Override
+    public Path createTempFile() throws IOException {
+        Path tempDirectory = root().resolve(TEMP_DIRECTORY);
+        Files.createDirectories(tempDirectory);
+        return Files.createTempFile(tempDirectory, "upload-", ".part");
+    }
+
+    @Override
+    public int deleteTempFiles(long cutoff) throws IOException {
+        Path tempDirectory = root().resolve(TEMP_DIRECTORY);
+        if (!Files.isDirectory(tempDirectory)) {
+            return 0;
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tempDirectory)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < cutoff && Files.deleteIfExists(file)) {
+                        deleted++;
+                    }
+                } catch (NoSuchFileException e) {
+                    // Moved into place or deleted meanwhile.
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * The temporary file is moved, or deleted if the content is already
+     * stored. An existing blob's modification time is renewed, so garbage
+     * collection treats it as a fresh blob until the node storing it again is
+     * saved.
+     */
+    @Override
+    public StoredBlob adopt(Path temp, String hash, long size) throws IOException {
+        Path target = pathOf(hash);
+        adoptAt(temp, target);
+        return new StoredBlob(hash, size, target.toString());
+    }
+
+    private void adoptAt(Path temp, Path target) throws IOException {
+        if (Files.exists(target)) {
+            try {
+                Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (NoSuchFileException e) {
+                // Collected just now; stored again below.
+            }
+        }
+        if (!Files.exists(target)) {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Stored concurrently by another upload of the same content.
+            }
+        }
+        Files.deleteIfExists(temp);
+    }
+
+    public Path pathOf(String hash) {
+        return root().resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    /**
+     * Places an existing file at the blob path for {@code hash}, leaving the
+     * original in place: a hard link where the file system allows it, a copy
+     * otherwise. Nothing is done if the blob already exists.
+     */
+    public Path importFile(Path source, String hash) throws IOException {
+        Path target = pathOf(hash);
+        if (Files.exists(target)) {
+            return target;
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException e) {
+            // Imported concurrently.
+        } catch (UnsupportedOperationException | IOException e) {
+            Path temp = createTempFile();
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            adopt(temp, hash, Files.size(temp));
+        }
+        return target;
+    }
+
+    /**
+     * Whether {@code path} is a blob stored by an earlier version directly in
+     * the blob directory, without the hash subdirectories.
+     */
+    public boolean isFlatBlob(Path path) {
+        Path parent = path.toAbsolutePath().normalize().getParent();
+        return parent != null && parent.equals(root().toAbsolutePath().normalize())
+                && HASH.matcher(path.getFileName().toString()).matches();
+    }
+
+    public static String hashOf(Path file) throws IOException {
+        MessageDigest digest = BlobStore.newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @Override
+    public BlobInfo stat(String location) throws IOException {
+        Path file = Paths.get(location);
+        return new BlobInfo(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+    }
+
+    @Override
+    public InputStream openRange(String location, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(location), StandardOpenOption.READ);
+        channel.position(offset);
+        return new RangeInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public Path localFile(String location) {
+        return Paths.get(location);
+    }
+
+    /**
+     * Lists the hashed layout and blobs still stored flat in the blob
+     * directory; the temporary directory is skipped by name.
+     */
+    @Override
+    public void forEachBlob(Consumer<ListedBlob> visitor) throws IOException {
+        Path root = root();
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(root, 3)) {
+            Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                if (!STORED_BLOB.matcher(file.getFileName().toString()).matches()) {
+                    continue;
+                }
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (attributes.isRegularFile()) {
+                    visitor.accept(new ListedBlob(file.toString(), attributes.size(),
+                            attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void delete(String location) throws IOException {
+        Files.deleteIfExists(Paths.get(location));
+    }
+
+    private Path root() {
+        return Paths.get(storagePath).resolve(BLOB_DIRECTORY);
+    }
+
+    private static final class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        private LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 64 * 1024);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * Reads at most {@code remaining} bytes of the underlying stream.
+     */
+    static final class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int value = super.read();
+            if (value >= 0) {
+                remaining--;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package com.crdt.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+/**
+ * Stores blobs as S3 objects under {@code <prefix>blobs/<aa>/<bb>/<sha256>},
+ * followed by {@value #GZIP_SUFFIX} when compressed, so replicas on different
+ * hosts share content through the bucket. Works with any S3-compatible
+ * service given an endpoint and path-style access.
+ * <p>
+ * Uploads are streamed as multipart uploads whose parts are sent in parallel;
+ * only {@code parallelism} parts are buffered at a time, and nothing is
+ * written to local disk. Since the key depends on the hash, which is known
+ * only at the end, larger objects are uploaded under a staging key and then
+ * copied server-side. Large ranges are downloaded as parallel ranged GETs,
+ * read back in order.
+ * <p>
+ * Locations that are not {@code s3://} URIs are files stored locally before
+ * the switch to S3 and are read from disk.
+ */
+public class S3BlobStore implements BlobStore, AutoCloseable {
+
+    // S3 requires every part but the last to be at least 5 MiB.
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    // Largest object CopyObject accepts; bigger ones are copied in parts.
+    private static final long MAX_SINGLE_COPY = 5L * 1024 * 1024 * 1024;
+    private static final long COPY_PART_SIZE = 512L * 1024 * 1024;
+    private static final String SCHEME = "s3://";
+
+    private final S3Client client;
+    private final String bucket;
+    private final String prefix;
+    private final int partSize;
+    private final int parallelism;
+    private final LocalBlobStore localStore;
+    private final ExecutorService executor;
+
+    /**
+     * @param localStore Used for staging upload sessions on local disk and for
+     *                   reading files stored before the switch to S3.
+     */
+    public S3BlobStore(S3Client client, String bucket, String prefix, long partSize, int parallelism,
+            LocalBlobStore localStore) {
+        this.client = client;
+        this.bucket = bucket;
+        this.prefix = prefix == null || prefix.isEmpty() || prefix.endsWith("/") ? (prefix == null ? "" : prefix)
+                : prefix + "/";
+        this.partSize = (int) Math.min(Math.max(partSize, MIN_PART_SIZE), Integer.MAX_VALUE - 8);
+        this.parallelism = Math.max(1, parallelism);
+        this.localStore = localStore;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "s3-blob-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public StoredBlob store(InputStream content) throws IOException {
+        MessageDigest digest = BlobStore.newDigest();
+        byte[] first = content.readNBytes(partSize);
+        digest.update(first);
+        if (first.length < partSize) {
+            // Fits in one part: the hash is already known, so put the object
+            // straight under its final key.
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String key = keyOf(hash);
+            if (!refresh(key)) {
+                client.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(),
+                        RequestBody.fromBytes(first));
+            }
+            return new StoredBlob(hash, first.length, locationOf(key));
+        }
+
+        String stagingKey = prefix + "tmp/" + UUID.randomUUID();
+        String uploadId = client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket).key(stagingKey).build()).uploadId();
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        // Bounds the parts held in memory while they upload.
+        Semaphore buffers = new Semaphore(parallelism);
+        long size = 0;
+        try {
+            byte[] part = first;
+            while (part.length > 0) {
+                size += part.length;
+                parts.add(uploadPartAsync(stagingKey, uploadId, parts.size() + 1, part, buffers));
+                acquire(buffers);
+                part = content.readNBytes(partSize);
+                digest.update(part);
+            }
+            complete(stagingKey, uploadId, join(parts));
+        } catch (IOException | RuntimeException e) {
+            parts.forEach(future -> future.cancel(true));
+            abort(stagingKey, uploadId);
+            throw e;
+        }
+
+        String hash = HexFormat.of().formatHex(digest.digest());
+        String key = keyOf(hash);
+        try {
+            if (!refresh(key)) {
+                copy(stagingKey, key, size);
+            }
+        } finally {
+            client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(stagingKey).build());
+        }
+        return new StoredBlob(hash, size, locationOf(key));
+    }
+
+    @Override
+    public Path createTempFile() throws IOException {
+        return localStore.createTempFile();
+    }
+
+    @Override
+    public int deleteTempFiles(long cutoff) throws IOException {
+        return localStore.deleteTempFiles(cutoff);
+    }
+
+    /**
+     * Uploads the file in parallel parts read straight from disk, then deletes
+     * it.
+     */
+    @Override
+    public StoredBlob adopt(Path temp, String hash, long size) throws IOException {
+        String key = keyOf(hash);
+        upload(temp, key, size);
+        return new StoredBlob(hash, size, locationOf(key));
+    }
+
+    /**
+     * Compresses into a local temporary file, which is then uploaded like an
+     * assembled upload.
+     */
+    @Override
+    public StoredBlob storeCompressed(InputStream content, int level) throws IOException {
+        LocalBlobStore.CompressedFile compressed = localStore.compressToTempFile(content, level);
+        String key = keyOf(compressed.hash()) + GZIP_SUFFIX;
+        upload(compressed.file(), key, Files.size(compressed.file()));
+        return new StoredBlob(compressed.hash(), compressed.size(), locationOf(key));
+    }
+
+    private void upload(Path temp, String key, long size) throws IOException {
+        try {
+            if (refresh(key)) {
+                return;
+            }
+            if (size <= partSize) {
+                client.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(), RequestBody.fromFile(temp));
+                return;
+            }
+            String uploadId = client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).build()).uploadId();
+            List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ)) {
+                Semaphore buffers = new Semaphore(parallelism);
+                for (long offset = 0; offset < size; offset += partSize) {
+                    acquire(buffers);
+                    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(partSize, size - offset));
+                    // Positional reads may return fewer bytes than asked.
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, offset + buffer.position()) < 0) {
+                            throw new IOException("Upload file is shorter than " + size + " bytes");
+                        }
+                    }
+                    parts.add(uploadPartAsync(key, uploadId, parts.size() + 1, buffer.array(), buffers));
+                }
+                complete(key, uploadId, join(parts));
+            } catch (IOException | RuntimeException e) {
+                parts.forEach(future -> future.cancel(true));
+                abort(key, uploadId);
+                throw e;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public BlobInfo stat(String location) throws IOException {
+        if (!location.startsWith(SCHEME)) {
+            return localStore.stat(location);
+        }
+        HeadObjectResponse head = head(keyFromLocation(location));
+        if (head == null) {
+            throw new NoSuchFileException(location);
+        }
+        return new BlobInfo(head.contentLength(), head.lastModified() != null ? head.lastModified().toEpochMilli() : 0L);
+    }
+
+    @Override
+    public InputStream openRange(String location, long offset, long length) throws IOException {
+        if (!location.startsWith(SCHEME)) {
+            return localStore.openRange(location, offset, length);
+        }
+        String key = keyFromLocation(location);
+        if (length <= partSize) {
+            return client.getObject(rangeRequest(key, offset, length));
+        }
+        return new ParallelRangeInputStream(key, offset, length);
+    }
+
+    /**
+     * Lists the objects under the blob prefix page by page; blobs left on
+     * local disk from before the switch to S3 are listed too.
+     */
+    @Override
+    public void forEachBlob(Consumer<ListedBlob> visitor) throws IOException {
+        ListObjectsV2Request request = ListObjectsV2Request.builder().bucket(bucket).prefix(prefix + "blobs/").build();
+        for (S3Object object : client.listObjectsV2Paginator(request).contents()) {
+            visitor.accept(new ListedBlob(locationOf(object.key()), object.size(),
+                    object.lastModified() != null ? object.lastModified().toEpochMilli() : 0L));
+        }
+        localStore.forEachBlob(visitor);
+    }
+
+    @Override
+    public void delete(String location) throws IOException {
+        if (!location.startsWith(SCHEME)) {
+            localStore.delete(location);
+            return;
+        }
+        client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(keyFromLocation(location)).build());
+    }
+
+    @Override
+    public Path localFile(String location) {
+        return location.startsWith(SCHEME) ? null : localStore.localFile(location);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        client.close();
+    }
+
+    private String keyOf(String hash) {
+        return prefix + "blobs/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+    }
+
+    private String locationOf(String key) {
+        return SCHEME + bucket + "/" + key;
+    }
+
+    private String keyFromLocation(String location) {
+        String bucketPrefix = SCHEME + bucket + "/";
+        if (!location.startsWith(bucketPrefix)) {
+            throw new IllegalArgumentException("Blob is stored in another bucket: " + location);
+        }
+        return location.substring(bucketPrefix.length());
+    }
+
+    /**
+     * Whether {@code key} exists. If so, its modification time is renewed by
+     * copying it onto itself, so garbage collection treats it as a fresh
+     * blob until the node storing it again is saved. Objects too large for a
+     * single copy are copied onto themselves in parts; the original stays in
+     * place until the copy completes.
+     */
+    private boolean refresh(String key) throws IOException {
+        HeadObjectResponse head = head(key);
+        if (head == null) {
+            return false;
+        }
+        if (head.contentLength() <= MAX_SINGLE_COPY) {
+            client.copyObject(CopyObjectRequest.builder()
+                    .sourceBucket(bucket).sourceKey(key)
+                    .destinationBucket(bucket).destinationKey(key)
+                    .metadataDirective(MetadataDirective.REPLACE).build());
+        } else {
+            copy(key, key, head.contentLength());
+        }
+        return true;
+    }
+
+    private HeadObjectResponse head(String key) {
+        try {
+            return client.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build());
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private GetObjectRequest rangeRequest(String key, long offset, long length) {
+        return GetObjectRequest.builder().bucket(bucket).key(key)
+                .range("bytes=" + offset + "-" + (offset + length - 1)).build();
+    }
+
+    /**
+     * Starts uploading one part; the part's buffer slot in {@code buffers} is
+     * released when the upload finishes.
+     */
+    private CompletableFuture<CompletedPart> uploadPartAsync(String key, String uploadId, int partNumber, byte[] bytes,
+            Semaphore buffers) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                String eTag = client.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber)
+                        .contentLength((long) bytes.length).build(), RequestBody.fromBytes(bytes)).eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } finally {
+                buffers.release();
+            }
+        }, executor);
+    }
+
+    private void complete(String key, String uploadId, List<CompletedPart> parts) {
+        client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucket).key(key).uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build());
+    }
+
+    private void abort(String key, String uploadId) {
+        try {
+            client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId).build());
+        } catch (RuntimeException e) {
+            // Incomplete uploads are also removed by the bucket's lifecycle rules.
+        }
+    }
+
+    /**
+     * Copies an object within the bucket, in parallel parts when it is too
+     * large for a single CopyObject.
+     */
+    private void copy(String sourceKey, String targetKey, long size) throws IOException {
+        if (size <= MAX_SINGLE_COPY) {
+            client.copyObject(CopyObjectRequest.builder()
+                    .sourceBucket(bucket).sourceKey(sourceKey)
+                    .destinationBucket(bucket).destinationKey(targetKey).build());
+            return;
+        }
+        String uploadId = client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket).key(targetKey).build()).uploadId();
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        try {
+            for (long offset = 0; offset < size; offset += COPY_PART_SIZE) {
+                int partNumber = parts.size() + 1;
+                String range = "bytes=" + offset + "-" + (Math.min(offset + COPY_PART_SIZE, size) - 1);
+                parts.add(CompletableFuture.supplyAsync(() -> {
+                    String eTag = client.uploadPartCopy(UploadPartCopyRequest.builder()
+                            .sourceBucket(bucket).sourceKey(sourceKey)
+                            .destinationBucket(bucket).destinationKey(targetKey)
+                            .uploadId(uploadId).partNumber(partNumber).copySourceRange(range).build())
+                            .copyPartResult().eTag();
+                    return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+                }, executor));
+            }
+            complete(targetKey, uploadId, join(parts));
+        } catch (IOException | RuntimeException e) {
+            abort(targetKey, uploadId);
+            throw e;
+        }
+    }
+
+    private static List<CompletedPart> join(List<CompletableFuture<CompletedPart>> parts) throws IOException {
+        try {
+            List<CompletedPart> completed = new ArrayList<>();
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completed.add(part.join());
+            }
+            completed.sort(Comparator.comparing(CompletedPart::partNumber));
+            return completed;
+        } catch (CompletionException e) {
+            throw new IOException("Multipart transfer failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static void acquire(Semaphore semaphore) throws IOException {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an upload slot");
+        }
+    }
+
+    /**
+     * Reads a range as consecutive parts fetched by parallel ranged GETs. At
+     * most {@code parallelism} parts are requested ahead of the reader, which
+     * bounds memory use.
+     */
+    private final class ParallelRangeInputStream extends InputStream {
+
+        private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        private final String key;
+        private long nextOffset;
+        private final long end;
+        private byte[] current = new byte[0];
+        private int position;
+
+        private ParallelRangeInputStream(String key, long offset, long length) {
+            this.key = key;
+            this.nextOffset = offset;
+            this.end = offset + length;
+            fill();
+        }
+
+        private void fill() {
+            while (inFlight.size() < parallelism && nextOffset < end) {
+                long offset = nextOffset;
+                long length = Math.min(partSize, end - offset);
+                inFlight.add(executor.submit(() -> client.getObjectAsBytes(rangeRequest(key, offset, length))
+                        .asByteArray()));
+                nextOffset += length;
+            }
+        }
+
+        private boolean advance() throws IOException {
+            while (position >= current.length) {
+                Future<byte[]> next = inFlight.poll();
+                if (next == null) {
+                    return false;
+                }
+                try {
+                    current = next.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading " + key);
+                } catch (ExecutionException e) {
+                    throw new IOException("Ranged download failed: " + e.getCause().getMessage(), e.getCause());
+                }
+                position = 0;
+                fill();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return advance() ? current[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            inFlight.forEach(future -> future.cancel(true));
+            inFlight.clear();
+        }
+    }
+}
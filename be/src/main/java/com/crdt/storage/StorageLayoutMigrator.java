@@ -0,0 +1,144 @@
+package com.crdt.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import com.crdt.repository.FileNodeRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Moves files stored before the hashed layout into it, in the background and
+ * while the application serves requests. Each file is first linked at its new
+ * path, then every row pointing at it is rewritten, and the old path is only
+ * removed after the next batch, so a download that read the old path just
+ * before the rewrite still finds the file. Files stored before content
+ * addressing are hashed on the way and get their {@code contentHash}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "file.storage.type", havingValue = "local", matchIfMissing = true)
+public class StorageLayoutMigrator {
+
+    private record Relocation(String oldPath, String newPath, String hash) {
+    }
+
+    private final LocalBlobStore blobStore;
+    private final FileNodeRepository fileNodeRepository;
+
+    @Value("${file.storage.migrate-layout:true}")
+    private boolean enabled;
+
+    @Value("${file.storage.migration-batch-size:500}")
+    private int batchSize;
+
+    @Value("${file.storage.migration-pause-ms:1000}")
+    private long pauseMs;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        // A dedicated thread: the migration runs for as long as there are
+        // files to move, and would hold one of the few scheduler threads that
+        // flush WebSocket events and sync replicas for all of that time.
+        Thread worker = new Thread(this::migrate, "storage-layout-migrator");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    void migrate() {
+        Set<String> failed = new HashSet<>();
+        List<Relocation> previousBatch = new ArrayList<>();
+        long migrated = 0;
+        try {
+            while (true) {
+                List<String> paths = fileNodeRepository
+                        .findUnshardedFilePaths(PageRequest.of(0, batchSize + failed.size()));
+                List<Relocation> batch = new ArrayList<>();
+                boolean attempted = false;
+                for (String path : paths) {
+                    if (failed.contains(path)) {
+                        continue;
+                    }
+                    attempted = true;
+                    try {
+                        batch.add(relocate(path));
+                    } catch (IOException | RuntimeException e) {
+                        failed.add(path);
+                        log.warn("Could not move {} into the hashed layout: {}", path, e.getMessage());
+                    }
+                }
+                removeOldPaths(previousBatch);
+                previousBatch = batch;
+                // A batch in which every file failed is no reason to stop:
+                // the next query asks for as many more rows as were skipped.
+                if (!attempted) {
+                    break;
+                }
+                if (!batch.isEmpty()) {
+                    migrated += batch.size();
+                    log.info("Moved {} files into the hashed storage layout so far", migrated);
+                }
+                Thread.sleep(pauseMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            log.error("Storage layout migration stopped: {}", e.getMessage());
+            return;
+        }
+        if (migrated > 0 || !failed.isEmpty()) {
+            log.info("Storage layout migration finished: {} files moved, {} skipped", migrated, failed.size());
+        }
+    }
+
+    private Relocation relocate(String oldPath) throws IOException {
+        Path source = Paths.get(oldPath);
+        String hash = blobStore.isFlatBlob(source)
+                ? source.getFileName().toString()
+                : LocalBlobStore.hashOf(source);
+        if (!Files.exists(source) && !Files.exists(blobStore.pathOf(hash))) {
+            throw new IOException("File not found");
+        }
+        Path target = Files.exists(source) ? blobStore.importFile(source, hash) : blobStore.pathOf(hash);
+        fileNodeRepository.relocateFilePath(oldPath, target.toString(), hash);
+        return new Relocation(oldPath, target.toString(), hash);
+    }
+
+    /**
+     * Points any row written with an old path since its batch, e.g. by a copy
+     * that read the source row earlier, at the new one, then deletes the old
+     * file.
+     */
+    private void removeOldPaths(List<Relocation> relocations) {
+        for (Relocation relocation : relocations) {
+            try {
+                fileNodeRepository.relocateFilePath(relocation.oldPath(), relocation.newPath(), relocation.hash());
+                Path source = Paths.get(relocation.oldPath());
+                if (!source.equals(Paths.get(relocation.newPath()))) {
+                    Files.deleteIfExists(source);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not remove {} after moving it: {}", relocation.oldPath(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crdt.storage.BlobReadCache;
+import com.crdt.storage.BlobStore;
+import com.crdt.storage.LocalBlobStore;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Loading, reuse and invalidation in {@link BlobReadCache}.
+ */
+class BlobReadCacheTest {
+
+    private static final String HASH = "a".repeat(64);
+    private static final String LOCATION = "/blobs/aa/aa/" + HASH;
+    private static final byte[] CONTENT = "cached content".getBytes(StandardCharsets.UTF_8);
+
+    private BlobStore blobStore;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void stubStore() throws Exception {
+        blobStore = mock(BlobStore.class);
+        when(blobStore.stat(anyString())).thenReturn(new BlobStore.BlobInfo(CONTENT.length, 1_000L));
+        when(blobStore.openContent(anyString(), eq(0L), anyLong()))
+                .thenAnswer(invocation -> new ByteArrayInputStream(CONTENT));
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private BlobReadCache cache(BlobStore store, long heapMaxFileSize, long mmapMaxFileSize) {
+        BlobReadCache cache = new BlobReadCache(store, meterRegistry);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxBytes", 1024L * 1024);
+        ReflectionTestUtils.setField(cache, "heapMaxFileSize", heapMaxFileSize);
+        ReflectionTestUtils.setField(cache, "mmapMaxFileSize", mmapMaxFileSize);
+        ReflectionTestUtils.setField(cache, "offHeap", false);
+        ReflectionTestUtils.invokeMethod(cache, "createCache");
+        return cache;
+    }
+
+    private static byte[] bytesOf(BlobReadCache.CachedBlob blob) {
+        ByteBuffer content = blob.content();
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    @DisplayName("A small blob is read once and then served from memory")
+    void whenBlobIsRequestedTwice_thenStoreIsReadOnce() throws Exception {
+        BlobReadCache cache = cache(blobStore, 1024, 4096);
+
+        BlobReadCache.CachedBlob first = cache.get(HASH, LOCATION, (long) CONTENT.length);
+        BlobReadCache.CachedBlob second = cache.get(HASH, LOCATION, (long) CONTENT.length);
+
+        // Each caller gets its own position in the shared buffer.
+        assertThat(bytesOf(first)).isEqualTo(CONTENT);
+        assertThat(bytesOf(second)).isEqualTo(CONTENT);
+        assertThat(second.lastModified()).isEqualTo(1_000L);
+        verify(blobStore, times(1)).openContent(LOCATION, 0, CONTENT.length);
+        assertThat(meterRegistry.get("blob.read.cache.hit.ratio").gauge().value()).isEqualTo(0.5);
+    }
+
+    @Test
+    @DisplayName("Blobs without a hash or above the size limits bypass the cache")
+    void whenBlobIsNotCacheable_thenStoreIsNotTouched() throws Exception {
+        BlobReadCache cache = cache(blobStore, 4, 8);
+
+        assertThat(cache.get(HASH, LOCATION, (long) CONTENT.length)).isNull();
+        assertThat(cache.get(null, LOCATION, 1L)).isNull();
+        assertThat(cache.get(HASH, LOCATION, null)).isNull();
+        verify(blobStore, never()).stat(anyString());
+    }
+
+    @Test
+    @DisplayName("Deleting a compressed blob drops the entry under its content hash")
+    void whenLocationIsInvalidated_thenBlobIsLoadedAgain() throws Exception {
+        BlobReadCache cache = cache(blobStore, 1024, 4096);
+        String compressed = LOCATION + BlobStore.GZIP_SUFFIX;
+        cache.get(HASH, compressed, (long) CONTENT.length);
+
+        cache.invalidateLocation(compressed);
+        cache.get(HASH, compressed, (long) CONTENT.length);
+
+        verify(blobStore, times(2)).openContent(compressed, 0, CONTENT.length);
+    }
+
+    @Test
+    @DisplayName("Local blobs between the heap and mmap limits are memory-mapped")
+    void whenLocalBlobIsMidSized_thenItIsMapped(@TempDir Path storage) throws Exception {
+        LocalBlobStore localStore = new LocalBlobStore(storage.toString());
+        byte[] content = new byte[8192];
+        Arrays.fill(content, (byte) 7);
+        BlobStore.StoredBlob stored = localStore.store(new ByteArrayInputStream(content));
+        BlobReadCache cache = cache(localStore, 1024, 16 * 1024);
+
+        BlobReadCache.CachedBlob blob = cache.get(stored.hash(), stored.path(), stored.size());
+
+        assertThat(blob.content().isDirect()).isTrue();
+        assertThat(blob.content().isReadOnly()).isTrue();
+        assertThat(bytesOf(blob)).isEqualTo(content);
+    }
+}
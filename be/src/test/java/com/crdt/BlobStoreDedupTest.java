@@ -0,0 +1,82 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.crdt.storage.BlobStore;
+import com.crdt.storage.LocalBlobStore;
+
+/**
+ * Content addressing of {@link LocalBlobStore}: identical content is stored
+ * once, under the SHA-256 of its bytes.
+ */
+class BlobStoreDedupTest {
+
+    @TempDir
+    Path storage;
+
+    private BlobStore blobStore;
+
+    @BeforeEach
+    void createStore() {
+        blobStore = new LocalBlobStore(storage.toString());
+    }
+
+    private BlobStore.StoredBlob store(String content) throws Exception {
+        return blobStore.store(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Every regular file under the storage root, temporary ones included. */
+    private List<Path> storedFiles() throws Exception {
+        try (Stream<Path> files = Files.walk(storage)) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+
+    @Test
+    @DisplayName("The same content stored twice shares one blob")
+    void whenContentIsStoredTwice_thenOneBlobIsKept() throws Exception {
+        // when
+        BlobStore.StoredBlob first = store("quarterly report");
+        BlobStore.StoredBlob second = store("quarterly report");
+
+        // then
+        assertThat(second).isEqualTo(first);
+        assertThat(storedFiles()).containsExactly(Path.of(first.path()));
+    }
+
+    @Test
+    @DisplayName("A blob is keyed by the SHA-256 of its bytes and sized by them")
+    void whenContentIsStored_thenItIsKeyedByItsHash() throws Exception {
+        byte[] content = "quarterly report".getBytes(StandardCharsets.UTF_8);
+
+        BlobStore.StoredBlob blob = store("quarterly report");
+
+        assertThat(blob.hash()).isEqualTo(HexFormat.of().formatHex(BlobStore.newDigest().digest(content)));
+        assertThat(blob.size()).isEqualTo(content.length);
+        assertThat(Path.of(blob.path()).getFileName().toString()).isEqualTo(blob.hash());
+        assertThat(Files.readAllBytes(Path.of(blob.path()))).isEqualTo(content);
+    }
+
+    @Test
+    @DisplayName("Different content is stored separately")
+    void whenContentDiffers_thenEachGetsItsOwnBlob() throws Exception {
+        BlobStore.StoredBlob report = store("quarterly report");
+        BlobStore.StoredBlob notes = store("meeting notes");
+
+        assertThat(report.hash()).isNotEqualTo(notes.hash());
+        assertThat(storedFiles()).containsExactlyInAnyOrder(Path.of(report.path()), Path.of(notes.path()));
+    }
+}
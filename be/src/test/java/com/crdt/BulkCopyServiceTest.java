@@ -0,0 +1,204 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crdt.crdt.FolderAggregates;
+import com.crdt.crdt.TreeNode;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+import com.crdt.repository.FileNodeRepository;
+import com.crdt.service.BulkCopyService;
+import com.crdt.service.CrdtEventPublisher;
+import com.crdt.service.CrdtService;
+import com.crdt.service.HLCService;
+import com.crdt.util.HybridLogicalClock;
+
+/**
+ * Planning of {@link BulkCopyService}: the operations and content references
+ * handed to {@link CrdtService#applyLocalBatch}, with the tree and the
+ * database mocked.
+ */
+class BulkCopyServiceTest {
+
+    private static final UUID USER_ID = UUID.randomUUID();
+    private static final UUID TARGET_ID = UUID.randomUUID();
+
+    private CrdtService crdtService;
+    private CrdtService.QuotaReservation reservation;
+    private FileNodeRepository fileNodeRepository;
+    private BulkCopyService service;
+    private final Map<UUID, TreeNode> nodes = new HashMap<>();
+    private final Map<UUID, List<TreeNode>> children = new HashMap<>();
+    private final Map<UUID, FileNode> rows = new HashMap<>();
+
+    @BeforeEach
+    void createService() {
+        crdtService = mock(CrdtService.class);
+        fileNodeRepository = mock(FileNodeRepository.class);
+        HLCService hlcService = mock(HLCService.class);
+        AtomicLong clock = new AtomicLong();
+        when(hlcService.newTimestamp()).thenAnswer(invocation -> new HybridLogicalClock(clock.incrementAndGet(), 0));
+        when(crdtService.getReplicaId()).thenReturn("replica-1");
+        reservation = mock(CrdtService.QuotaReservation.class);
+        when(crdtService.reserveQuota(any(), anyLong())).thenReturn(reservation);
+        when(crdtService.getNode(any())).thenAnswer(invocation -> nodes.get(invocation.getArgument(0)));
+        when(crdtService.getChildren(any())).thenAnswer(invocation -> children.getOrDefault(invocation.getArgument(0),
+                List.of()));
+        when(crdtService.getDisplayName(any())).thenAnswer(invocation -> invocation.getArgument(0, TreeNode.class)
+                .getName());
+        when(crdtService.availableName(any(), any(), any())).thenAnswer(invocation -> invocation.getArgument(1)
+                + " (1)");
+        when(fileNodeRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<FileNode> found = new ArrayList<>();
+            invocation.<Iterable<UUID>>getArgument(0).forEach(id -> found.add(rows.get(id)));
+            return found;
+        });
+
+        service = new BulkCopyService(crdtService, hlcService, fileNodeRepository, mock(CrdtEventPublisher.class));
+        ReflectionTestUtils.setField(service, "parallelism", 2);
+        ReflectionTestUtils.setField(service, "maxNodes", 1000);
+        ReflectionTestUtils.invokeMethod(service, "startExecutor");
+    }
+
+    @AfterEach
+    void stopService() {
+        ReflectionTestUtils.invokeMethod(service, "stopExecutor");
+    }
+
+    private TreeNode node(String name, TreeNode parent, FileNode.FileType type, Long size) {
+        TreeNode node = new TreeNode(UUID.randomUUID(), parent != null ? parent.getId() : null, name, type, 1L,
+                "replica-1", false, USER_ID, size, null, 1L);
+        nodes.put(node.getId(), node);
+        if (parent != null) {
+            children.computeIfAbsent(parent.getId(), id -> new ArrayList<>()).add(node);
+        }
+        if (type == FileNode.FileType.FILE) {
+            FileNode row = new FileNode();
+            row.setId(node.getId());
+            row.setFilePath("/blobs/" + name);
+            row.setContentHash("hash-of-" + name);
+            rows.put(node.getId(), row);
+        }
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<CrdtOperation> appliedOperations(ArgumentCaptor<Map<UUID, CrdtService.FileContent>> content) {
+        ArgumentCaptor<List<CrdtOperation>> operations = ArgumentCaptor.forClass(List.class);
+        verify(crdtService).applyLocalBatch(operations.capture(), content.capture(), eq(USER_ID), any());
+        return operations.getValue();
+    }
+
+    @Test
+    @DisplayName("A folder is copied as one batch of creates under new ids, sharing the source content")
+    void whenFolderIsCopied_thenSubtreeIsPlannedWithNewIds() {
+        // given: photos/{a.jpg, 2024/b.jpg}
+        TreeNode photos = node("photos", null, FileNode.FileType.FOLDER, null);
+        TreeNode a = node("a.jpg", photos, FileNode.FileType.FILE, 10L);
+        TreeNode year = node("2024", photos, FileNode.FileType.FOLDER, null);
+        TreeNode b = node("b.jpg", year, FileNode.FileType.FILE, 20L);
+        when(crdtService.getFolderAggregate(photos.getId())).thenReturn(new FolderAggregates.Aggregate(30, 2, 1));
+
+        // when
+        service.copy(photos.getId(), TARGET_ID, USER_ID);
+
+        // then: the subtree's bytes are held against the quota until applied
+        verify(crdtService).reserveQuota(USER_ID, 30L);
+        verify(reservation).close();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<UUID, CrdtService.FileContent>> content = ArgumentCaptor.forClass(Map.class);
+        List<CrdtOperation> operations = appliedOperations(content);
+        assertThat(operations).hasSize(4);
+
+        // and: the root goes to the target under a free name, children under their copied parents
+        CrdtOperation root = operations.get(0);
+        assertThat(root.getParentId()).isEqualTo(TARGET_ID);
+        assertThat(root.getNodeName()).isEqualTo("photos (1)");
+        Map<String, CrdtOperation> byName = operations.stream()
+                .collect(Collectors.toMap(CrdtOperation::getNodeName, op -> op));
+        assertThat(byName.get("a.jpg").getParentId()).isEqualTo(root.getNodeId());
+        assertThat(byName.get("b.jpg").getParentId()).isEqualTo(byName.get("2024").getNodeId());
+        assertThat(byName.get("b.jpg").getFileSize()).isEqualTo(20L);
+        assertThat(operations).extracting(CrdtOperation::getNodeId)
+                .doesNotContain(photos.getId(), a.getId(), year.getId(), b.getId());
+        assertThat(operations).allSatisfy(op -> {
+            assertThat(op.getOwnerId()).isEqualTo(USER_ID);
+            assertThat(op.getOldParentId()).isNull();
+        });
+
+        // and: the copies reference the stored content of their sources
+        assertThat(content.getValue()).containsOnlyKeys(byName.get("a.jpg").getNodeId(), byName.get("b.jpg").getNodeId())
+                .containsEntry(byName.get("b.jpg").getNodeId(),
+                        new CrdtService.FileContent("/blobs/b.jpg", "hash-of-b.jpg"));
+    }
+
+    @Test
+    @DisplayName("Content locations are looked up in batches of 500")
+    void whenFolderHasManyFiles_thenLookupsAreBatched() {
+        TreeNode folder = node("many", null, FileNode.FileType.FOLDER, null);
+        for (int i = 0; i < 501; i++) {
+            node("f" + i, folder, FileNode.FileType.FILE, 1L);
+        }
+        when(crdtService.getFolderAggregate(folder.getId())).thenReturn(new FolderAggregates.Aggregate(501, 501, 1));
+
+        service.copy(folder.getId(), TARGET_ID, USER_ID);
+
+        verify(fileNodeRepository, times(2)).findAllById(any());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<UUID, CrdtService.FileContent>> content = ArgumentCaptor.forClass(Map.class);
+        assertThat(appliedOperations(content)).hasSize(502);
+        assertThat(content.getValue().values()).extracting(CrdtService.FileContent::filePath)
+                .doesNotContainNull()
+                .hasSize(501);
+    }
+
+    @Test
+    @DisplayName("A copy larger than the node limit is refused before anything is applied")
+    void whenCopyExceedsNodeLimit_thenNothingIsApplied() {
+        ReflectionTestUtils.setField(service, "maxNodes", 3);
+        TreeNode folder = node("big", null, FileNode.FileType.FOLDER, null);
+        for (int i = 0; i < 5; i++) {
+            node("f" + i, folder, FileNode.FileType.FILE, 1L);
+        }
+        when(crdtService.getFolderAggregate(folder.getId())).thenReturn(new FolderAggregates.Aggregate(5, 5, 1));
+
+        assertThatThrownBy(() -> service.copy(folder.getId(), TARGET_ID, USER_ID))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(crdtService, never()).applyLocalBatch(anyList(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("A node in the trash cannot be copied")
+    void whenSourceIsDeleted_thenCopyIsRefused() {
+        TreeNode file = node("gone.txt", null, FileNode.FileType.FILE, 1L);
+        file.setDeleted(true);
+
+        assertThatThrownBy(() -> service.copy(file.getId(), TARGET_ID, USER_ID))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,125 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crdt.storage.BlobStore;
+import com.crdt.storage.CompressionPolicy;
+import com.crdt.storage.LocalBlobStore;
+
+/**
+ * Storing through {@link CompressionPolicy} into a {@link LocalBlobStore}
+ * and reading the content back.
+ */
+class CompressionPolicyTest {
+
+    @TempDir
+    Path storage;
+
+    private LocalBlobStore blobStore;
+    private CompressionPolicy policy;
+
+    @BeforeEach
+    void createPolicy() {
+        blobStore = new LocalBlobStore(storage.toString());
+        policy = new CompressionPolicy(blobStore);
+        ReflectionTestUtils.setField(policy, "enabled", true);
+        ReflectionTestUtils.setField(policy, "level", 1);
+        ReflectionTestUtils.setField(policy, "minSize", 4096L);
+        ReflectionTestUtils.setField(policy, "maxSize", 1024L * 1024);
+        ReflectionTestUtils.setField(policy, "maxRatio", 0.8);
+    }
+
+    private static byte[] json(int records) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"item-").append(i).append("\",\"tags\":[\"a\",\"b\"]},");
+        }
+        return json.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(7).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String sha256(byte[] content) {
+        return HexFormat.of().formatHex(BlobStore.newDigest().digest(content));
+    }
+
+    private byte[] read(String location, long offset, long length) throws Exception {
+        try (InputStream in = blobStore.openContent(location, offset, length)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    @DisplayName("Compressible text is stored gzipped and reads back unchanged")
+    void whenTextCompressesWell_thenItRoundTrips() throws Exception {
+        // given
+        byte[] content = json(2000);
+
+        // when
+        BlobStore.StoredBlob blob = policy.store(new ByteArrayInputStream(content), "application/json", content.length);
+
+        // then: keyed and sized by the uncompressed bytes, smaller on disk
+        assertThat(blob.path()).endsWith(BlobStore.GZIP_SUFFIX);
+        assertThat(blob.hash()).isEqualTo(sha256(content));
+        assertThat(blob.size()).isEqualTo(content.length);
+        assertThat(blobStore.stat(blob.path()).size()).isLessThan(content.length / 2);
+        assertThat(read(blob.path(), 0, content.length)).isEqualTo(content);
+        assertThat(read(blob.path(), 1000, 50)).isEqualTo(Arrays.copyOfRange(content, 1000, 1050));
+    }
+
+    @Test
+    @DisplayName("Text whose sample does not shrink is stored as is")
+    void whenSampleDoesNotCompress_thenBlobIsStoredPlain() throws Exception {
+        byte[] content = random(100_000);
+
+        BlobStore.StoredBlob blob = policy.store(new ByteArrayInputStream(content), "text/plain", content.length);
+
+        assertThat(blob.path()).doesNotEndWith(BlobStore.GZIP_SUFFIX);
+        assertThat(read(blob.path(), 0, content.length)).isEqualTo(content);
+    }
+
+    @Test
+    @DisplayName("Only text-like types between the size limits are candidates")
+    void whenTypeOrSizeDoesNotQualify_thenContentIsNotACandidate() {
+        assertThat(policy.isCandidate("text/csv; charset=utf-8", 10_000)).isTrue();
+        assertThat(policy.isCandidate("application/vnd.api+json", 10_000)).isTrue();
+        assertThat(policy.isCandidate("image/png", 10_000)).isFalse();
+        assertThat(policy.isCandidate("text/plain", 100)).isFalse();
+        assertThat(policy.isCandidate("text/plain", 2L * 1024 * 1024)).isFalse();
+        assertThat(policy.isCandidate(null, 10_000)).isFalse();
+    }
+
+    @Test
+    @DisplayName("An assembled upload is compressed on adoption and its temporary file consumed")
+    void whenTempFileIsAdopted_thenItIsCompressedAndRemoved() throws Exception {
+        byte[] content = json(1000);
+        Path temp = blobStore.createTempFile();
+        Files.write(temp, content);
+
+        BlobStore.StoredBlob blob = policy.adopt(temp, sha256(content), content.length, "application/json");
+
+        assertThat(temp).doesNotExist();
+        assertThat(blob.path()).endsWith(BlobStore.GZIP_SUFFIX);
+        assertThat(blob.hash()).isEqualTo(sha256(content));
+        assertThat(read(blob.path(), 0, content.length)).isEqualTo(content);
+    }
+}
@@ -0,0 +1,154 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crdt.service.CrdtEventPublisher;
+import com.crdt.service.CrdtOperationEvent;
+import com.crdt.service.WebSocketSubscriptionRegistry;
+
+/**
+ * Buffering, coalescing and numbering of {@link CrdtEventPublisher}, with
+ * the flush driven by hand and the broker mocked.
+ */
+class CrdtEventPublisherTest {
+
+    private static final UUID FOLDER_ID = UUID.randomUUID();
+    private static final String FOLDER_DESTINATION = CrdtEventPublisher.FOLDER_DESTINATION_PREFIX + FOLDER_ID;
+
+    private SimpMessagingTemplate messagingTemplate;
+    private CrdtEventPublisher publisher;
+
+    @BeforeEach
+    void createPublisher() {
+        messagingTemplate = mock(SimpMessagingTemplate.class);
+        WebSocketSubscriptionRegistry subscriptionRegistry = mock(WebSocketSubscriptionRegistry.class);
+        when(subscriptionRegistry.hasSubscribers(anyString()))
+                .thenAnswer(invocation -> FOLDER_DESTINATION.equals(invocation.getArgument(0)));
+        when(subscriptionRegistry.destinationsStartingWith(anyString())).thenReturn(List.of(FOLDER_DESTINATION));
+        publisher = new CrdtEventPublisher(messagingTemplate, subscriptionRegistry);
+        ReflectionTestUtils.setField(publisher, "summaryThreshold", 3);
+        ReflectionTestUtils.setField(publisher, "replayBufferSize", 4);
+    }
+
+    private void nodeEvent(UUID nodeId, String name) {
+        publisher.handleCrdtOperationEvent(new CrdtOperationEvent(this, "file.updated",
+                Map.of("id", nodeId, "name", name), Set.of(FOLDER_ID)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> sentFrame() {
+        ArgumentCaptor<Map<String, Object>> frame = ArgumentCaptor.forClass(Map.class);
+        verify(messagingTemplate).convertAndSend(eq(FOLDER_DESTINATION), frame.capture());
+        return frame.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> eventsOf(Map<String, Object> frame) {
+        return (List<Map<String, Object>>) ((Map<String, Object>) frame.get("data")).get("events");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object nameOf(Map<String, Object> event) {
+        return ((Map<String, Object>) event.get("data")).get("name");
+    }
+
+    @Test
+    @DisplayName("Changes to one node within a tick collapse into its latest, sent in a single batch")
+    void whenNodeChangesTwiceInATick_thenOnlyTheLatestIsSent() {
+        // given
+        UUID report = UUID.randomUUID();
+        UUID notes = UUID.randomUUID();
+        nodeEvent(report, "report-v1");
+        nodeEvent(notes, "notes");
+        nodeEvent(report, "report-v2");
+
+        // when
+        publisher.flush();
+
+        // then: one frame, ordered by each node's latest change
+        Map<String, Object> frame = sentFrame();
+        assertThat(frame.get("type")).isEqualTo("batch");
+        assertThat(eventsOf(frame)).extracting(CrdtEventPublisherTest::nameOf)
+                .containsExactly("notes", "report-v2");
+    }
+
+    @Test
+    @DisplayName("A tick with more node changes than the threshold is sent as a sync summary")
+    void whenTickExceedsThreshold_thenSummaryIsSent() {
+        for (int i = 0; i < 4; i++) {
+            nodeEvent(UUID.randomUUID(), "file-" + i);
+        }
+
+        publisher.flush();
+
+        Map<String, Object> frame = sentFrame();
+        assertThat(frame.get("type")).isEqualTo("sync.completed");
+        assertThat((Map<?, ?>) frame.get("data")).containsEntry("count", 4L).containsEntry("summary", true);
+    }
+
+    @Test
+    @DisplayName("Flushed events are numbered in order and can be replayed after a sequence number")
+    void whenClientReconnects_thenMissedEventsAreReplayed() {
+        // given: three events over two ticks
+        nodeEvent(UUID.randomUUID(), "a");
+        publisher.flush();
+        nodeEvent(UUID.randomUUID(), "b");
+        nodeEvent(UUID.randomUUID(), "c");
+        publisher.flush();
+
+        // when: the client last saw event 1
+        CrdtEventPublisher.Replay replay = publisher.replaySince(1, publisher.getEpoch(), FOLDER_ID);
+
+        // then
+        assertThat(replay.resyncRequired()).isFalse();
+        assertThat(replay.lastSeq()).isEqualTo(3);
+        assertThat(replay.events()).extracting(event -> event.get("seq")).containsExactly(2L, 3L);
+        assertThat(replay.events()).extracting(CrdtEventPublisherTest::nameOf).containsExactly("b", "c");
+        assertThat(publisher.replaySince(1, publisher.getEpoch(), UUID.randomUUID()).events()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("A client from another epoch, or behind the replay buffer, is told to resync")
+    void whenGapCannotBeReplayed_thenResyncIsRequired() {
+        // given: six events through a buffer of four
+        for (int i = 0; i < 6; i++) {
+            nodeEvent(UUID.randomUUID(), "file-" + i);
+            publisher.flush();
+        }
+
+        // then: events 1 and 2 were evicted, so a client at 1 cannot catch up
+        assertThat(publisher.replaySince(1, publisher.getEpoch(), null).resyncRequired()).isTrue();
+        assertThat(publisher.replaySince(2, publisher.getEpoch(), null).events()).hasSize(4);
+        CrdtEventPublisher.Replay restarted = publisher.replaySince(6, UUID.randomUUID().toString(), null);
+        assertThat(restarted.resyncRequired()).isTrue();
+        assertThat(restarted.epoch()).isEqualTo(publisher.getEpoch());
+        assertThat(restarted.events()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("An empty tick sends nothing")
+    void whenNothingIsPending_thenNothingIsSent() {
+        publisher.flush();
+
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    }
+}
@@ -0,0 +1,146 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.exception.QuotaExceededException;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+import com.crdt.repository.CrdtOperationRepository;
+import com.crdt.repository.FileNodeRepository;
+import com.crdt.repository.ReplicaStateRepository;
+import com.crdt.repository.UserRepository;
+import com.crdt.service.CrdtService;
+import com.crdt.service.HLCService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Quota admission of {@link CrdtService#reserveQuota}, against usage counted
+ * by a real {@link CrdtTree}; persistence is mocked.
+ */
+class CrdtServiceQuotaTest {
+
+    private static final UUID USER_ID = UUID.randomUUID();
+    private static final long QUOTA = 100;
+
+    private CrdtService service;
+    private CrdtTree tree;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void createService() {
+        service = new CrdtService(mock(FileNodeRepository.class), mock(CrdtOperationRepository.class),
+                mock(ReplicaStateRepository.class), mock(UserRepository.class), mock(RedisTemplate.class),
+                mock(ApplicationEventPublisher.class), new ObjectMapper(), mock(HLCService.class));
+        tree = new CrdtTree("replica-1");
+        ReflectionTestUtils.setField(service, "crdtTree", tree);
+        ReflectionTestUtils.setField(service, "userQuota", QUOTA);
+    }
+
+    private void storeFile(long size) {
+        tree.applyOperation(CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(UUID.randomUUID())
+                .parentId(CrdtTree.VIRTUAL_ROOT_ID)
+                .nodeName("file-" + size)
+                .nodeType(FileNode.FileType.FILE)
+                .fileSize(size)
+                .ownerId(USER_ID)
+                .replicaId("replica-1")
+                .timestamp(System.nanoTime())
+                .build());
+    }
+
+    @Test
+    @DisplayName("Open reservations count against the quota until they are closed")
+    void whenSpaceIsReserved_thenOtherWritesCannotClaimIt() {
+        // given
+        storeFile(40);
+        CrdtService.QuotaReservation upload = service.reserveQuota(USER_ID, 50);
+
+        // then: 40 used + 50 reserved leaves 10
+        assertThatThrownBy(() -> service.reserveQuota(USER_ID, 20)).isInstanceOf(QuotaExceededException.class);
+        service.reserveQuota(USER_ID, 10).close();
+
+        // when: the upload is abandoned
+        upload.close();
+        upload.close();
+
+        // then: its space is free again, once
+        service.reserveQuota(USER_ID, 60).close();
+        assertThatThrownBy(() -> service.reserveQuota(USER_ID, 61)).isInstanceOf(QuotaExceededException.class);
+    }
+
+    @Test
+    @DisplayName("A reservation closed after its file is applied is counted once")
+    void whenWriteIsApplied_thenUsageReplacesReservation() {
+        try (CrdtService.QuotaReservation reservation = service.reserveQuota(USER_ID, 70)) {
+            storeFile(70);
+        }
+
+        assertThat(service.getStorageUsage(USER_ID).bytes()).isEqualTo(70);
+        service.reserveQuota(USER_ID, 30).close();
+        assertThatThrownBy(() -> service.reserveQuota(USER_ID, 31)).isInstanceOf(QuotaExceededException.class);
+    }
+
+    @Test
+    @DisplayName("Concurrent writes cannot together exceed the quota")
+    void whenWritesRaceForTheLastSpace_thenOnlyWhatFitsIsAdmitted() throws Exception {
+        // given
+        int writers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            // when: eight writers of 30 bytes each race for 100 bytes
+            for (int i = 0; i < writers; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        service.reserveQuota(USER_ID, 30);
+                        return true;
+                    } catch (QuotaExceededException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+
+            // then
+            int admitted = 0;
+            for (Future<Boolean> result : results) {
+                admitted += result.get(10, TimeUnit.SECONDS) ? 1 : 0;
+            }
+            assertThat(admitted).isEqualTo(3);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Without a quota every write is admitted")
+    void whenQuotaIsDisabled_thenNothingIsReserved() {
+        ReflectionTestUtils.setField(service, "userQuota", 0L);
+
+        service.reserveQuota(USER_ID, Long.MAX_VALUE / 2);
+        service.reserveQuota(USER_ID, Long.MAX_VALUE / 2).close();
+    }
+}
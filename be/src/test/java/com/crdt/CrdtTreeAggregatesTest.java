@@ -0,0 +1,149 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.crdt.FolderAggregates;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Folder totals kept by {@link CrdtTree} through
+ * {@link FolderAggregates}: subtrees are detached from their old ancestors
+ * and attached to their new ones.
+ */
+class CrdtTreeAggregatesTest {
+
+    private CrdtTree tree;
+    private long clock;
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+        clock = 0;
+    }
+
+    private CrdtOperation operation(UUID nodeId, UUID parentId, String name, FileNode.FileType type, Long size) {
+        return CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(nodeId)
+                .parentId(parentId)
+                .nodeName(name)
+                .nodeType(type)
+                .fileSize(size)
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build();
+    }
+
+    private UUID folder(String name, UUID parentId) {
+        UUID id = UUID.randomUUID();
+        tree.applyOperation(operation(id, parentId, name, FileNode.FileType.FOLDER, null));
+        return id;
+    }
+
+    private UUID file(String name, UUID parentId, long size) {
+        UUID id = UUID.randomUUID();
+        tree.applyOperation(operation(id, parentId, name, FileNode.FileType.FILE, size));
+        return id;
+    }
+
+    private void move(UUID id, UUID parentId, String name, FileNode.FileType type) {
+        tree.applyOperation(operation(id, parentId, name, type, null));
+    }
+
+    private FolderAggregates.Aggregate aggregate(UUID folderId) {
+        return tree.getFolderAggregate(folderId);
+    }
+
+    @Test
+    @DisplayName("A folder counts the files of its whole subtree")
+    void whenFilesAreNested_thenEveryAncestorCountsThem() {
+        UUID docs = folder("docs", CrdtTree.VIRTUAL_ROOT_ID);
+        UUID reports = folder("reports", docs);
+        file("a.txt", docs, 100);
+        file("b.txt", reports, 250);
+
+        assertThat(aggregate(reports).bytes()).isEqualTo(250);
+        assertThat(aggregate(docs).bytes()).isEqualTo(350);
+        assertThat(aggregate(docs).fileCount()).isEqualTo(2);
+        assertThat(aggregate(CrdtTree.VIRTUAL_ROOT_ID).fileCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Moving a folder takes its totals from the old ancestors to the new ones")
+    void whenFolderMoves_thenTotalsFollowIt() {
+        // given: /docs/reports/b.txt and an empty /archive
+        UUID docs = folder("docs", CrdtTree.VIRTUAL_ROOT_ID);
+        UUID reports = folder("reports", docs);
+        UUID archive = folder("archive", CrdtTree.VIRTUAL_ROOT_ID);
+        file("b.txt", reports, 250);
+
+        // when
+        move(reports, archive, "reports", FileNode.FileType.FOLDER);
+
+        // then
+        assertThat(aggregate(docs).bytes()).isZero();
+        assertThat(aggregate(docs).fileCount()).isZero();
+        assertThat(aggregate(archive).bytes()).isEqualTo(250);
+        assertThat(aggregate(archive).fileCount()).isEqualTo(1);
+        assertThat(aggregate(CrdtTree.VIRTUAL_ROOT_ID).bytes()).isEqualTo(250);
+    }
+
+    @Test
+    @DisplayName("Trashing a folder removes its files from the live tree's totals")
+    void whenFolderIsTrashed_thenRootNoLongerCountsIt() {
+        UUID docs = folder("docs", CrdtTree.VIRTUAL_ROOT_ID);
+        file("a.txt", docs, 100);
+
+        move(docs, CrdtTree.TRASH_ROOT_ID, "docs", FileNode.FileType.FOLDER);
+
+        assertThat(aggregate(CrdtTree.VIRTUAL_ROOT_ID).bytes()).isZero();
+        assertThat(aggregate(CrdtTree.TRASH_ROOT_ID).bytes()).isEqualTo(100);
+        assertThat(aggregate(docs).bytes()).isEqualTo(100);
+    }
+
+    @Test
+    @DisplayName("Totals do not depend on the order in which operations arrive")
+    void whenOperationsArriveLate_thenTotalsMatchInOrderApply() {
+        // given: creates and crossing moves between two folders
+        UUID left = UUID.randomUUID();
+        UUID right = UUID.randomUUID();
+        UUID inner = UUID.randomUUID();
+        List<CrdtOperation> operations = new ArrayList<>();
+        operations.add(operation(left, CrdtTree.VIRTUAL_ROOT_ID, "left", FileNode.FileType.FOLDER, null));
+        operations.add(operation(right, CrdtTree.VIRTUAL_ROOT_ID, "right", FileNode.FileType.FOLDER, null));
+        operations.add(operation(inner, left, "inner", FileNode.FileType.FOLDER, null));
+        operations.add(operation(UUID.randomUUID(), inner, "x.bin", FileNode.FileType.FILE, 40L));
+        operations.add(operation(UUID.randomUUID(), right, "y.bin", FileNode.FileType.FILE, 2L));
+        operations.add(operation(inner, right, "inner", FileNode.FileType.FOLDER, null));
+        // Would create a cycle after the move above, so it is skipped.
+        operations.add(operation(right, inner, "right", FileNode.FileType.FOLDER, null));
+
+        CrdtTree inOrder = new CrdtTree("replica-1");
+        operations.forEach(inOrder::applyOperation);
+
+        // when: the same operations arrive newest first, forcing undo and redo
+        List<CrdtOperation> reversed = new ArrayList<>(operations);
+        Collections.reverse(reversed);
+        reversed.forEach(tree::applyOperation);
+
+        // then: last-modified may differ, intermediate states touched other folders
+        for (UUID folderId : List.of(CrdtTree.VIRTUAL_ROOT_ID, left, right, inner)) {
+            FolderAggregates.Aggregate expected = inOrder.getFolderAggregate(folderId);
+            assertThat(aggregate(folderId).bytes()).isEqualTo(expected.bytes());
+            assertThat(aggregate(folderId).fileCount()).isEqualTo(expected.fileCount());
+        }
+        assertThat(aggregate(right).bytes()).isEqualTo(42);
+        assertThat(aggregate(left).fileCount()).isZero();
+    }
+}
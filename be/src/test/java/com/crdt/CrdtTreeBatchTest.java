@@ -0,0 +1,78 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Batches of creates applied by {@link CrdtTree#applyOperationsIfNameAvailable},
+ * as a folder copy applies them.
+ */
+class CrdtTreeBatchTest {
+
+    private CrdtTree tree;
+    private long clock;
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+        clock = 0;
+    }
+
+    private CrdtOperation create(UUID nodeId, UUID parentId, String name) {
+        return CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(nodeId)
+                .parentId(parentId)
+                .nodeName(name)
+                .nodeType(FileNode.FileType.FOLDER)
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build();
+    }
+
+    @Test
+    @DisplayName("A batch whose root name is free is applied whole")
+    void whenRootNameIsFree_thenBatchIsApplied() {
+        UUID root = UUID.randomUUID();
+        UUID child = UUID.randomUUID();
+
+        tree.applyOperationsIfNameAvailable(List.of(
+                create(root, CrdtTree.VIRTUAL_ROOT_ID, "photos (1)"),
+                create(child, root, "2024")));
+
+        assertThat(tree.getNode(root).getName()).isEqualTo("photos (1)");
+        assertThat(tree.getNode(child).getParentId()).isEqualTo(root);
+    }
+
+    @Test
+    @DisplayName("A batch whose root name was taken after it was chosen is rejected without applying anything")
+    void whenRootNameIsTaken_thenNothingIsApplied() {
+        // given: a folder created under the name the copy picked
+        tree.applyIfNameAvailable(create(UUID.randomUUID(), CrdtTree.VIRTUAL_ROOT_ID, "photos (1)"));
+        UUID root = UUID.randomUUID();
+        UUID child = UUID.randomUUID();
+
+        // when
+        assertThatThrownBy(() -> tree.applyOperationsIfNameAvailable(List.of(
+                create(root, CrdtTree.VIRTUAL_ROOT_ID, "photos (1)"),
+                create(child, root, "2024"))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("already exists");
+
+        // then
+        assertThat(tree.getNode(root)).isNull();
+        assertThat(tree.getNode(child)).isNull();
+        assertThat(tree.getChildrenNamed(CrdtTree.VIRTUAL_ROOT_ID, "photos (1)")).hasSize(1);
+    }
+}
@@ -0,0 +1,140 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Delta responses of {@link CrdtTree#getTreeDelta}, checked against the tree
+ * alone without a database.
+ */
+class CrdtTreeDeltaTest {
+
+    private CrdtTree tree;
+    private long clock;
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+        clock = 0;
+    }
+
+    private UUID create(String name, UUID parentId, FileNode.FileType type) {
+        UUID nodeId = UUID.randomUUID();
+        move(nodeId, parentId, name, type);
+        return nodeId;
+    }
+
+    private void move(UUID nodeId, UUID parentId, String name, FileNode.FileType type) {
+        tree.applyOperation(CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(nodeId)
+                .parentId(parentId)
+                .nodeName(name)
+                .nodeType(type)
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<UUID> upsertedIds(Map<String, Object> delta) {
+        return ((List<Map<String, Object>>) delta.get("upserted")).stream()
+                .map(node -> (UUID) node.get("id"))
+                .toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<UUID> removedIds(Map<String, Object> delta) {
+        return (List<UUID>) delta.get("removed");
+    }
+
+    @Test
+    @DisplayName("Deleting and restoring a folder sends its whole subtree in the delta")
+    void whenFolderIsDeletedAndRestored_thenDeltaCoversDescendants() {
+        // given: /A/B/c.txt
+        UUID a = create("A", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER);
+        UUID b = create("B", a, FileNode.FileType.FOLDER);
+        UUID c = create("c.txt", b, FileNode.FileType.FILE);
+        long beforeDelete = tree.getVersion();
+
+        // when: A goes to the trash
+        move(a, CrdtTree.TRASH_ROOT_ID, "A", FileNode.FileType.FOLDER);
+
+        // then: everything below it is reported as removed
+        Map<String, Object> afterDelete = tree.getTreeDelta(beforeDelete, tree.getEpoch());
+        assertThat(afterDelete.get("full")).isEqualTo(false);
+        assertThat(removedIds(afterDelete)).contains(a, b, c);
+        assertThat(upsertedIds(afterDelete)).doesNotContain(a, b, c);
+
+        // when: A is restored
+        long beforeRestore = tree.getVersion();
+        move(a, CrdtTree.VIRTUAL_ROOT_ID, "A", FileNode.FileType.FOLDER);
+
+        // then: the descendants come back with it, not only A
+        Map<String, Object> afterRestore = tree.getTreeDelta(beforeRestore, tree.getEpoch());
+        assertThat(upsertedIds(afterRestore)).contains(a, b, c);
+        assertThat(removedIds(afterRestore)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Moving a folder between live folders does not resend its subtree")
+    void whenFolderMovesWithinLiveTree_thenDescendantsAreNotJournalled() {
+        UUID a = create("A", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER);
+        UUID target = create("Target", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER);
+        UUID child = create("child.txt", a, FileNode.FileType.FILE);
+        long before = tree.getVersion();
+
+        move(a, target, "A", FileNode.FileType.FOLDER);
+
+        Map<String, Object> delta = tree.getTreeDelta(before, tree.getEpoch());
+        assertThat(upsertedIds(delta)).contains(a, target).doesNotContain(child);
+    }
+
+    @Test
+    @DisplayName("Only the changes after the given version are returned")
+    void whenAskingFromAVersion_thenOnlyLaterChangesAreReturned() {
+        UUID first = create("first", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER);
+        long version = tree.getVersion();
+        UUID second = create("second", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER);
+
+        Map<String, Object> delta = tree.getTreeDelta(version, tree.getEpoch());
+
+        assertThat(upsertedIds(delta)).containsExactly(second).doesNotContain(first);
+        assertThat(delta.get("version")).isEqualTo(tree.getVersion());
+    }
+
+    @Test
+    @DisplayName("A version evicted from the journal gets the full tree")
+    void whenJournalOverflows_thenFullTreeIsReturned() {
+        long start = tree.getVersion();
+        UUID folder = create("folder", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER);
+        for (int i = 0; i < 10_001; i++) {
+            move(folder, CrdtTree.VIRTUAL_ROOT_ID, "folder-" + i, FileNode.FileType.FOLDER);
+        }
+
+        assertThat(tree.getTreeDelta(start, tree.getEpoch()).get("full")).isEqualTo(true);
+        assertThat(tree.getTreeDelta(tree.getVersion() - 1, tree.getEpoch()).get("full")).isEqualTo(false);
+    }
+
+    @Test
+    @DisplayName("A version from another epoch gets the full tree")
+    void whenEpochDiffers_thenFullTreeIsReturned() {
+        create("folder", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER);
+
+        Map<String, Object> delta = tree.getTreeDelta(0, "another-epoch");
+
+        assertThat(delta.get("full")).isEqualTo(true);
+        assertThat(delta).containsKey("nodes");
+    }
+}
@@ -0,0 +1,121 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Sibling name checks of {@link CrdtTree#applyIfNameAvailable}, and how
+ * duplicates that replicas create concurrently are told apart.
+ */
+class CrdtTreeDuplicateNameTest {
+
+    private CrdtTree tree;
+    private final AtomicLong clock = new AtomicLong();
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+    }
+
+    private CrdtOperation create(UUID nodeId, String name, String replicaId, long timestamp) {
+        return CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(nodeId)
+                .parentId(CrdtTree.VIRTUAL_ROOT_ID)
+                .nodeName(name)
+                .nodeType(FileNode.FileType.FILE)
+                .replicaId(replicaId)
+                .timestamp(timestamp)
+                .build();
+    }
+
+    @Test
+    @DisplayName("Of many concurrent local creates under one name, exactly one is applied")
+    void whenLocalCreatesRace_thenOnlyOneGetsTheName() throws Exception {
+        // given
+        int writers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            // when
+            for (int i = 0; i < writers; i++) {
+                results.add(executor.submit(() -> {
+                    CrdtOperation op = create(UUID.randomUUID(), "report.pdf", "replica-1", clock.incrementAndGet());
+                    start.await();
+                    try {
+                        tree.applyIfNameAvailable(op);
+                        return true;
+                    } catch (IllegalArgumentException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+
+            // then
+            int applied = 0;
+            for (Future<Boolean> result : results) {
+                applied += result.get(10, TimeUnit.SECONDS) ? 1 : 0;
+            }
+            assertThat(applied).isEqualTo(1);
+            assertThat(tree.getChildrenNamed(null, "report.pdf")).hasSize(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("A node may keep its own name, but not take a sibling's")
+    void whenRenamingOntoASibling_thenItIsRejected() {
+        // given
+        UUID report = UUID.randomUUID();
+        tree.applyIfNameAvailable(create(report, "report.pdf", "replica-1", clock.incrementAndGet()));
+        UUID notes = UUID.randomUUID();
+        tree.applyIfNameAvailable(create(notes, "notes.pdf", "replica-1", clock.incrementAndGet()));
+
+        // then
+        tree.applyIfNameAvailable(create(report, "report.pdf", "replica-1", clock.incrementAndGet()));
+        assertThatThrownBy(() -> tree.applyIfNameAvailable(
+                create(notes, "report.pdf", "replica-1", clock.incrementAndGet())))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("already exists");
+        assertThat(tree.getNode(notes).getName()).isEqualTo("notes.pdf");
+    }
+
+    @Test
+    @DisplayName("Duplicates from other replicas keep the name on the first created and a suffix on the rest")
+    void whenReplicasCreateTheSameName_thenTheFirstCreatedKeepsIt() {
+        // given: replica-2 created its file first, but it arrives last
+        UUID local = UUID.randomUUID();
+        UUID remote = UUID.randomUUID();
+        tree.applyOperation(create(local, "report.pdf", "replica-1", 20));
+        tree.applyOperation(create(remote, "report.pdf", "replica-2", 10));
+
+        // when: the local one is later renamed in place, which must not reorder them
+        tree.applyOperation(create(local, "report.pdf", "replica-1", 30));
+
+        // then
+        assertThat(tree.getDisplayName(tree.getNode(remote))).isEqualTo("report.pdf");
+        assertThat(tree.getDisplayName(tree.getNode(local))).isEqualTo("report (replica-1).pdf");
+        assertThat(tree.resolvePath("report.pdf").getId()).isEqualTo(remote);
+    }
+}
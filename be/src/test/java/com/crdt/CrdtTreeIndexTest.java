@@ -0,0 +1,135 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.crdt.TreeNode;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Folder and owner listings of {@link CrdtTree}, served from its children
+ * and owner indexes, as nodes are created, moved and trashed.
+ */
+class CrdtTreeIndexTest {
+
+    private static final UUID OWNER = UUID.randomUUID();
+    private static final UUID OTHER_OWNER = UUID.randomUUID();
+
+    private CrdtTree tree;
+    private long clock;
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+        clock = 0;
+    }
+
+    private CrdtOperation.CrdtOperationBuilder operation(UUID nodeId, UUID parentId, String name, long timestamp) {
+        return CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(nodeId)
+                .parentId(parentId)
+                .nodeName(name)
+                .replicaId("replica-1")
+                .timestamp(timestamp);
+    }
+
+    private UUID create(UUID parentId, String name, FileNode.FileType type, UUID ownerId) {
+        UUID id = UUID.randomUUID();
+        tree.applyOperation(operation(id, parentId, name, ++clock).nodeType(type).ownerId(ownerId).build());
+        return id;
+    }
+
+    private void move(UUID id, UUID parentId, String name) {
+        tree.applyOperation(operation(id, parentId, name, ++clock).build());
+    }
+
+    private static List<String> names(List<TreeNode> nodes) {
+        return nodes.stream().map(TreeNode::getName).toList();
+    }
+
+    @Test
+    @DisplayName("A folder lists its visible children in name order, following moves and trash")
+    void whenNodesMove_thenFolderListingsFollow() {
+        // given
+        UUID docs = create(null, "docs", FileNode.FileType.FOLDER, OWNER);
+        UUID archive = create(null, "archive", FileNode.FileType.FOLDER, OWNER);
+        UUID report = create(docs, "report.pdf", FileNode.FileType.FILE, OWNER);
+        create(docs, "b.txt", FileNode.FileType.FILE, OWNER);
+        UUID draft = create(docs, "a.txt", FileNode.FileType.FILE, OWNER);
+
+        // when
+        move(report, archive, "2024-report.pdf");
+        move(draft, CrdtTree.TRASH_ROOT_ID, "a.txt");
+
+        // then
+        assertThat(names(tree.getChildren(docs))).containsExactly("b.txt");
+        assertThat(names(tree.getChildren(archive))).containsExactly("2024-report.pdf");
+        assertThat(names(tree.getChildren(null))).containsExactly("archive", "docs");
+    }
+
+    @Test
+    @DisplayName("An owner's listing holds their visible nodes only, whatever folder they are in")
+    void whenNodesAreOwnedByDifferentUsers_thenEachSeesTheirOwn() {
+        // given
+        UUID shared = create(null, "shared", FileNode.FileType.FOLDER, OWNER);
+        UUID mine = create(shared, "mine.txt", FileNode.FileType.FILE, OWNER);
+        create(shared, "theirs.txt", FileNode.FileType.FILE, OTHER_OWNER);
+        UUID gone = create(null, "gone.txt", FileNode.FileType.FILE, OWNER);
+
+        // when: a move carries no owner, and must not clear it
+        move(mine, null, "mine.txt");
+        move(gone, CrdtTree.TRASH_ROOT_ID, "gone.txt");
+
+        // then
+        assertThat(names(tree.getNodesByOwner(OWNER))).containsExactly("mine.txt", "shared");
+        assertThat(names(tree.getNodesByOwner(OTHER_OWNER))).containsExactly("theirs.txt");
+        assertThat(tree.getNodesByOwner(UUID.randomUUID())).isEmpty();
+    }
+
+    @Test
+    @DisplayName("A late operation that reorders the log leaves the listings as if applied in order")
+    void whenOperationArrivesLate_thenListingsMatchTheConvergedTree() {
+        // given: a file moved to b at 30
+        UUID a = create(null, "a", FileNode.FileType.FOLDER, OWNER);
+        UUID b = create(null, "b", FileNode.FileType.FOLDER, OWNER);
+        UUID file = create(a, "file.txt", FileNode.FileType.FILE, OWNER);
+        tree.applyOperation(operation(file, b, "file.txt", 30).build());
+
+        // when: an earlier rename, undone and redone under the later move
+        tree.applyOperation(operation(file, a, "renamed.txt", 20).build());
+
+        // then: the move at 30 wins
+        assertThat(tree.getChildren(a)).isEmpty();
+        assertThat(names(tree.getChildren(b))).containsExactly("file.txt");
+        assertThat(names(tree.getNodesByOwner(OWNER))).containsExactly("a", "b", "file.txt");
+    }
+
+    @Test
+    @DisplayName("Nodes created without an owner are listed once backfilled from their persisted state")
+    void whenOwnerIsBackfilled_thenNodeIsListedForIt() {
+        // given
+        UUID legacy = create(null, "legacy.txt", FileNode.FileType.FILE, null);
+        assertThat(tree.getNodesByOwner(OWNER)).isEmpty();
+        TreeNode persisted = new TreeNode();
+        persisted.setId(legacy);
+        persisted.setOwnerId(OWNER);
+        persisted.setFileSize(42L);
+
+        // when
+        int updated = tree.backfillMetadata(List.of(persisted));
+
+        // then
+        assertThat(updated).isEqualTo(1);
+        assertThat(names(tree.getNodesByOwner(OWNER))).containsExactly("legacy.txt");
+        assertThat(tree.getNode(legacy).getFileSize()).isEqualTo(42L);
+    }
+}
@@ -0,0 +1,120 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The tree document streamed by {@link CrdtTree#writeTreeStructure},
+ * checked against the map built by {@link CrdtTree#getTreeStructure}.
+ */
+class CrdtTreeJsonTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private CrdtTree tree;
+    private long clock;
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+        clock = 0;
+    }
+
+    private UUID create(UUID parentId, String name, FileNode.FileType type) {
+        UUID id = UUID.randomUUID();
+        tree.applyOperation(CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(id)
+                .parentId(parentId)
+                .nodeName(name)
+                .nodeType(type)
+                .fileSize(type == FileNode.FileType.FILE ? 10L : null)
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build());
+        return id;
+    }
+
+    private void move(UUID id, UUID parentId, String name) {
+        tree.applyOperation(CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(id)
+                .parentId(parentId)
+                .nodeName(name)
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build());
+    }
+
+    private JsonNode streamed() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            tree.writeTreeStructure(generator);
+        }
+        return objectMapper.readTree(out.toByteArray());
+    }
+
+    /** Round-trips through bytes so numbers are typed as the parser types them. */
+    private JsonNode built() throws Exception {
+        return objectMapper.readTree(objectMapper.writeValueAsBytes(tree.getTreeStructure()));
+    }
+
+    @Test
+    @DisplayName("The streamed tree is the same document as the built one")
+    void whenTreeIsStreamed_thenItMatchesTheBuiltStructure() throws Exception {
+        // given: nested folders, files, and a trashed folder with content
+        UUID docs = create(null, "docs", FileNode.FileType.FOLDER);
+        UUID reports = create(docs, "reports", FileNode.FileType.FOLDER);
+        create(reports, "q1.pdf", FileNode.FileType.FILE);
+        create(docs, "a.txt", FileNode.FileType.FILE);
+        UUID old = create(null, "old", FileNode.FileType.FOLDER);
+        create(old, "b.txt", FileNode.FileType.FILE);
+        move(old, CrdtTree.TRASH_ROOT_ID, "old");
+
+        // then
+        assertThat(streamed()).isEqualTo(built());
+    }
+
+    @Test
+    @DisplayName("Only visible nodes are streamed, each folder's children in name order")
+    void whenTreeIsStreamed_thenChildrenAreNestedInNameOrder() throws Exception {
+        // given
+        UUID docs = create(null, "docs", FileNode.FileType.FOLDER);
+        create(docs, "b.txt", FileNode.FileType.FILE);
+        create(docs, "a.txt", FileNode.FileType.FILE);
+        UUID trashed = create(docs, "c.txt", FileNode.FileType.FILE);
+        move(trashed, CrdtTree.TRASH_ROOT_ID, "c.txt");
+
+        // when
+        JsonNode document = streamed();
+
+        // then
+        JsonNode nodes = document.get("nodes");
+        assertThat(nodes).hasSize(1);
+        assertThat(nodes.get(0).get("name").asText()).isEqualTo("docs");
+        assertThat(nodes.get(0).get("children")).extracting(child -> child.get("name").asText())
+                .containsExactly("a.txt", "b.txt");
+        assertThat(document.get("version").asLong()).isEqualTo(tree.getVersion());
+    }
+
+    @Test
+    @DisplayName("An empty tree is streamed as an empty node list")
+    void whenTreeIsEmpty_thenNoNodesAreStreamed() throws Exception {
+        JsonNode document = streamed();
+
+        assertThat(document.get("nodes")).isEmpty();
+        assertThat(document.get("replicaId").asText()).isEqualTo("replica-1");
+    }
+}
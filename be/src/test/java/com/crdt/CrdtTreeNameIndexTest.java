@@ -0,0 +1,109 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.crdt.TreeNode;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Name lookups and path resolution of {@link CrdtTree} through its
+ * per-parent name index.
+ */
+class CrdtTreeNameIndexTest {
+
+    private CrdtTree tree;
+    private long clock;
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+        clock = 0;
+    }
+
+    private UUID create(UUID parentId, String name, FileNode.FileType type) {
+        UUID id = UUID.randomUUID();
+        tree.applyOperation(CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(id)
+                .parentId(parentId)
+                .nodeName(name)
+                .nodeType(type)
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build());
+        return id;
+    }
+
+    private void move(UUID id, UUID parentId, String name) {
+        tree.applyOperation(CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(id)
+                .parentId(parentId)
+                .nodeName(name)
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build());
+    }
+
+    private UUID idOf(String path) {
+        TreeNode node = tree.resolvePath(path);
+        return node != null ? node.getId() : null;
+    }
+
+    @Test
+    @DisplayName("A path resolves segment by segment, ignoring empty segments")
+    void whenPathExists_thenItResolvesToTheNode() {
+        // given
+        UUID docs = create(null, "docs", FileNode.FileType.FOLDER);
+        UUID reports = create(docs, "reports", FileNode.FileType.FOLDER);
+        UUID q1 = create(reports, "q1.pdf", FileNode.FileType.FILE);
+        create(null, "reports", FileNode.FileType.FOLDER);
+
+        // then
+        assertThat(idOf("docs/reports/q1.pdf")).isEqualTo(q1);
+        assertThat(idOf("/docs//reports/")).isEqualTo(reports);
+        assertThat(idOf("docs/q1.pdf")).isNull();
+        assertThat(idOf("docs/Reports")).isNull();
+        assertThat(idOf("")).isNull();
+    }
+
+    @Test
+    @DisplayName("Renames, moves and trash are reflected in lookups")
+    void whenNodesChange_thenLookupsFollow() {
+        // given
+        UUID docs = create(null, "docs", FileNode.FileType.FOLDER);
+        UUID archive = create(null, "archive", FileNode.FileType.FOLDER);
+        UUID report = create(docs, "draft.txt", FileNode.FileType.FILE);
+        UUID notes = create(docs, "notes.txt", FileNode.FileType.FILE);
+
+        // when
+        move(report, archive, "report.txt");
+        move(notes, CrdtTree.TRASH_ROOT_ID, "notes.txt");
+
+        // then
+        assertThat(tree.getChildrenNamed(docs, "draft.txt")).isEmpty();
+        assertThat(tree.getChildrenNamed(archive, "report.txt")).extracting(TreeNode::getId).containsExactly(report);
+        assertThat(idOf("archive/report.txt")).isEqualTo(report);
+        assertThat(idOf("docs/notes.txt")).isNull();
+    }
+
+    @Test
+    @DisplayName("Nodes attached to the root explicitly or without a parent are found under it alike")
+    void whenNodeIsAtTheRoot_thenItIsFoundEitherWay() {
+        UUID implicit = create(null, "a", FileNode.FileType.FOLDER);
+        UUID explicit = create(CrdtTree.VIRTUAL_ROOT_ID, "b", FileNode.FileType.FOLDER);
+
+        assertThat(tree.getChildrenNamed(null, "b")).extracting(TreeNode::getId).containsExactly(explicit);
+        assertThat(tree.getChildrenNamed(CrdtTree.VIRTUAL_ROOT_ID, "a")).extracting(TreeNode::getId)
+                .containsExactly(implicit);
+        assertThat(idOf("b")).isEqualTo(explicit);
+    }
+}
@@ -0,0 +1,109 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Name search of {@link CrdtTree}: matching, ranking and the candidate cap.
+ */
+class CrdtTreeSearchTest {
+
+    private CrdtTree tree;
+    private long clock;
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+        clock = 0;
+    }
+
+    private CrdtOperation operation(UUID nodeId, UUID parentId, String name, FileNode.FileType type) {
+        return CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(nodeId)
+                .parentId(parentId)
+                .nodeName(name)
+                .nodeType(type)
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build();
+    }
+
+    private UUID create(String name, UUID parentId, FileNode.FileType type) {
+        UUID nodeId = UUID.randomUUID();
+        tree.applyOperation(operation(nodeId, parentId, name, type));
+        return nodeId;
+    }
+
+    private List<UUID> search(String query) {
+        return tree.search(query, 50).stream().map(hit -> hit.node().getId()).toList();
+    }
+
+    @Test
+    @DisplayName("Every word of the query must prefix a word of the name")
+    void whenQueryHasSeveralWords_thenAllMustMatch() {
+        UUID report = create("Q3-Report_final.pdf", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FILE);
+        create("Q3-Budget.xlsx", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FILE);
+
+        assertThat(search("rep fin")).containsExactly(report);
+        assertThat(search("q3 pdf")).containsExactly(report);
+        assertThat(search("report draft")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Shallower matches rank first, then the most recently changed")
+    void whenSeveralNodesMatch_thenShallowAndRecentComeFirst() {
+        UUID olderAtRoot = create("notes", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FILE);
+        UUID folder = create("projects", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER);
+        UUID nested = create("notes", folder, FileNode.FileType.FILE);
+        UUID newerAtRoot = create("notes-2024", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FILE);
+
+        List<CrdtTree.SearchHit> hits = tree.search("notes", 50);
+
+        assertThat(hits).extracting(hit -> hit.node().getId()).containsExactly(newerAtRoot, olderAtRoot, nested);
+        assertThat(hits.get(2).path()).isEqualTo("/projects/notes");
+        assertThat(hits.get(2).depth()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Nodes in the trash are not found")
+    void whenFolderIsTrashed_thenItsContentIsNotFound() {
+        UUID folder = create("archive", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER);
+        create("invoice.pdf", folder, FileNode.FileType.FILE);
+        assertThat(search("invoice")).hasSize(1);
+
+        tree.applyOperation(operation(folder, CrdtTree.TRASH_ROOT_ID, "archive", FileNode.FileType.FOLDER));
+
+        assertThat(search("invoice")).isEmpty();
+        assertThat(search("archive")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Trashed matches do not use up the candidate cap")
+    void whenManyMatchesAreTrashed_thenVisibleMatchIsStillFound() {
+        // given: far more trashed matches than the cap, and one visible match
+        UUID bin = UUID.randomUUID();
+        List<CrdtOperation> creates = new ArrayList<>();
+        creates.add(operation(bin, CrdtTree.VIRTUAL_ROOT_ID, "bin", FileNode.FileType.FOLDER));
+        for (int i = 0; i < 30_000; i++) {
+            creates.add(operation(UUID.randomUUID(), bin, "draft " + i, FileNode.FileType.FILE));
+        }
+        tree.applyOperations(creates);
+        tree.applyOperation(operation(bin, CrdtTree.TRASH_ROOT_ID, "bin", FileNode.FileType.FOLDER));
+        UUID visible = create("draft final", CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FILE);
+
+        // then: the visible match is ranked however the index orders the candidates
+        assertThat(search("draft")).containsExactly(visible);
+    }
+}
@@ -0,0 +1,97 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Causal stability and snapshot installation of {@link CrdtTree}, with the
+ * snapshot handed from one tree to another directly.
+ */
+class CrdtTreeSnapshotTest {
+
+    private static CrdtOperation create(String replicaId, long timestamp, String name) {
+        return CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(UUID.randomUUID())
+                .parentId(CrdtTree.VIRTUAL_ROOT_ID)
+                .nodeName(name)
+                .nodeType(FileNode.FileType.FOLDER)
+                .replicaId(replicaId)
+                .timestamp(timestamp)
+                .build();
+    }
+
+    private static void install(CrdtTree target, CrdtTree source) {
+        CrdtTree.Snapshot snapshot = source.snapshot();
+        target.installSnapshot(snapshot.nodes(), snapshot.unstableLog(), snapshot.vectorClock());
+    }
+
+    @Test
+    @DisplayName("Nothing is stable until every configured replica has been heard from")
+    void whenConfiguredReplicaIsSilent_thenStableTimestampStaysAtZero() {
+        // given
+        CrdtTree tree = new CrdtTree("replica-1", List.of("replica-1", "replica-2"));
+
+        // when
+        tree.applyOperation(create("replica-1", 50, "a"));
+
+        // then
+        assertThat(tree.getStableTimestamp()).isZero();
+        tree.applyOperation(create("replica-2", 30, "b"));
+        assertThat(tree.getStableTimestamp()).isEqualTo(30);
+    }
+
+    @Test
+    @DisplayName("Operations the snapshot has not seen are applied whatever their timestamp")
+    void whenSnapshotIsInstalled_thenUnseenOperationsAreStillApplied() {
+        // given: a source that only knows itself, so its whole log is stable
+        CrdtTree source = new CrdtTree("replica-1");
+        source.applyOperation(create("replica-1", 10, "a"));
+        source.applyOperation(create("replica-1", 20, "b"));
+        assertThat(source.snapshot().stableTimestamp()).isEqualTo(20);
+        CrdtTree joiner = new CrdtTree("replica-2");
+
+        // when
+        install(joiner, source);
+        CrdtOperation ownUnsynced = create("replica-2", 5, "own");
+        CrdtOperation fromUnknownReplica = create("replica-3", 15, "other");
+
+        // then: both are below the snapshot's stable timestamp, yet not in it
+        assertThat(joiner.applyOperation(ownUnsynced)).isNotNull();
+        assertThat(joiner.applyOperation(fromUnknownReplica)).isNotNull();
+        assertThat(joiner.getNode(ownUnsynced.getNodeId())).isNotNull();
+        assertThat(joiner.getNode(fromUnknownReplica.getNodeId())).isNotNull();
+        assertThat(joiner.getAllNodes()).hasSize(4);
+    }
+
+    @Test
+    @DisplayName("Operations the snapshot reflects, or holds in its log, are not applied again")
+    void whenCoveredOperationIsRedelivered_thenItIsIgnored() {
+        // given: replica-2 has not delivered past 15, so the source keeps 20 in its log
+        CrdtTree source = new CrdtTree("replica-1", List.of("replica-1", "replica-2"));
+        CrdtOperation stable = create("replica-1", 10, "a");
+        CrdtOperation unstable = create("replica-1", 20, "b");
+        source.applyOperation(stable);
+        source.applyOperation(create("replica-2", 15, "c"));
+        source.applyOperation(unstable);
+        assertThat(source.snapshot().unstableLog()).extracting(CrdtOperation::getId).containsExactly(unstable.getId());
+        CrdtTree joiner = new CrdtTree("replica-3");
+
+        // when
+        install(joiner, source);
+
+        // then
+        assertThat(joiner.applyOperation(stable)).isNull();
+        assertThat(joiner.applyOperation(unstable)).isNull();
+        assertThat(joiner.getAllNodes()).hasSize(3);
+    }
+}
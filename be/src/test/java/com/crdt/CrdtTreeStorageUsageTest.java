@@ -0,0 +1,124 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.crdt.StorageUsage;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Per-owner usage counters kept by {@link CrdtTree} as operations are
+ * applied, checked against a full recount.
+ */
+class CrdtTreeStorageUsageTest {
+
+    private static final UUID OWNER = UUID.randomUUID();
+    private static final UUID OTHER_OWNER = UUID.randomUUID();
+
+    private CrdtTree tree;
+    private long clock;
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+        clock = 0;
+    }
+
+    private CrdtOperation operation(UUID nodeId, UUID parentId, FileNode.FileType type, Long size, UUID ownerId,
+            long timestamp) {
+        return CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(nodeId)
+                .parentId(parentId)
+                .nodeName("node-" + nodeId)
+                .nodeType(type)
+                .fileSize(size)
+                .ownerId(ownerId)
+                .replicaId("replica-1")
+                .timestamp(timestamp)
+                .build();
+    }
+
+    private UUID file(UUID parentId, long size, UUID ownerId) {
+        UUID id = UUID.randomUUID();
+        tree.applyOperation(operation(id, parentId, FileNode.FileType.FILE, size, ownerId, ++clock));
+        return id;
+    }
+
+    private void move(UUID id, UUID parentId) {
+        tree.applyOperation(operation(id, parentId, FileNode.FileType.FILE, null, null, ++clock));
+    }
+
+    /** The counters must always agree with a recount from the nodes. */
+    private void assertNoDrift() {
+        assertThat(tree.reconcileStorageUsage()).isZero();
+    }
+
+    @Test
+    @DisplayName("Files are charged to their owner until purged, trash included")
+    void whenFileMovesThroughTrash_thenItIsChargedUntilPurged() {
+        // given
+        UUID folder = UUID.randomUUID();
+        tree.applyOperation(operation(folder, CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER, null, OWNER,
+                ++clock));
+        UUID report = file(folder, 300, OWNER);
+        file(folder, 50, OTHER_OWNER);
+
+        // then: folders cost nothing, files are charged to their own owner
+        assertThat(tree.getStorageUsage(OWNER)).isEqualTo(new StorageUsage(300, 1));
+        assertThat(tree.getStorageUsage(OTHER_OWNER)).isEqualTo(new StorageUsage(50, 1));
+
+        // when: trashed and restored, the file still takes up space
+        move(report, CrdtTree.TRASH_ROOT_ID);
+        assertThat(tree.getStorageUsage(OWNER)).isEqualTo(new StorageUsage(300, 1));
+        move(report, folder);
+        assertThat(tree.getStorageUsage(OWNER)).isEqualTo(new StorageUsage(300, 1));
+
+        // when: purged from the trash
+        move(report, CrdtTree.TRASH_ROOT_ID);
+        move(report, CrdtTree.PURGED_ROOT_ID);
+
+        // then
+        assertThat(tree.getStorageUsage(OWNER)).isEqualTo(StorageUsage.NONE);
+        assertNoDrift();
+    }
+
+    @Test
+    @DisplayName("Operations applied out of order leave the counters as a recount would")
+    void whenOperationArrivesLate_thenCountersMatchRecount() {
+        // given: a file trashed and purged, then a late create ordered before both
+        UUID report = UUID.randomUUID();
+        tree.applyOperation(operation(report, CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FILE, 300L, OWNER, 10));
+        tree.applyOperation(operation(report, CrdtTree.TRASH_ROOT_ID, FileNode.FileType.FILE, null, null, 20));
+        UUID late = UUID.randomUUID();
+
+        // when
+        tree.applyOperation(operation(late, CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FILE, 70L, OWNER, 15));
+        tree.applyOperation(operation(report, CrdtTree.PURGED_ROOT_ID, FileNode.FileType.FILE, null, null, 30));
+
+        // then
+        assertThat(tree.getStorageUsage(OWNER)).isEqualTo(new StorageUsage(70, 1));
+        assertNoDrift();
+    }
+
+    @Test
+    @DisplayName("A batch of creates, as a copy applies them, is charged in full")
+    void whenBatchIsApplied_thenEveryFileIsCharged() {
+        UUID folder = UUID.randomUUID();
+        tree.applyOperations(List.of(
+                operation(folder, CrdtTree.VIRTUAL_ROOT_ID, FileNode.FileType.FOLDER, null, OWNER, ++clock),
+                operation(UUID.randomUUID(), folder, FileNode.FileType.FILE, 10L, OWNER, ++clock),
+                operation(UUID.randomUUID(), folder, FileNode.FileType.FILE, 20L, OWNER, ++clock)));
+
+        assertThat(tree.getStorageUsage(OWNER)).isEqualTo(new StorageUsage(30, 2));
+        assertNoDrift();
+    }
+}
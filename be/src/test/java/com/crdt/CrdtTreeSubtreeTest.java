@@ -0,0 +1,147 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+
+/**
+ * Keyset pagination and depth limits of {@link CrdtTree#getSubtree}.
+ */
+class CrdtTreeSubtreeTest {
+
+    private CrdtTree tree;
+    private long clock;
+
+    @BeforeEach
+    void createTree() {
+        tree = new CrdtTree("replica-1");
+        clock = 0;
+    }
+
+    private UUID create(UUID parentId, String name, FileNode.FileType type) {
+        UUID id = UUID.randomUUID();
+        tree.applyOperation(CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(id)
+                .parentId(parentId)
+                .nodeName(name)
+                .nodeType(type)
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build());
+        return id;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> nodesOf(Map<String, Object> page) {
+        return (List<Map<String, Object>>) page.get("nodes");
+    }
+
+    private static List<Object> namesOf(List<Map<String, Object>> nodes) {
+        return nodes.stream().map(node -> node.get("name")).toList();
+    }
+
+    @Test
+    @DisplayName("Following the cursor pages through every child once, in name order")
+    void whenChildrenArePaged_thenEachIsReturnedOnce() {
+        // given
+        UUID folder = create(null, "docs", FileNode.FileType.FOLDER);
+        for (String name : List.of("e.txt", "a.txt", "d.txt", "b.txt", "c.txt")) {
+            create(folder, name, FileNode.FileType.FILE);
+        }
+
+        // when
+        List<Object> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            Map<String, Object> page = tree.getSubtree(folder, 1, 2, cursor);
+            names.addAll(namesOf(nodesOf(page)));
+            cursor = (String) page.get("nextCursor");
+            pages++;
+        } while (cursor != null);
+
+        // then
+        assertThat(names).containsExactly("a.txt", "b.txt", "c.txt", "d.txt", "e.txt");
+        assertThat(pages).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("A child added before the cursor does not shift the following pages")
+    void whenChildIsAddedBeforeCursor_thenNextPageIsUnaffected() {
+        // given: the first page has been read
+        UUID folder = create(null, "docs", FileNode.FileType.FOLDER);
+        for (String name : List.of("b.txt", "c.txt", "d.txt", "e.txt")) {
+            create(folder, name, FileNode.FileType.FILE);
+        }
+        String cursor = (String) tree.getSubtree(folder, 1, 2, null).get("nextCursor");
+
+        // when
+        create(folder, "a.txt", FileNode.FileType.FILE);
+
+        // then
+        assertThat(namesOf(nodesOf(tree.getSubtree(folder, 1, 2, cursor)))).containsExactly("d.txt", "e.txt");
+    }
+
+    @Test
+    @DisplayName("Levels below the depth are only flagged, and the node limit covers the whole response")
+    void whenDepthAndLimitAreReached_thenSubtreeIsCutShort() {
+        // given: docs/{a/{x, y, z}, b/{w}}
+        UUID docs = create(null, "docs", FileNode.FileType.FOLDER);
+        UUID a = create(docs, "a", FileNode.FileType.FOLDER);
+        UUID b = create(docs, "b", FileNode.FileType.FOLDER);
+        create(a, "x", FileNode.FileType.FILE);
+        create(a, "y", FileNode.FileType.FILE);
+        create(a, "z", FileNode.FileType.FILE);
+        create(b, "w", FileNode.FileType.FILE);
+
+        // when: one level only
+        List<Map<String, Object>> shallow = nodesOf(tree.getSubtree(docs, 1, 100, null));
+
+        // then
+        assertThat(namesOf(shallow)).containsExactly("a", "b");
+        assertThat(shallow.get(0)).containsEntry("hasChildren", true).doesNotContainKey("children");
+
+        // when: two levels, but room for four nodes
+        List<Map<String, Object>> limited = nodesOf(tree.getSubtree(docs, 2, 4, null));
+
+        // then: both folders, then what is left of the budget goes depth-first
+        assertThat(namesOf(limited)).containsExactly("a", "b");
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> underA = (List<Map<String, Object>>) limited.get(0).get("children");
+        assertThat(namesOf(underA)).containsExactly("x", "y");
+        assertThat(limited.get(0)).containsKey("childrenCursor");
+        assertThat(limited.get(1)).containsEntry("hasChildren", true).doesNotContainKey("children");
+    }
+
+    @Test
+    @DisplayName("A missing or trashed root yields no page, and a malformed cursor is rejected")
+    void whenRootOrCursorIsInvalid_thenNothingIsReturned() {
+        UUID folder = create(null, "old", FileNode.FileType.FOLDER);
+        tree.applyOperation(CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(folder)
+                .parentId(CrdtTree.TRASH_ROOT_ID)
+                .nodeName("old")
+                .replicaId("replica-1")
+                .timestamp(++clock)
+                .build());
+
+        assertThat(tree.getSubtree(UUID.randomUUID(), 1, 10, null)).isNull();
+        assertThat(tree.getSubtree(folder, 1, 10, null)).isNull();
+        assertThatThrownBy(() -> tree.getSubtree(null, 1, 10, "not-a-cursor"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
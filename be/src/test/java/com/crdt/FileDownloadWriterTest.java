@@ -0,0 +1,136 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crdt.service.FileDownloadWriter;
+import com.crdt.storage.BlobReadCache;
+import com.crdt.storage.BlobStore;
+
+/**
+ * Range handling of {@link FileDownloadWriter}, against a mocked blob store
+ * serving {@code 0123456789}.
+ */
+class FileDownloadWriterTest {
+
+    private static final String PLAIN = "/blobs/ab/abcd";
+    private static final String COMPRESSED = "/blobs/ab/abcd" + BlobStore.GZIP_SUFFIX;
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+    private static final String ETAG = "\"10-1\"";
+
+    private BlobStore blobStore;
+    private FileDownloadWriter writer;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @BeforeEach
+    void createWriter() throws Exception {
+        blobStore = mock(BlobStore.class);
+        when(blobStore.stat(PLAIN)).thenReturn(new BlobStore.BlobInfo(CONTENT.length, 1_000_000L));
+        // The compressed blob is smaller than its content.
+        when(blobStore.stat(COMPRESSED)).thenReturn(new BlobStore.BlobInfo(4, 1_000_000L));
+        for (String location : new String[] { PLAIN, COMPRESSED }) {
+            when(blobStore.openContent(eq(location), anyLong(), anyLong())).thenAnswer(invocation -> {
+                int offset = (int) (long) invocation.getArgument(1, Long.class);
+                long length = invocation.getArgument(2, Long.class);
+                int end = (int) Math.min(CONTENT.length, offset + length);
+                return new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, offset, end));
+            });
+        }
+        writer = new FileDownloadWriter(blobStore, mock(BlobReadCache.class));
+        ReflectionTestUtils.setField(writer, "sendfileThreshold", 1_048_576L);
+        request = new MockHttpServletRequest("GET", "/api/files/1/download");
+        response = new MockHttpServletResponse();
+    }
+
+    private void download(String location, Long size) throws Exception {
+        writer.write(location, null, size, ETAG, "digits.txt", "text/plain", request, response);
+    }
+
+    @Test
+    @DisplayName("A single range is answered with 206 and only its bytes")
+    void whenSingleRangeIsRequested_thenPartialContentIsSent() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+
+        download(PLAIN, (long) CONTENT.length);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+    }
+
+    @Test
+    @DisplayName("Several ranges are sent as multipart/byteranges")
+    void whenSeveralRangesAreRequested_thenEachIsSentAsAPart() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,7-");
+
+        download(PLAIN, (long) CONTENT.length);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentType()).startsWith("multipart/byteranges; boundary=");
+        String body = response.getContentAsString();
+        assertThat(body).contains("Content-Range: bytes 0-1/10\r\n\r\n01")
+                .contains("Content-Range: bytes 7-9/10\r\n\r\n789");
+    }
+
+    @Test
+    @DisplayName("A range is ignored when If-Range names an older version")
+    void whenIfRangeIsStale_thenWholeFileIsSent() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"9-0\"");
+
+        download(PLAIN, (long) CONTENT.length);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo("0123456789");
+    }
+
+    @Test
+    @DisplayName("A range is served when If-Range names the current version")
+    void whenIfRangeMatches_thenRangeIsSent() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=-3");
+        request.addHeader(HttpHeaders.IF_RANGE, ETAG);
+
+        download(PLAIN, (long) CONTENT.length);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsString()).isEqualTo("789");
+    }
+
+    @Test
+    @DisplayName("Ranges of a compressed blob use the recorded size instead of decoding the blob")
+    void whenCompressedBlobIsRequestedInRanges_thenRecordedSizeIsUsed() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=8-");
+
+        download(COMPRESSED, (long) CONTENT.length);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 8-9/10");
+        assertThat(response.getContentAsString()).isEqualTo("89");
+        verify(blobStore, never()).openContent(COMPRESSED, 0, Long.MAX_VALUE);
+    }
+
+    @Test
+    @DisplayName("A compressed blob without a recorded size is refused")
+    void whenCompressedBlobHasNoSize_thenWriteFails() {
+        assertThatThrownBy(() -> download(COMPRESSED, null)).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,99 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.crdt.controller.FileController;
+import com.crdt.service.BulkCopyService;
+import com.crdt.service.CrdtService;
+import com.crdt.service.FileService;
+import com.crdt.service.TreeJsonCache;
+import com.crdt.service.UploadSessionService;
+
+/**
+ * Conditional reads of the file tree through {@link FileController}: the
+ * entity tag comes from {@link TreeJsonCache}, which is mocked.
+ */
+class FileTreeEtagTest {
+
+    private static final String ETAG_V1 = "\"epoch-1\"";
+    private static final String ETAG_V2 = "\"epoch-2\"";
+
+    private TreeJsonCache treeJsonCache;
+    private FileController controller;
+
+    @BeforeEach
+    void createController() throws Exception {
+        treeJsonCache = mock(TreeJsonCache.class);
+        when(treeJsonCache.currentEtag()).thenReturn(ETAG_V1);
+        when(treeJsonCache.get()).thenReturn(new TreeJsonCache.CachedTree(ETAG_V1,
+                "{\"nodes\":[]}".getBytes(StandardCharsets.UTF_8)));
+        controller = new FileController(mock(FileService.class), mock(CrdtService.class), treeJsonCache,
+                mock(UploadSessionService.class), mock(BulkCopyService.class));
+    }
+
+    private record Exchange(ResponseEntity<?> entity, MockHttpServletResponse response) {
+    }
+
+    private Exchange getTree(String ifNoneMatch) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/files/tree");
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ResponseEntity<?> entity = controller.getFileTree(null, null, null, new ServletWebRequest(request, response));
+        return new Exchange(entity, response);
+    }
+
+    @Test
+    @DisplayName("The tree is served with the entity tag of its version")
+    void whenTreeIsRead_thenItCarriesTheVersionTag() throws Exception {
+        Exchange exchange = getTree(null);
+
+        assertThat(exchange.entity().getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(exchange.entity().getHeaders().getETag()).isEqualTo(ETAG_V1);
+        assertThat(new String((byte[]) exchange.entity().getBody(), StandardCharsets.UTF_8))
+                .isEqualTo("{\"nodes\":[]}");
+    }
+
+    @Test
+    @DisplayName("A client holding the current tag gets 304 without the tree being serialized")
+    void whenTagMatches_thenNotModifiedIsReturned() throws Exception {
+        Exchange exchange = getTree(ETAG_V1);
+
+        assertThat(exchange.entity()).isNull();
+        assertThat(exchange.response().getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED.value());
+        verify(treeJsonCache, never()).get();
+    }
+
+    @Test
+    @DisplayName("A client holding the tag of an older version gets the current tree")
+    void whenTreeChangedSinceTag_thenTreeIsReturned() throws Exception {
+        // given: a write moved the tree to the next version
+        when(treeJsonCache.currentEtag()).thenReturn(ETAG_V2);
+        when(treeJsonCache.get()).thenReturn(new TreeJsonCache.CachedTree(ETAG_V2,
+                "{\"nodes\":[{}]}".getBytes(StandardCharsets.UTF_8)));
+
+        // when
+        Exchange exchange = getTree(ETAG_V1);
+
+        // then
+        assertThat(exchange.entity().getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(exchange.entity().getHeaders().getETag()).isEqualTo(ETAG_V2);
+    }
+}
@@ -0,0 +1,137 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.crdt.crdt.TreeNode;
+import com.crdt.model.FileNode;
+import com.crdt.repository.FileNodeRepository;
+import com.crdt.service.CrdtService;
+import com.crdt.service.FolderArchiveWriter;
+import com.crdt.storage.BlobStore;
+
+/**
+ * Entry naming of {@link FolderArchiveWriter}, read back from the streamed
+ * archive. The tree, the rows and the blobs are mocked.
+ */
+class FolderArchiveWriterTest {
+
+    private CrdtService crdtService;
+    private BlobStore blobStore;
+    private FolderArchiveWriter writer;
+    private final Map<UUID, List<TreeNode>> children = new LinkedHashMap<>();
+    private final List<FileNode> rows = new ArrayList<>();
+
+    @BeforeEach
+    void createWriter() {
+        crdtService = mock(CrdtService.class);
+        blobStore = mock(BlobStore.class);
+        FileNodeRepository fileNodeRepository = mock(FileNodeRepository.class);
+        when(crdtService.getDisplayName(any())).thenAnswer(invocation -> invocation.getArgument(0, TreeNode.class)
+                .getName());
+        when(crdtService.getChildren(any())).thenAnswer(invocation -> children.getOrDefault(invocation.getArgument(0),
+                List.of()));
+        when(fileNodeRepository.findAllById(any())).thenAnswer(invocation -> rows);
+        writer = new FolderArchiveWriter(crdtService, fileNodeRepository, blobStore);
+    }
+
+    private TreeNode node(String name, TreeNode parent, FileNode.FileType type) {
+        TreeNode node = new TreeNode(UUID.randomUUID(), parent != null ? parent.getId() : null, name, type, null,
+                "replica-1", false, null, null, "text/plain", null);
+        if (parent != null) {
+            children.computeIfAbsent(parent.getId(), id -> new ArrayList<>()).add(node);
+        }
+        return node;
+    }
+
+    private TreeNode file(String name, TreeNode parent, String content) throws Exception {
+        TreeNode node = node(name, parent, FileNode.FileType.FILE);
+        String location = "/blobs/" + node.getId();
+        FileNode row = new FileNode();
+        row.setId(node.getId());
+        row.setFilePath(location);
+        row.setFileSize((long) content.length());
+        rows.add(row);
+        when(blobStore.openContent(eq(location), eq(0L), anyLong()))
+                .thenReturn(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        return node;
+    }
+
+    private static Map<String, String> entries(MockHttpServletResponse response) throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(response.getContentAsByteArray()),
+                StandardCharsets.UTF_8)) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    @DisplayName("Entries are named by their path below the archived folder")
+    void whenFolderIsNested_thenEntriesCarryRelativePaths() throws Exception {
+        // given: docs/{readme.txt, notes/todo.txt}
+        TreeNode docs = node("docs", null, FileNode.FileType.FOLDER);
+        file("readme.txt", docs, "hello");
+        TreeNode notes = node("notes", docs, FileNode.FileType.FOLDER);
+        file("todo.txt", notes, "buy milk");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // when
+        writer.write(docs, response);
+
+        // then
+        assertThat(response.getHeader(HttpHeaders.CONTENT_DISPOSITION)).contains("docs.zip");
+        assertThat(entries(response)).containsOnlyKeys("notes/", "readme.txt", "notes/todo.txt")
+                .containsEntry("readme.txt", "hello")
+                .containsEntry("notes/todo.txt", "buy milk");
+    }
+
+    @Test
+    @DisplayName("Separators and relative segments in names cannot escape the archive")
+    void whenNamesContainSeparatorsOrDots_thenTheyAreReplaced() throws Exception {
+        TreeNode root = node("root", null, FileNode.FileType.FOLDER);
+        TreeNode up = node("..", root, FileNode.FileType.FOLDER);
+        file("passwd", up, "x");
+        file("a/b\\c.txt", root, "y");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        writer.write(root, response);
+
+        assertThat(entries(response)).containsOnlyKeys("_/", "_/passwd", "a_b_c.txt");
+    }
+
+    @Test
+    @DisplayName("Files without stored content are left out")
+    void whenContentIsMissing_thenFileIsSkipped() throws Exception {
+        TreeNode root = node("root", null, FileNode.FileType.FOLDER);
+        file("kept.txt", root, "k");
+        node("pending.txt", root, FileNode.FileType.FILE);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        writer.write(root, response);
+
+        assertThat(entries(response)).containsOnlyKeys("kept.txt");
+    }
+}
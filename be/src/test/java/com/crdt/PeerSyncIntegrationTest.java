@@ -0,0 +1,260 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import com.crdt.crdt.TreeNode;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+import com.crdt.model.User;
+import com.crdt.repository.CrdtOperationRepository;
+import com.crdt.repository.FileNodeRepository;
+import com.crdt.repository.UserRepository;
+import com.crdt.service.CrdtService;
+import com.crdt.service.PeerSyncService;
+
+/**
+ * Runs several full application contexts in one JVM, each with its own
+ * database and its own Redis, so the only path between replicas is the peer
+ * sync endpoint.
+ */
+@Testcontainers
+class PeerSyncIntegrationTest {
+
+    private static final String PEER_TOKEN = "peer-sync-test-token";
+    private static final List<String> REPLICA_IDS = List.of("peer-a", "peer-b", "peer-c");
+
+    @Container
+    private static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    @Container
+    private static final GenericContainer<?> redisA = redis();
+    @Container
+    private static final GenericContainer<?> redisB = redis();
+    @Container
+    private static final GenericContainer<?> redisC = redis();
+
+    private static final List<Replica> replicas = new ArrayList<>();
+
+    private static GenericContainer<?> redis() {
+        return new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+    }
+
+    private record Replica(String id, ConfigurableApplicationContext context, String baseUrl, User user) {
+
+        CrdtService crdt() {
+            return context.getBean(CrdtService.class);
+        }
+
+        PeerSyncService peerSync() {
+            return context.getBean(PeerSyncService.class);
+        }
+
+        int pullFrom(Replica other) {
+            return peerSync().pullFrom(other.baseUrl());
+        }
+
+        void bootstrapFrom(Replica other) {
+            peerSync().bootstrapFrom(other.baseUrl());
+        }
+    }
+
+    @BeforeAll
+    static void startReplicas() throws Exception {
+        List<GenericContainer<?>> redisContainers = List.of(redisA, redisB, redisC);
+        for (int i = 0; i < REPLICA_IDS.size(); i++) {
+            String replicaId = REPLICA_IDS.get(i);
+            String database = replicaId.replace('-', '_');
+            try (Connection connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(),
+                    postgres.getPassword()); Statement statement = connection.createStatement()) {
+                statement.execute("CREATE DATABASE " + database);
+            }
+            String jdbcUrl = "jdbc:postgresql://" + postgres.getHost() + ":"
+                    + postgres.getMappedPort(PostgreSQLContainer.POSTGRESQL_PORT) + "/" + database;
+            GenericContainer<?> redis = redisContainers.get(i);
+
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(CrdtFileSystemApplication.class)
+                    .properties(
+                            "server.port=0",
+                            "spring.datasource.url=" + jdbcUrl,
+                            "spring.datasource.username=" + postgres.getUsername(),
+                            "spring.datasource.password=" + postgres.getPassword(),
+                            "spring.data.redis.host=" + redis.getHost(),
+                            "spring.data.redis.port=" + redis.getFirstMappedPort(),
+                            "spring.jmx.enabled=false",
+                            "crdt.replica.id=" + replicaId,
+                            "crdt.sync.peer-token=" + PEER_TOKEN,
+                            "crdt.sync.replica-ids=" + String.join(",", REPLICA_IDS),
+                            "crdt.sync.persist-remote-operations=true",
+                            // Small pages so a single pull has to walk several of them
+                            "crdt.sync.batch-size=2",
+                            "file.storage.path=" + Files.createTempDirectory(replicaId))
+                    .run();
+
+            String port = context.getEnvironment().getProperty("local.server.port");
+            User user = context.getBean(UserRepository.class)
+                    .save(new User(null, "user-" + replicaId, replicaId + "@test.com", "password", "Peer", "User",
+                            true, null, null));
+            replicas.add(new Replica(replicaId, context, "http://localhost:" + port + "/api", user));
+        }
+    }
+
+    @AfterAll
+    static void stopReplicas() {
+        replicas.forEach(replica -> replica.context().close());
+    }
+
+    private static Replica replica(int index) {
+        return replicas.get(index);
+    }
+
+    private static UUID createFolder(Replica replica, String name, UUID parentId) {
+        return replica.crdt().createFolder(name, parentId, replica.user().getId()).getFileNode().getId();
+    }
+
+    /** Two full rounds are enough for every op to reach every replica transitively. */
+    private static void syncAll() {
+        for (int round = 0; round < 2; round++) {
+            for (Replica target : replicas) {
+                for (Replica source : replicas) {
+                    if (target != source) {
+                        target.pullFrom(source);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<UUID, String> visibleState(Replica replica) {
+        return replica.crdt().getNodes().stream()
+                .collect(Collectors.toMap(TreeNode::getId,
+                        node -> node.getParentId() + "/" + node.getName() + "/" + node.isDeleted()));
+    }
+
+    private static void assertConverged() {
+        Map<UUID, String> expected = visibleState(replica(0));
+        for (Replica replica : replicas) {
+            assertThat(visibleState(replica)).isEqualTo(expected);
+            assertThat(replica.crdt().getVectorClock().keySet()).containsAll(REPLICA_IDS);
+        }
+    }
+
+    @Test
+    @DisplayName("Replicas with separate databases converge through peer pulls")
+    void whenReplicasPullFromEachOther_thenTheyConverge() {
+        UUID folderA = createFolder(replica(0), "A-root", null);
+        for (int i = 0; i < 5; i++) {
+            createFolder(replica(0), "A-child-" + i, folderA);
+        }
+        UUID folderB = createFolder(replica(1), "B-root", null);
+        createFolder(replica(2), "C-root", null);
+
+        syncAll();
+        assertConverged();
+
+        // Every replica persisted what it received in its own database.
+        for (Replica replica : replicas) {
+            FileNodeRepository files = replica.context().getBean(FileNodeRepository.class);
+            assertThat(files.findById(folderA)).isPresent();
+            assertThat(files.findById(folderB)).isPresent();
+            CrdtOperationRepository operations = replica.context().getBean(CrdtOperationRepository.class);
+            assertThat(operations.findDistinctReplicaIds()).containsAll(REPLICA_IDS);
+        }
+
+        // A second pull has nothing left to transfer.
+        assertThat(replica(1).pullFrom(replica(0))).isZero();
+    }
+
+    @Test
+    @DisplayName("Concurrent moves made on isolated replicas resolve identically everywhere")
+    void whenConcurrentMovesAreExchanged_thenHighestTimestampWins() {
+        UUID target1 = createFolder(replica(0), "Target-1", null);
+        UUID target2 = createFolder(replica(0), "Target-2", null);
+        UUID movable = createFolder(replica(0), "Movable", null);
+        syncAll();
+
+        CrdtOperation move1 = replica(1).crdt().moveFile(movable, target1).getOperation();
+        CrdtOperation move2 = replica(2).crdt().moveFile(movable, target2).getOperation();
+
+        syncAll();
+        assertConverged();
+
+        UUID winner = move1.getTimestamp() > move2.getTimestamp() ? target1 : target2;
+        for (Replica replica : replicas) {
+            assertThat(replica.crdt().getNode(movable).getParentId()).isEqualTo(winner);
+            FileNode persisted = replica.context().getBean(FileNodeRepository.class).findById(movable).orElseThrow();
+            assertThat(persisted.getParentId()).isEqualTo(winner);
+        }
+    }
+
+    @Test
+    @DisplayName("A replica bootstrapped from a snapshot keeps the operations the snapshot has not seen")
+    void whenReplicaWithLocalOperationsIsBootstrapped_thenTheyAreKept() {
+        // given: peer-c made changes peer-a has not pulled yet
+        syncAll();
+        UUID shared = createFolder(replica(0), "Shared", null);
+        UUID localOnly = createFolder(replica(2), "Local-only", null);
+        UUID localChild = createFolder(replica(2), "Local-child", localOnly);
+
+        // when
+        replica(2).bootstrapFrom(replica(0));
+
+        // then: the snapshot's state plus the local operations, in the tree and the database
+        assertThat(replica(2).crdt().getNode(shared)).isNotNull();
+        assertThat(replica(2).crdt().getNode(localOnly)).isNotNull();
+        assertThat(replica(2).crdt().getNode(localChild).getParentId()).isEqualTo(localOnly);
+        assertThat(replica(2).context().getBean(FileNodeRepository.class).findById(localChild)).isPresent();
+
+        // and: they still reach the other replicas
+        syncAll();
+        assertConverged();
+        assertThat(replica(0).crdt().getNode(localChild)).isNotNull();
+    }
+
+    @Test
+    @DisplayName("A pull that is behind the peer's compaction horizon installs the peer's snapshot")
+    void whenPullIsBehindCompactionHorizon_thenSnapshotIsInstalled() {
+        // given: peer-a has an operation every replica has delivered past, except that
+        // peer-b never pulled it; peer-c is bootstrapped from peer-a, so the operation
+        // is below peer-c's horizon and not in its log
+        syncAll();
+        UUID early = createFolder(replica(0), "Early", null);
+        createFolder(replica(1), "From-b", null);
+        createFolder(replica(2), "From-c", null);
+        replica(0).pullFrom(replica(1));
+        replica(0).pullFrom(replica(2));
+        assertThat(replica(0).crdt().getStableTimestamp())
+                .isGreaterThanOrEqualTo(replica(0).crdt().getNode(early).getTimestamp());
+        replica(2).bootstrapFrom(replica(0));
+        assertThat(replica(2).crdt().getCompactionHorizon()).isPositive();
+
+        // when
+        replica(1).pullFrom(replica(2));
+
+        // then
+        assertThat(replica(1).crdt().getNode(early)).isNotNull();
+        syncAll();
+        assertConverged();
+    }
+}
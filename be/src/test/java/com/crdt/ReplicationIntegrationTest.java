@@ -28,6 +28,7 @@ import com.crdt.model.CrdtOperation;
 import com.crdt.model.FileNode;
 import com.crdt.repository.CrdtOperationRepository;
 import com.crdt.repository.FileNodeRepository;
+import com.crdt.repository.ReplicaStateRepository;
 import com.crdt.repository.UserRepository;
 import com.crdt.service.CrdtService;
 import com.crdt.service.CrdtServiceResult;
@@ -64,6 +65,8 @@ class ReplicationIntegrationTest {
     @Autowired
     private CrdtOperationRepository crdtOperationRepository;
     @Autowired
+    private ReplicaStateRepository replicaStateRepository;
+    @Autowired
     private UserRepository userRepository;
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
@@ -99,7 +102,7 @@ class ReplicationIntegrationTest {
         CrdtService service = new CrdtService(
                 fileNodeRepository,
                 crdtOperationRepository,
-                null, // replicaStateRepository not needed for this test logic
+                replicaStateRepository,
                 userRepository,
                 redisTemplate,
                 eventPublisher,
@@ -0,0 +1,132 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import com.crdt.storage.BlobStore;
+import com.crdt.storage.LocalBlobStore;
+import com.crdt.storage.S3BlobStore;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+
+/**
+ * Runs the S3 blob store against MinIO, with parts small enough that every
+ * transfer below is split into several of them.
+ */
+@Testcontainers
+class S3BlobStoreIntegrationTest {
+
+    private static final String BUCKET = "blobs-test";
+    private static final String ACCESS_KEY = "minio-test";
+    private static final String SECRET_KEY = "minio-test-secret";
+    private static final int PART_SIZE = (int) S3BlobStore.MIN_PART_SIZE;
+
+    @Container
+    private static final GenericContainer<?> minio = new GenericContainer<>(DockerImageName.parse("minio/minio"))
+            .withEnv("MINIO_ROOT_USER", ACCESS_KEY)
+            .withEnv("MINIO_ROOT_PASSWORD", SECRET_KEY)
+            .withCommand("server", "/data")
+            .withExposedPorts(9000);
+
+    private static S3Client client;
+    private static S3BlobStore store;
+
+    @BeforeAll
+    static void createStore() throws Exception {
+        client = S3Client.builder()
+                .endpointOverride(URI.create("http://" + minio.getHost() + ":" + minio.getFirstMappedPort()))
+                .region(Region.US_EAST_1)
+                .forcePathStyle(true)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(ACCESS_KEY, SECRET_KEY)))
+                .build();
+        client.createBucket(CreateBucketRequest.builder().bucket(BUCKET).build());
+        LocalBlobStore localStore = new LocalBlobStore(Files.createTempDirectory("s3-staging").toString());
+        store = new S3BlobStore(client, BUCKET, "test", PART_SIZE, 4, localStore);
+    }
+
+    @AfterAll
+    static void closeStore() {
+        store.close();
+    }
+
+    @Test
+    @DisplayName("A multipart upload is stored under its SHA-256 and identical content is stored once")
+    void storesMultipartUploadsByHash() throws Exception {
+        byte[] content = randomBytes(3 * PART_SIZE + 12345, 1);
+
+        BlobStore.StoredBlob first = store.store(new ByteArrayInputStream(content));
+        BlobStore.StoredBlob second = store.store(new ByteArrayInputStream(content));
+
+        assertThat(first.hash()).isEqualTo(sha256(content));
+        assertThat(first.size()).isEqualTo(content.length);
+        assertThat(second.path()).isEqualTo(first.path());
+        assertThat(store.stat(first.path()).size()).isEqualTo(content.length);
+        // The staging objects used while the hash was unknown are gone.
+        assertThat(client.listObjectsV2(ListObjectsV2Request.builder().bucket(BUCKET).prefix("test/tmp/").build())
+                .contents()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("A range spanning several parts is downloaded in parallel and read back in order")
+    void readsRangesAcrossParts() throws Exception {
+        byte[] content = randomBytes(4 * PART_SIZE, 2);
+        BlobStore.StoredBlob blob = store.store(new ByteArrayInputStream(content));
+
+        long offset = PART_SIZE / 2;
+        int length = 2 * PART_SIZE + 777;
+        byte[] read;
+        try (InputStream in = store.openRange(blob.path(), offset, length)) {
+            read = in.readAllBytes();
+        }
+
+        assertThat(read).isEqualTo(Arrays.copyOfRange(content, (int) offset, (int) offset + length));
+    }
+
+    @Test
+    @DisplayName("An assembled upload file is uploaded in parts and the local copy removed")
+    void adoptsAssembledFiles() throws Exception {
+        byte[] content = randomBytes(2 * PART_SIZE + 1, 3);
+        Path temp = store.createTempFile();
+        Files.write(temp, content);
+
+        BlobStore.StoredBlob blob = store.adopt(temp, sha256(content), content.length);
+
+        assertThat(Files.exists(temp)).isFalse();
+        try (InputStream in = store.openRange(blob.path(), 0, content.length)) {
+            assertThat(sha256(in.readAllBytes())).isEqualTo(blob.hash());
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
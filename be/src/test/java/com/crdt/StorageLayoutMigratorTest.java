@@ -0,0 +1,123 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crdt.repository.FileNodeRepository;
+import com.crdt.storage.LocalBlobStore;
+import com.crdt.storage.StorageLayoutMigrator;
+
+/**
+ * Moving files of the flat and pre-content-addressing layouts into the
+ * hashed layout with {@link StorageLayoutMigrator}.
+ */
+class StorageLayoutMigratorTest {
+
+    @TempDir
+    Path storage;
+
+    private LocalBlobStore blobStore;
+    private FileNodeRepository fileNodeRepository;
+    private StorageLayoutMigrator migrator;
+
+    /** Paths the repository still reports as outside the hashed layout. */
+    private final Set<String> unsharded = new LinkedHashSet<>();
+
+    @BeforeEach
+    void createMigrator() {
+        blobStore = new LocalBlobStore(storage.toString());
+        fileNodeRepository = mock(FileNodeRepository.class);
+        when(fileNodeRepository.findUnshardedFilePaths(any(Pageable.class)))
+                .thenAnswer(invocation -> {
+                    Pageable page = invocation.getArgument(0);
+                    return new ArrayList<>(unsharded).stream().limit(page.getPageSize()).toList();
+                });
+        when(fileNodeRepository.relocateFilePath(anyString(), anyString(), anyString()))
+                .thenAnswer(invocation -> unsharded.remove(invocation.<String>getArgument(0)) ? 1 : 0);
+
+        migrator = new StorageLayoutMigrator(blobStore, fileNodeRepository);
+        ReflectionTestUtils.setField(migrator, "enabled", true);
+        ReflectionTestUtils.setField(migrator, "batchSize", 1);
+        ReflectionTestUtils.setField(migrator, "pauseMs", 0L);
+    }
+
+    private Path write(Path file, String content) throws Exception {
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, content, StandardCharsets.UTF_8);
+    }
+
+    private void migrate() {
+        ReflectionTestUtils.invokeMethod(migrator, "migrate");
+    }
+
+    @Test
+    @DisplayName("Flat blobs and legacy uploads are moved under their hash, and the old files removed")
+    void whenFilesAreOutsideTheHashedLayout_thenTheyAreMoved() throws Exception {
+        // given: one blob of the flat layout, one upload named before content addressing
+        Path legacy = write(storage.resolve("uploads").resolve("report.pdf"), "quarterly report");
+        String legacyHash = LocalBlobStore.hashOf(legacy);
+        Path notes = storage.resolve("notes.tmp");
+        write(notes, "meeting notes");
+        String flatHash = LocalBlobStore.hashOf(notes);
+        Path flat = storage.resolve("blobs").resolve(flatHash);
+        Files.move(notes, flat);
+        unsharded.addAll(List.of(legacy.toString(), flat.toString()));
+
+        // when
+        migrate();
+
+        // then
+        assertThat(unsharded).isEmpty();
+        verify(fileNodeRepository, atLeastOnce())
+                .relocateFilePath(legacy.toString(), blobStore.pathOf(legacyHash).toString(), legacyHash);
+        verify(fileNodeRepository, atLeastOnce())
+                .relocateFilePath(flat.toString(), blobStore.pathOf(flatHash).toString(), flatHash);
+        assertThat(Files.readString(blobStore.pathOf(legacyHash))).isEqualTo("quarterly report");
+        assertThat(Files.readString(blobStore.pathOf(flatHash))).isEqualTo("meeting notes");
+        assertThat(legacy).doesNotExist();
+        assertThat(flat).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("A missing file is skipped, even when it fills a whole batch, without stopping the files after it")
+    void whenFileIsMissing_thenItIsSkipped() throws Exception {
+        // given
+        Path missing = storage.resolve("uploads").resolve("gone.pdf");
+        Path present = write(storage.resolve("uploads").resolve("kept.pdf"), "kept");
+        String hash = LocalBlobStore.hashOf(present);
+        unsharded.addAll(List.of(missing.toString(), present.toString()));
+
+        // when
+        migrate();
+
+        // then
+        assertThat(unsharded).containsExactly(missing.toString());
+        verify(fileNodeRepository, never()).relocateFilePath(eq(missing.toString()), anyString(), anyString());
+        verify(fileNodeRepository, atLeastOnce())
+                .relocateFilePath(present.toString(), blobStore.pathOf(hash).toString(), hash);
+        assertThat(Files.readString(blobStore.pathOf(hash))).isEqualTo("kept");
+        assertThat(present).doesNotExist();
+    }
+}
@@ -0,0 +1,227 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crdt.crdt.CrdtTree;
+import com.crdt.crdt.TreeNode;
+import com.crdt.model.CrdtOperation;
+import com.crdt.model.FileNode;
+import com.crdt.repository.FileNodeRepository;
+import com.crdt.service.CrdtService;
+import com.crdt.service.TrashSweeper;
+import com.crdt.storage.BlobReadCache;
+import com.crdt.storage.BlobStore;
+import com.crdt.storage.LocalBlobStore;
+import com.crdt.util.HybridLogicalClock;
+
+/**
+ * Trash retention and blob garbage collection of {@link TrashSweeper}, with
+ * blobs in a {@link LocalBlobStore} on a temporary directory.
+ */
+class TrashSweeperTest {
+
+    private static final long GRACE_PERIOD_MS = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    Path storage;
+
+    private CrdtService crdtService;
+    private FileNodeRepository fileNodeRepository;
+    private LocalBlobStore blobStore;
+    private TrashSweeper sweeper;
+
+    @BeforeEach
+    void createSweeper() {
+        crdtService = mock(CrdtService.class);
+        fileNodeRepository = mock(FileNodeRepository.class);
+        blobStore = new LocalBlobStore(storage.toString());
+        when(crdtService.getReplicaId()).thenReturn("replica-1");
+        when(crdtService.getStableTimestamp()).thenReturn(Long.MAX_VALUE);
+        sweeper = new TrashSweeper(crdtService, fileNodeRepository, blobStore, mock(BlobReadCache.class));
+        ReflectionTestUtils.setField(sweeper, "retentionDays", 30);
+        ReflectionTestUtils.setField(sweeper, "purgeBatchSize", 500);
+        ReflectionTestUtils.setField(sweeper, "gcEnabled", true);
+        ReflectionTestUtils.setField(sweeper, "gcGracePeriodMs", GRACE_PERIOD_MS);
+        ReflectionTestUtils.setField(sweeper, "gcBatchSize", 1000);
+        ReflectionTestUtils.setField(sweeper, "gcMaxDeletes", 10_000);
+        ReflectionTestUtils.setField(sweeper, "peers", List.of());
+        ReflectionTestUtils.setField(sweeper, "replicaIds", List.of());
+    }
+
+    private BlobStore.StoredBlob store(String content, long ageMs) throws Exception {
+        BlobStore.StoredBlob blob = blobStore.store(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        Files.setLastModifiedTime(Path.of(blob.path()), FileTime.fromMillis(System.currentTimeMillis() - ageMs));
+        return blob;
+    }
+
+    private static long daysAgo(long days) {
+        return new HybridLogicalClock(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days), 0).asLong();
+    }
+
+    private static CrdtOperation move(UUID nodeId, UUID parentId, String replicaId, long timestamp) {
+        return CrdtOperation.builder()
+                .id(UUID.randomUUID())
+                .nodeId(nodeId)
+                .parentId(parentId)
+                .nodeName("report.pdf")
+                .nodeType(FileNode.FileType.FILE)
+                .replicaId(replicaId)
+                .timestamp(timestamp)
+                .build();
+    }
+
+    private static TreeNode trashed(String replicaId, long daysAgo) {
+        long deletedAt = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(daysAgo);
+        return new TreeNode(UUID.randomUUID(), CrdtTree.TRASH_ROOT_ID, "old", FileNode.FileType.FILE,
+                new HybridLogicalClock(deletedAt, 0).asLong(), replicaId, true, null, 1L, null, 1L);
+    }
+
+    @Test
+    @DisplayName("Only unreferenced blobs older than the grace period are deleted")
+    void whenGarbageIsCollected_thenReferencedAndRecentBlobsAreKept() throws Exception {
+        // given
+        ReflectionTestUtils.setField(sweeper, "retentionDays", 0);
+        BlobStore.StoredBlob orphan = store("orphan", 2 * GRACE_PERIOD_MS);
+        BlobStore.StoredBlob referenced = store("referenced", 2 * GRACE_PERIOD_MS);
+        // Stored just now, its node not saved yet.
+        BlobStore.StoredBlob recent = store("recent", 0);
+        when(fileNodeRepository.findReferencedFilePaths(any())).thenReturn(List.of(referenced.path()));
+
+        // when
+        sweeper.sweep();
+
+        // then
+        assertThat(Path.of(orphan.path())).doesNotExist();
+        assertThat(Path.of(referenced.path())).exists();
+        assertThat(Path.of(recent.path())).exists();
+    }
+
+    @Test
+    @DisplayName("Nodes past the retention period are purged with their subtree")
+    void whenRetentionHasPassed_thenSubtreeIsPurged() {
+        // given
+        ReflectionTestUtils.setField(sweeper, "gcEnabled", false);
+        TreeNode expired = trashed("replica-1", 31);
+        TreeNode recent = trashed("replica-1", 10);
+        TreeNode child = trashed("replica-1", 31);
+        when(crdtService.getTrashedNodes()).thenReturn(List.of(expired, recent));
+        when(crdtService.getSubtreeNodes(expired.getId())).thenReturn(List.of(child, expired));
+
+        // when
+        sweeper.sweep();
+
+        // then
+        verify(crdtService).purgeNode(child.getId());
+        verify(crdtService).purgeNode(expired.getId());
+        verify(crdtService, never()).purgeNode(recent.getId());
+        verify(fileNodeRepository).releasePurgedContent(CrdtTree.PURGED_ROOT_ID, Long.MAX_VALUE);
+    }
+
+    @Test
+    @DisplayName("Another replica's deletion is left to it until twice the retention period")
+    void whenAnotherReplicaDeleted_thenItPurgesFirst() {
+        ReflectionTestUtils.setField(sweeper, "gcEnabled", false);
+        TreeNode pending = trashed("replica-2", 45);
+        TreeNode abandoned = trashed("replica-2", 61);
+        when(crdtService.getTrashedNodes()).thenReturn(List.of(pending, abandoned));
+        when(crdtService.getSubtreeNodes(abandoned.getId())).thenReturn(List.of(abandoned));
+
+        sweeper.sweep();
+
+        verify(crdtService, never()).purgeNode(pending.getId());
+        verify(crdtService).purgeNode(abandoned.getId());
+    }
+
+    @Test
+    @DisplayName("A deletion that is not yet causally stable is not purged")
+    void whenDeletionIsNotStable_thenNothingIsPurged() {
+        ReflectionTestUtils.setField(sweeper, "gcEnabled", false);
+        TreeNode expired = trashed("replica-1", 31);
+        when(crdtService.getStableTimestamp()).thenReturn(expired.getTimestamp() - 1);
+        when(crdtService.getTrashedNodes()).thenReturn(List.of(expired));
+
+        sweeper.sweep();
+
+        verify(crdtService, never()).purgeNode(any());
+        verify(fileNodeRepository).releasePurgedContent(any(), anyLong());
+    }
+
+    @Test
+    @DisplayName("With peers but no replica list, nothing is purged")
+    void whenReplicaListIsMissing_thenNothingIsPurged() {
+        ReflectionTestUtils.setField(sweeper, "gcEnabled", false);
+        ReflectionTestUtils.setField(sweeper, "peers", List.of("http://replica-2:8080/api"));
+        when(crdtService.getTrashedNodes()).thenReturn(List.of(trashed("replica-1", 31)));
+
+        sweeper.sweep();
+
+        verify(crdtService, never()).getTrashedNodes();
+        verify(crdtService, never()).purgeNode(any());
+    }
+
+    @Test
+    @DisplayName("A concurrent restore that arrives after the purge wins, and the content is kept until it could")
+    void whenConcurrentRestoreArrivesAfterPurge_thenNodeIsRestored() {
+        // given: a file deleted on replica-1, with replica-2 configured but silent
+        ReflectionTestUtils.setField(sweeper, "gcEnabled", false);
+        CrdtTree tree = new CrdtTree("replica-1", List.of("replica-1", "replica-2"));
+        UUID folder = UUID.randomUUID();
+        UUID file = UUID.randomUUID();
+        tree.applyOperation(move(folder, CrdtTree.VIRTUAL_ROOT_ID, "replica-1", daysAgo(40)));
+        tree.applyOperation(move(file, folder, "replica-1", daysAgo(40) + 1));
+        tree.applyOperation(move(file, CrdtTree.TRASH_ROOT_ID, "replica-1", daysAgo(31)));
+        when(crdtService.getStableTimestamp()).thenAnswer(invocation -> tree.getStableTimestamp());
+        when(crdtService.getTrashedNodes()).thenAnswer(invocation -> tree.getTrashedNodes());
+        when(crdtService.getSubtreeNodes(any())).thenAnswer(invocation -> tree.getSubtreeNodes(invocation
+                .getArgument(0)));
+        long purgedAt = daysAgo(0);
+        when(crdtService.purgeNode(any())).thenAnswer(invocation -> {
+            tree.applyOperation(move(invocation.getArgument(0), CrdtTree.PURGED_ROOT_ID, "replica-1", purgedAt));
+            return null;
+        });
+
+        // when: replica-2 has not delivered anything yet
+        sweeper.sweep();
+
+        // then
+        verify(crdtService, never()).purgeNode(any());
+
+        // when: replica-2 delivers past the deletion, but not the restore it made after it
+        tree.applyOperation(move(UUID.randomUUID(), CrdtTree.VIRTUAL_ROOT_ID, "replica-2", daysAgo(30)));
+        sweeper.sweep();
+
+        // then: the file is purged, but its content is not released while replica-2 lags behind the purge
+        verify(crdtService).purgeNode(file);
+        assertThat(tree.getNode(file).getParentId()).isEqualTo(CrdtTree.PURGED_ROOT_ID);
+        verify(fileNodeRepository, never()).releasePurgedContent(any(), longThat(stable -> stable >= purgedAt));
+
+        // when: the restore, ordered before the purge, arrives
+        tree.applyOperation(move(file, folder, "replica-2", daysAgo(29)));
+
+        // then: the purge no longer applies to the file
+        assertThat(tree.getNode(file).getParentId()).isEqualTo(folder);
+        assertThat(tree.getNode(file).isDeleted()).isFalse();
+    }
+}
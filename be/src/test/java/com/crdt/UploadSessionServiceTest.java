@@ -0,0 +1,202 @@
+package com.crdt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crdt.exception.FileTooLargeException;
+import com.crdt.model.FileNode;
+import com.crdt.service.CrdtService;
+import com.crdt.service.CrdtServiceResult;
+import com.crdt.service.UploadSessionService;
+import com.crdt.storage.BlobStore;
+import com.crdt.storage.CompressionPolicy;
+import com.crdt.storage.LocalBlobStore;
+
+/**
+ * Resumable uploads of {@link UploadSessionService} into a
+ * {@link LocalBlobStore} on a temporary directory; the CRDT side is mocked.
+ */
+class UploadSessionServiceTest {
+
+    private static final long CHUNK_SIZE = UploadSessionService.MIN_CHUNK_SIZE;
+    private static final UUID USER_ID = UUID.randomUUID();
+
+    @TempDir
+    Path storage;
+
+    private LocalBlobStore blobStore;
+    private CrdtService crdtService;
+    private CrdtService.QuotaReservation reservation;
+    private UploadSessionService service;
+
+    @BeforeEach
+    void createService() {
+        blobStore = new LocalBlobStore(storage.toString());
+        crdtService = mock(CrdtService.class);
+        reservation = mock(CrdtService.QuotaReservation.class);
+        when(crdtService.reserveQuota(any(), anyLong())).thenReturn(reservation);
+        when(crdtService.availableName(any(), anyString(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(crdtService.createFile(anyString(), any(), anyLong(), any(), anyString(), anyString(), any()))
+                .thenReturn(new CrdtServiceResult(new FileNode(), null));
+        service = createService(new CompressionPolicy(blobStore));
+    }
+
+    private UploadSessionService createService(CompressionPolicy compressionPolicy) {
+        UploadSessionService service = new UploadSessionService(blobStore, crdtService, compressionPolicy);
+        ReflectionTestUtils.setField(service, "maxUploadSize", 16L * 1024 * 1024);
+        ReflectionTestUtils.setField(service, "sessionTtlMs", 60_000L);
+        ReflectionTestUtils.setField(service, "maxSessionsPerUser", 2);
+        return service;
+    }
+
+    private static long tempFileCount(Path storage) throws IOException {
+        try (var files = Files.walk(storage)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] chunk(byte[] content, int index) {
+        int start = (int) (index * CHUNK_SIZE);
+        return Arrays.copyOfRange(content, start, (int) Math.min(content.length, start + CHUNK_SIZE));
+    }
+
+    private static String sha256(byte[] content) {
+        return HexFormat.of().formatHex(BlobStore.newDigest().digest(content));
+    }
+
+    @Test
+    @DisplayName("Chunks sent out of order are committed under the hash of the whole content")
+    void whenChunksArriveOutOfOrder_thenCommittedHashCoversAllBytes() throws Exception {
+        // given: three chunks, the last one shorter
+        byte[] content = content((int) (2 * CHUNK_SIZE + 100));
+        UploadSessionService.UploadStatus status = service.create("data.bin", null, (long) content.length,
+                "application/octet-stream", CHUNK_SIZE, USER_ID);
+        assertThat(status.chunkCount()).isEqualTo(3);
+
+        // when: they arrive as 2, 0, 1
+        UUID uploadId = status.uploadId();
+        assertThat(service.writeChunk(uploadId, 2, new ByteArrayInputStream(chunk(content, 2)), USER_ID)
+                .receivedChunks()).containsExactly(2);
+        service.writeChunk(uploadId, 0, new ByteArrayInputStream(chunk(content, 0)), USER_ID);
+        service.writeChunk(uploadId, 1, new ByteArrayInputStream(chunk(content, 1)), USER_ID);
+        service.commit(uploadId, USER_ID);
+
+        // then: the file is registered with the content's size and hash
+        verify(crdtService).createFile(eq("data.bin"), isNull(), eq((long) content.length),
+                eq("application/octet-stream"), anyString(), eq(sha256(content)), eq(USER_ID));
+        verify(crdtService).reserveQuota(USER_ID, content.length);
+        verify(reservation).close();
+    }
+
+    @Test
+    @DisplayName("Chunks after a gap are held until the gap is filled, so commit waits for it")
+    void whenAChunkIsMissing_thenCommitIsRefused() throws Exception {
+        byte[] content = content((int) (2 * CHUNK_SIZE));
+        UUID uploadId = service.create("data.bin", null, (long) content.length, null, CHUNK_SIZE, USER_ID)
+                .uploadId();
+
+        service.writeChunk(uploadId, 1, new ByteArrayInputStream(chunk(content, 1)), USER_ID);
+
+        assertThatThrownBy(() -> service.commit(uploadId, USER_ID))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("missing 1 of 2");
+
+        // A retried chunk is acknowledged; filling the gap completes the hash.
+        service.writeChunk(uploadId, 1, new ByteArrayInputStream(chunk(content, 1)), USER_ID);
+        service.writeChunk(uploadId, 0, new ByteArrayInputStream(chunk(content, 0)), USER_ID);
+        service.commit(uploadId, USER_ID);
+        verify(crdtService).createFile(anyString(), isNull(), anyLong(), isNull(), anyString(),
+                eq(sha256(content)), eq(USER_ID));
+    }
+
+    @Test
+    @DisplayName("An upload larger than the limit is refused with a typed exception")
+    void whenSizeExceedsLimit_thenFileTooLargeIsThrown() {
+        assertThatThrownBy(() -> service.create("big.bin", null, 17L * 1024 * 1024, null, null, USER_ID))
+                .isInstanceOf(FileTooLargeException.class);
+    }
+
+    @Test
+    @DisplayName("A user cannot hold more open sessions than allowed; cancelling one frees a slot and its quota")
+    void whenSessionLimitIsReached_thenCreateIsRefused() throws Exception {
+        // given
+        UUID first = service.create("a.bin", null, 10L, null, null, USER_ID).uploadId();
+        service.create("b.bin", null, 10L, null, null, USER_ID);
+
+        // then: a third is refused, while other users are unaffected
+        assertThatThrownBy(() -> service.create("c.bin", null, 10L, null, null, USER_ID))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Too many unfinished uploads");
+        service.create("c.bin", null, 10L, null, null, UUID.randomUUID());
+
+        // when
+        service.abort(first, USER_ID);
+
+        // then
+        verify(reservation).close();
+        service.create("c.bin", null, 10L, null, null, USER_ID);
+    }
+
+    @Test
+    @DisplayName("A failed commit removes the temporary file and releases the quota")
+    void whenAdoptionFails_thenTempFileIsDeleted() throws Exception {
+        // given
+        CompressionPolicy failing = mock(CompressionPolicy.class);
+        doThrow(new IOException("disk full")).when(failing).adopt(any(), anyString(), anyLong(), any());
+        UploadSessionService service = createService(failing);
+        byte[] content = content(100);
+        UUID uploadId = service.create("data.bin", null, (long) content.length, null, null, USER_ID).uploadId();
+        service.writeChunk(uploadId, 0, new ByteArrayInputStream(content), USER_ID);
+        assertThat(tempFileCount(storage)).isEqualTo(1);
+
+        // when
+        assertThatThrownBy(() -> service.commit(uploadId, USER_ID)).isInstanceOf(IOException.class);
+
+        // then
+        assertThat(tempFileCount(storage)).isZero();
+        verify(reservation).close();
+    }
+
+    @Test
+    @DisplayName("Temporary files from before a restart are removed at startup")
+    void whenApplicationStarts_thenOrphanedTempFilesAreRemoved() throws Exception {
+        // given: a partial upload left by a previous process
+        Path orphan = new LocalBlobStore(storage.toString()).createTempFile();
+        Files.setLastModifiedTime(orphan, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+
+        service.removeOrphanedFiles();
+
+        assertThat(orphan).doesNotExist();
+    }
+}
@@ -2,20 +2,107 @@ import { defineStore } from 'pinia'
 import api from '../api'
 import { useToastStore } from './toast'
 
+const VIRTUAL_ROOT_ID = '00000000-0000-0000-0000-000000000002'
+
+// Files above this size go through resumable upload sessions, several chunks at a time.
+const CHUNKED_UPLOAD_THRESHOLD = 32 * 1024 * 1024
+const PARALLEL_CHUNKS = 4
+
+async function uploadInChunks(file, parentId) {
+    const { data: session } = await api.post('/api/files/uploads', {
+        name: file.name,
+        parentId,
+        size: file.size,
+        mimeType: file.type || 'application/octet-stream'
+    })
+    const received = new Set(session.receivedChunks)
+    const pending = []
+    for (let index = 0; index < session.chunkCount; index++) {
+        if (!received.has(index)) pending.push(index)
+    }
+    const sendNext = async () => {
+        while (pending.length) {
+            const index = pending.shift()
+            const start = index * session.chunkSize
+            const chunk = file.slice(start, Math.min(start + session.chunkSize, file.size))
+            // A failed chunk is retried once before the whole upload gives up.
+            for (let attempt = 0; ; attempt++) {
+                try {
+                    await api.put(`/api/files/uploads/${session.uploadId}/chunks/${index}`, chunk, {
+                        headers: { 'Content-Type': 'application/octet-stream' },
+                        timeout: 300000
+                    })
+                    break
+                } catch (error) {
+                    if (attempt >= 1) throw error
+                }
+            }
+        }
+    }
+    try {
+        await Promise.all(Array.from({ length: PARALLEL_CHUNKS }, sendNext))
+        return await api.post(`/api/files/uploads/${session.uploadId}/commit`)
+    } catch (error) {
+        api.delete(`/api/files/uploads/${session.uploadId}`).catch(() => {})
+        throw error
+    }
+}
+
+// Merges a delta from GET /files/tree?sinceVersion= into the nested tree.
+function applyTreeDelta(files, { upserted = [], removed = [] }) {
+    const byId = new Map()
+    const flatten = (nodes) => nodes.forEach(node => {
+        const { children, ...rest } = node
+        byId.set(rest.id, rest)
+        flatten(children || [])
+    })
+    flatten(files)
+    removed.forEach(id => byId.delete(id))
+    upserted.forEach(node => byId.set(node.id, node))
+
+    const childrenOf = new Map()
+    byId.forEach(node => {
+        const key = node.parentId && node.parentId !== VIRTUAL_ROOT_ID ? node.parentId : null
+        if (!childrenOf.has(key)) {
+            childrenOf.set(key, [])
+        }
+        childrenOf.get(key).push(node)
+    })
+    // Nodes whose parent is gone are unreachable, just like on the server.
+    const build = (parentId) => (childrenOf.get(parentId) || [])
+        .sort((a, b) => (a.name < b.name ? -1 : a.name > b.name ? 1 : 0))
+        .map(node => {
+            const children = build(node.id)
+            return children.length ? { ...node, children } : { ...node }
+        })
+    return build(null)
+}
+
 export const useFileStore = defineStore('files', {
     state: () => ({
         files: [],
         currentPath: [],
         selectedFile: null,
-        loading: false
+        loading: false,
+        // Version of `files`, so reloads only fetch what changed since.
+        treeVersion: null,
+        treeEpoch: null
     }),
 
     actions: {
         async loadFiles() {
             this.loading = true
             try {
-                const response = await api.get('/api/files/tree')
-                this.files = response.data.nodes || []
+                const params = this.treeVersion === null ? {} : { sinceVersion: this.treeVersion, epoch: this.treeEpoch }
+                const response = await api.get('/api/files/tree', { params })
+                const data = response.data
+                if (data.full === false) {
+                    this.files = applyTreeDelta(this.files, data)
+                } else {
+                    this.files = data.nodes || []
+                }
+                this.treeVersion = data.version ?? null
+                this.treeEpoch = data.epoch ?? null
                 return { success: true }
             } catch (error) {
                 console.error('Error loading files:', error)
@@ -54,6 +141,12 @@ export const useFileStore = defineStore('files', {
 
         async uploadFile(file, parentId = null) {
             try {
+                if (file.size > CHUNKED_UPLOAD_THRESHOLD) {
+                    const response = await uploadInChunks(file, parentId)
+                    const toastStore = useToastStore()
+                    toastStore.success('Yêu cầu tải file lên đã được gửi')
+                    return { success: true, data: response.data }
+                }
                 const formData = new FormData()
                 formData.append('file', file)
                 if (parentId) {
@@ -1,9 +1,48 @@
 import { defineStore } from 'pinia'
 import { Client } from '@stomp/stompjs'
 import SockJS from 'sockjs-client/dist/sockjs'
+import api from '../api'
 import { useFileStore } from './files'
 import { useToastStore } from './toast'
 
+// Several events can arrive in one batch frame; reload the tree once for all of them.
+let reloadTimer = null
+// Events of one batch share a millisecond, so Date.now() alone is not a unique key.
+let operationCounter = 0
+function scheduleReload() {
+    if (reloadTimer) {
+        return
+    }
+    reloadTimer = setTimeout(() => {
+        reloadTimer = null
+        useFileStore().loadFiles()
+    }, 0)
+}
+
+// Node events are delivered per folder (/topic/folders/{id}), for changes anywhere
+// in its subtree. The explorer loads and shows the whole tree, so the root is the
+// only folder it needs to watch.
+export const ROOT_FOLDER_ID = '00000000-0000-0000-0000-000000000002'
+const FOLDER_TOPIC = '/topic/folders/'
+// Active STOMP subscriptions by folder id.
+const subscriptions = new Map()
+// An event inside several watched folders arrives once per folder; route it once.
+const routedSeqs = new Set()
+const ROUTED_SEQS_LIMIT = 1000
+function firstDelivery(seq) {
+    if (seq === undefined || seq === null) {
+        return true
+    }
+    if (routedSeqs.has(seq)) {
+        return false
+    }
+    routedSeqs.add(seq)
+    if (routedSeqs.size > ROUTED_SEQS_LIMIT) {
+        routedSeqs.delete(routedSeqs.values().next().value)
+    }
+    return true
+}
+
 function getWebSocketURL() {
     const baseUrl = process.env.VUE_APP_API_BASE_URL || 'http://localhost:8080';
     // SockJS expects an http/https URL, it handles the ws/wss upgrade internally.
@@ -16,7 +55,14 @@ export const useSyncStore = defineStore('sync', {
         client: null,
         connectionStatus: 'Disconnected',
         lastSyncTime: null,
-        operations: []
+        operations: [],
+        // Folder copies in progress by copyId: { sourceId, completed, total }.
+        copies: {},
+        // Folders whose subtrees this client receives changes for.
+        watchedFolders: [ROOT_FOLDER_ID],
+        // Position in the server's event stream, used to replay missed events on reconnect.
+        epoch: null,
+        lastSeq: 0
     }),
 
     actions: {
@@ -36,15 +82,11 @@ export const useSyncStore = defineStore('sync', {
                     this.connectionStatus = 'Connected'
                     const toastStore = useToastStore();
                     toastStore.success('Đã kết nối với máy chủ.');
-                    this.client.subscribe('/topic/events', (message) => {
-                        try {
-                            const payload = JSON.parse(message.body)
-                            const { type, data } = payload || {}
-                            this.routeEvent(type, data)
-                        } catch (e) {
-                            console.error('Invalid STOMP message', e)
-                        }
-                    })
+                    subscriptions.clear()
+                    this.watchedFolders.forEach(folderId => this.subscribeFolder(folderId))
+                    if (this.epoch) {
+                        this.replayMissed()
+                    }
                 },
                 onDisconnect: () => {
                     this.connectionStatus = 'Disconnected'
@@ -69,11 +111,85 @@ export const useSyncStore = defineStore('sync', {
                 this.client = null
                 this.connectionStatus = 'Disconnected'
             }
+            subscriptions.clear()
+        },
+
+        subscribeFolder(folderId) {
+            if (subscriptions.has(folderId)) {
+                return
+            }
+            subscriptions.set(folderId, this.client.subscribe(FOLDER_TOPIC + folderId, (message) => {
+                try {
+                    const payload = JSON.parse(message.body)
+                    this.handleFrame(payload || {})
+                } catch (e) {
+                    console.error('Invalid STOMP message', e)
+                }
+            }))
+        },
+
+        handleFrame({ type, data }) {
+            if (!data || data.epoch === undefined) {
+                this.routeEvent(type, data)
+                return
+            }
+            if (this.epoch !== data.epoch) {
+                // First frame, or the server restarted: we cannot know what changed in between.
+                const known = this.epoch !== null
+                this.epoch = data.epoch
+                this.lastSeq = data.lastSeq
+                if (known) {
+                    scheduleReload()
+                }
+                this.routeEvent(type, data)
+                return
+            }
+            if (type !== 'batch') {
+                // Summary frame: the events themselves are not included, only their range.
+                this.lastSeq = Math.max(this.lastSeq, data.lastSeq)
+                this.routeEvent(type, data)
+                return
+            }
+            // A folder only receives the events inside it, so gaps in the
+            // sequence are expected while connected; only reconnects replay.
+            this.routeEvent(type, data)
+            this.lastSeq = Math.max(this.lastSeq, data.lastSeq)
+        },
+
+        async replayMissed() {
+            const since = this.lastSeq
+            try {
+                for (const folderId of this.watchedFolders) {
+                    const response = await api.get('/api/crdt/events', {
+                        params: { since, epoch: this.epoch, folderId }
+                    })
+                    const { epoch, lastSeq, resyncRequired, events } = response.data
+                    if (resyncRequired) {
+                        this.epoch = epoch
+                        this.lastSeq = lastSeq
+                        scheduleReload()
+                        return
+                    }
+                    events.filter(event => firstDelivery(event.seq))
+                        .forEach(event => this.routeEvent(event.type, event.data))
+                    this.lastSeq = Math.max(this.lastSeq, lastSeq)
+                }
+            } catch (e) {
+                console.error('Event replay failed, reloading file tree', e)
+                scheduleReload()
+            }
         },
 
         routeEvent(eventType, data) {
-            const fileStore = useFileStore();
             const toastStore = useToastStore();
+
+            if (eventType === 'batch') {
+                // The server coalesces events per tick and sends them together.
+                (data?.events || []).filter(event => firstDelivery(event.seq))
+                    .forEach(event => this.routeEvent(event.type, event.data))
+                return
+            }
+
             this.addOperation(eventType, data);
 
             switch (eventType) {
@@ -86,7 +202,7 @@ export const useSyncStore = defineStore('sync', {
                 case 'file.externally_modified':
                     // The most robust way to sync the UI is to refetch the canonical state from the server.
                     console.log(`Received event '${eventType}', reloading file tree.`);
-                    fileStore.loadFiles();
+                    scheduleReload();
                     break;
 
                 // Events that affect connection/sync status
@@ -97,12 +213,19 @@ export const useSyncStore = defineStore('sync', {
                     this.connectionStatus = 'Connected';
                     this.lastSyncTime = new Date();
                     // A sync might have merged operations, so reload the tree to be safe.
-                    fileStore.loadFiles();
+                    scheduleReload();
+                    break;
+                case 'copy.progress':
+                    if (data.completed >= data.total) {
+                        delete this.copies[data.copyId];
+                    } else {
+                        this.copies[data.copyId] = { sourceId: data.sourceId, completed: data.completed, total: data.total };
+                    }
                     break;
                 case 'sync.conflict':
                     toastStore.error('Xung đột đồng bộ. Đang tải lại trạng thái.');
                     this.addOperation('Sync Conflict', data);
-                    fileStore.loadFiles();
+                    scheduleReload();
                     break;
                 
                 default:
@@ -114,7 +237,7 @@ export const useSyncStore = defineStore('sync', {
 
         addOperation(type, data) {
             this.operations.unshift({
-                id: Date.now(),
+                id: `${Date.now()}-${operationCounter++}`,
                 type,
                 data,
                 timestamp: new Date()